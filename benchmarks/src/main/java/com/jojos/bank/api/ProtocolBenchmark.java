@@ -0,0 +1,122 @@
+package com.jojos.bank.api;
+
+import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.TransferStatus;
+import com.jojos.bank.resource.BinaryServer;
+import com.jojos.bank.resource.Database;
+import com.jojos.bank.resource.Server;
+import com.jojos.bank.service.TransferHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time of a transfer sent over HTTP with JSON, the way the {@link ResourceApi} is used, and over the
+ * {@link BinaryProtocol}, waiting for every response before sending the next transfer or pipelining
+ * {@value #PIPELINE_DEPTH} of them at once. Both servers run in the benchmark's JVM and are reached over loopback,
+ * every transfer moves a cent between two accounts.
+ *
+ * @author karanikasg@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dbank.history=false")
+@Threads(1)
+@State(Scope.Benchmark)
+public class ProtocolBenchmark {
+
+    private static final int PIPELINE_DEPTH = 100;
+
+    private Server server;
+    private BinaryServer binaryServer;
+    private BinaryClient client;
+    private URL transferUrl;
+    private byte[] transferJson;
+    private int fromId;
+    private int toId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new Server();
+        server.start();
+        binaryServer = new BinaryServer(0);
+        binaryServer.start();
+        client = new BinaryClient("localhost", binaryServer.getPort());
+
+        fromId = Database.add(new Account(new BigDecimal("1000000000.00"), Currency.EURO));
+        toId = Database.add(new Account(BigDecimal.ZERO, Currency.EURO));
+        transferUrl = server.getURI().resolve("api/transfer").toURL();
+        transferJson = ("{\"fromAccountId\":" + fromId + ",\"toAccountId\":" + toId + ",\"transferAmount\":\"0.01\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        binaryServer.stop();
+        server.stop();
+        TransferHandler.INSTANCE.shutdown();
+        Database.close();
+    }
+
+    @Benchmark
+    public int rest() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) transferUrl.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(transferJson);
+        }
+        int status = connection.getResponseCode();
+        // read to the end so that the connection is kept alive
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                while (in.read() >= 0) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    @Benchmark
+    public TransferStatus binary() throws InterruptedException, ExecutionException {
+        return client.transfer(fromId, toId, 1, Currency.EURO).get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public void binaryPipelined() throws InterruptedException, ExecutionException {
+        CompletableFuture<?>[] transfers = new CompletableFuture<?>[PIPELINE_DEPTH];
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            transfers[i] = client.transfer(fromId, toId, 1, Currency.EURO);
+        }
+        CompletableFuture.allOf(transfers).get();
+    }
+}
@@ -0,0 +1,279 @@
+package com.jojos.bank.benchmark;
+
+import com.jojos.bank.resource.Database;
+import com.jojos.bank.resource.Server;
+import com.jojos.bank.service.TransferHandler;
+import com.jojos.bank.util.AccountCreator;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+/**
+ * Boots the {@link Server} in this JVM, seeds it with accounts and drives it over HTTP with an open-loop load: requests
+ * are sent at a fixed rate whether or not the previous ones were answered, the way independent clients behave.
+ *
+ * The latency of a request is measured from the time it was meant to be sent rather than from the time a connection
+ * became free to send it. A closed loop, or an open loop measuring from the actual send, stops sending while the server
+ * stalls and so hides the stall from all the requests that should have been waiting for it (coordinated omission).
+ * Both measures are reported, the second one as the service time.
+ *
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@value #RATE_PROPERTY}: requests per second, 1000 by default</li>
+ *     <li>{@value #DURATION_PROPERTY}: seconds of measured load, 30 by default</li>
+ *     <li>{@value #WARMUP_PROPERTY}: seconds of load before the measurement, 10 by default</li>
+ *     <li>{@value #ACCOUNTS_PROPERTY}: accounts created before the load starts, 10000 by default</li>
+ *     <li>{@value #SKEW_PROPERTY}: skew of the Zipfian choice of the accounts, 0.99 by default, 0 for a uniform choice</li>
+ *     <li>{@value #MIX_PROPERTY}: relative weights of the transfers, account reads and account creations,
+ *     80:18:2 by default</li>
+ *     <li>{@value #CONNECTIONS_PROPERTY}: concurrent connections to the server, 64 by default</li>
+ * </ul>
+ * The properties of the application, ie {@code bank.concurrency.mode}, configure the server under load.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class LoadGenerator {
+
+    public static final String RATE_PROPERTY = "bank.load.rate";
+    public static final String DURATION_PROPERTY = "bank.load.duration";
+    public static final String WARMUP_PROPERTY = "bank.load.warmup";
+    public static final String ACCOUNTS_PROPERTY = "bank.load.accounts";
+    public static final String SKEW_PROPERTY = "bank.load.skew";
+    public static final String MIX_PROPERTY = "bank.load.mix";
+    public static final String CONNECTIONS_PROPERTY = "bank.load.connections";
+
+    private static final byte[] NEW_ACCOUNT = "{\"balance\":\"1000.00\",\"currency\":\"EUR\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private enum Operation {
+        TRANSFER, GET_ACCOUNT, CREATE;
+
+        // from the intended send time, so corrected for coordinated omission
+        private final Recorder latency = new Recorder(3);
+        // from the actual send time
+        private final Recorder serviceTime = new Recorder(3);
+        private final Map<String, LongAdder> responses = new ConcurrentHashMap<>();
+    }
+
+    private final String baseUri;
+    private final int[] accountIds;
+    private final Zipfian accounts;
+    private final Operation[] operations;
+    private final ExecutorService connections;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private LoadGenerator(String baseUri, int[] accountIds, double skew, int[] mix, int connectionCount) {
+        this.baseUri = baseUri;
+        this.accountIds = accountIds;
+        this.accounts = new Zipfian(accountIds.length, skew);
+        this.operations = new Operation[mix[0] + mix[1] + mix[2]];
+        int next = 0;
+        for (Operation operation : Operation.values()) {
+            for (int i = 0; i < mix[operation.ordinal()]; i++) {
+                operations[next++] = operation;
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.connections = Executors.newFixedThreadPool(connectionCount, runnable -> {
+            Thread thread = new Thread(runnable, "load-connection-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int rate = Integer.getInteger(RATE_PROPERTY, 1000);
+        int duration = Integer.getInteger(DURATION_PROPERTY, 30);
+        int warmup = Integer.getInteger(WARMUP_PROPERTY, 10);
+        int accountCount = Integer.getInteger(ACCOUNTS_PROPERTY, 10_000);
+        double skew = Double.parseDouble(System.getProperty(SKEW_PROPERTY, "0.99"));
+        int[] mix = parseMix(System.getProperty(MIX_PROPERTY, "80:18:2"));
+        int connectionCount = Integer.getInteger(CONNECTIONS_PROPERTY, 64);
+        // otherwise HttpURLConnection only keeps 5 idle connections alive and reconnects for most requests
+        System.setProperty("http.maxConnections", String.valueOf(connectionCount));
+
+        Server server = new Server();
+        server.start();
+        try {
+            int[] ids = AccountCreator.createAndStoreRandomTestAccounts(accountCount).stream()
+                    .flatMapToInt(range -> IntStream.rangeClosed(range.getFirstId(), range.getLastId()))
+                    .toArray();
+            LoadGenerator generator = new LoadGenerator(server.getURI().resolve("api/").toString(), ids, skew, mix,
+                    connectionCount);
+            System.out.printf("%d requests/s for %ds after %ds of warm up, %d accounts, skew %s, mix %s, " +
+                            "%d connections, %s%n", rate, duration, warmup, accountCount, skew,
+                    System.getProperty(MIX_PROPERTY, "80:18:2"), connectionCount,
+                    System.getProperty("bank.concurrency.mode", "default concurrency mode"));
+
+            long elapsed = generator.run(rate, warmup, duration);
+            generator.report(System.out, elapsed, server);
+        } finally {
+            server.stop();
+            TransferHandler.INSTANCE.shutdown();
+            Database.close();
+        }
+    }
+
+    private static int[] parseMix(String mix) {
+        String[] weights = mix.split(":");
+        if (weights.length != Operation.values().length) {
+            throw new IllegalArgumentException("Expected transfer:get:create weights but got " + mix);
+        }
+        int[] parsed = new int[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            parsed[i] = Integer.parseInt(weights[i].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Send the requests, the ones meant to be sent during the warm up are not measured
+     * @return the nanoseconds from the first measured request to the last response
+     */
+    private long run(int rate, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        SplittableRandom random = new SplittableRandom(42);
+        double interval = TimeUnit.SECONDS.toNanos(1) / (double) rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * interval);
+            if (intended >= end) {
+                break;
+            }
+            // never waits once behind schedule, the late requests are sent at once and are charged the delay
+            for (long now = System.nanoTime(); now < intended; now = System.nanoTime()) {
+                LockSupport.parkNanos(intended - now);
+            }
+            Operation operation = operations[random.nextInt(operations.length)];
+            int from = accountIds[accounts.next(random)];
+            int to = accountIds[accounts.next(random)];
+            boolean measured = intended >= measureFrom;
+            inFlight.incrementAndGet();
+            connections.execute(() -> send(operation, from, to, intended, measured));
+        }
+
+        connections.shutdown();
+        if (!connections.awaitTermination(1, TimeUnit.MINUTES)) {
+            System.out.printf("%d requests were still not answered a minute after the end of the load%n",
+                    inFlight.get());
+        }
+        return System.nanoTime() - measureFrom;
+    }
+
+    private void send(Operation operation, int from, int to, long intended, boolean measured) {
+        long sent = System.nanoTime();
+        String outcome;
+        try {
+            switch (operation) {
+                case TRANSFER:
+                    String transfer = "{\"fromAccountId\":" + from + ",\"toAccountId\":" + to +
+                            ",\"transferAmount\":\"0.01\"}";
+                    outcome = String.valueOf(request("POST", "transfer", transfer.getBytes(StandardCharsets.UTF_8)));
+                    break;
+                case GET_ACCOUNT:
+                    outcome = String.valueOf(request("GET", "account/" + from, null));
+                    break;
+                default:
+                    outcome = String.valueOf(request("POST", "create", NEW_ACCOUNT));
+                    break;
+            }
+        } catch (IOException e) {
+            outcome = e.getClass().getSimpleName();
+        }
+        long done = System.nanoTime();
+        inFlight.decrementAndGet();
+
+        if (measured) {
+            operation.latency.recordValue(done - intended);
+            operation.serviceTime.recordValue(done - sent);
+            operation.responses.computeIfAbsent(outcome, status -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * @return the status code of the response, which is read to the end so that the connection can be reused
+     */
+    private int request(String method, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUri + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try (InputStream response = in) {
+                byte[] buffer = new byte[1024];
+                while (response.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private void report(PrintStream out, long elapsedNanos, Server server) {
+        double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        Histogram total = null;
+        out.printf("%n%-12s %10s %10s %10s %10s %10s %10s  %s%n",
+                "", "requests", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99", "responses");
+        for (Operation operation : Operation.values()) {
+            Histogram latency = operation.latency.getIntervalHistogram();
+            Histogram serviceTime = operation.serviceTime.getIntervalHistogram();
+            if (latency.getTotalCount() == 0) {
+                continue;
+            }
+            print(out, operation.name(), latency, serviceTime, new TreeMap<>(operation.responses));
+            if (total == null) {
+                total = latency.copy();
+            } else {
+                total.add(latency);
+            }
+        }
+        if (total == null) {
+            out.println("No request was measured");
+            return;
+        }
+        out.printf("%nThroughput %.1f responses/s, %d requests rejected by the server executor%n",
+                total.getTotalCount() / seconds, server.getExecutor().getRejectedRequests());
+        out.printf("All requests: p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                millis(total.getValueAtPercentile(50)), millis(total.getValueAtPercentile(99)),
+                millis(total.getValueAtPercentile(99.9)), millis(total.getMaxValue()));
+    }
+
+    private static void print(PrintStream out, String name, Histogram latency, Histogram serviceTime,
+                              Map<String, LongAdder> responses) {
+        out.printf("%-12s %10d %10.3f %10.3f %10.3f %10.3f %10.3f  %s%n", name, latency.getTotalCount(),
+                millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(99)),
+                millis(latency.getValueAtPercentile(99.9)), millis(latency.getMaxValue()),
+                millis(serviceTime.getValueAtPercentile(99)), responses);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,53 @@
+package com.jojos.bank.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Picks indexes from {@code [0, size)} following a Zipfian distribution: index {@code i} is picked with a probability
+ * proportional to {@code 1 / (i + 1)^skew}. A skew of 0 picks uniformly, around 1 a handful of hot indexes get most
+ * of the picks.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class Zipfian {
+
+    private final double[] cumulative;
+
+    public Zipfian(int size, double skew) {
+        if (size <= 0 || skew < 0) {
+            throw new IllegalArgumentException("Invalid size " + size + " or skew " + skew);
+        }
+        cumulative = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= sum;
+        }
+    }
+
+    /**
+     * @return the next index, picked with the given random generator
+     */
+    public int next(SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        // not found: the insertion point is the first index whose cumulative probability is above the draw
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+
+    /**
+     * Draw many indexes up front, so that a benchmark picking accounts doesn't measure the picking
+     * @return the indexes, in the order they were drawn
+     */
+    public int[] sample(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] sample = new int[count];
+        for (int i = 0; i < count; i++) {
+            sample[i] = next(random);
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,164 @@
+package com.jojos.bank.money;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.jojos.bank.api.AccountJsonProvider;
+import com.jojos.bank.api.TransferBatchJsonProvider;
+import com.jojos.bank.api.TransferJsonProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time of the JSON conversions done for every request: reading a {@link Transfer} or a batch of them and
+ * reading or writing an {@link Account}, whose currency goes through the custom (de)serializers.
+ *
+ * Every conversion is measured with Jackson's data binding and with the hand written streaming providers the server
+ * registers (the {@code stream} benchmarks). Run it with {@code -prof gc} to compare the allocations too.
+ *
+ * @author karanikasg@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private ObjectReader transferReader;
+    private ObjectReader batchReader;
+    private ObjectReader accountReader;
+    private ObjectWriter accountWriter;
+    private ObjectWriter batchWriter;
+
+    private ObjectWriter statusesWriter;
+
+    private final AccountJsonProvider accountProvider = new AccountJsonProvider();
+    private final TransferJsonProvider transferProvider = new TransferJsonProvider();
+    private final TransferBatchJsonProvider batchProvider = new TransferBatchJsonProvider();
+    private final Type batchType = new GenericType<List<Transfer>>() { }.getType();
+    private final Type statusesType = new GenericType<List<TransferStatus>>() { }.getType();
+
+    // the providers write into the stream of the response, which is reused like the one of a connection
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+
+    private Account account;
+    private List<Transfer> batch;
+    private List<TransferStatus> statuses;
+    private byte[] transferJson;
+    private byte[] batchJson;
+    private byte[] accountJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        transferReader = mapper.readerFor(Transfer.class);
+        batchReader = mapper.readerFor(new TypeReference<List<Transfer>>() { });
+        accountReader = mapper.readerFor(Account.class);
+        accountWriter = mapper.writerFor(Account.class);
+        batchWriter = mapper.writerFor(new TypeReference<List<Transfer>>() { });
+        statusesWriter = mapper.writerFor(new TypeReference<List<TransferStatus>>() { });
+
+        account = new Account(new BigDecimal("1234.56"), Currency.EURO);
+        batch = new ArrayList<>(BATCH_SIZE);
+        statuses = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new Transfer(i, i + 1, "10.50"));
+            statuses.add(i % 10 == 0 ? TransferStatus.INSUFFICIENT_FUNDS : TransferStatus.OK);
+        }
+        transferJson = mapper.writeValueAsBytes(batch.get(0));
+        batchJson = batchWriter.writeValueAsBytes(batch);
+        accountJson = accountWriter.writeValueAsBytes(account);
+    }
+
+    @Benchmark
+    public Transfer readTransfer() throws IOException {
+        return transferReader.readValue(transferJson);
+    }
+
+    @Benchmark
+    public List<Transfer> readBatch() throws IOException {
+        return batchReader.readValue(batchJson);
+    }
+
+    @Benchmark
+    public Account readAccount() throws IOException {
+        return accountReader.readValue(accountJson);
+    }
+
+    @Benchmark
+    public byte[] writeAccount() throws IOException {
+        return accountWriter.writeValueAsBytes(account);
+    }
+
+    @Benchmark
+    public byte[] writeBatch() throws IOException {
+        return batchWriter.writeValueAsBytes(batch);
+    }
+
+    @Benchmark
+    public byte[] writeStatuses() throws IOException {
+        return statusesWriter.writeValueAsBytes(statuses);
+    }
+
+    @Benchmark
+    public Transfer streamReadTransfer() throws IOException {
+        return transferProvider.readFrom(Transfer.class, Transfer.class, null, MediaType.APPLICATION_JSON_TYPE, null,
+                new ByteArrayInputStream(transferJson));
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Transfer> streamReadBatch() throws IOException {
+        return batchProvider.readFrom((Class<List<Transfer>>) (Class<?>) List.class, batchType, null,
+                MediaType.APPLICATION_JSON_TYPE, null, new ByteArrayInputStream(batchJson));
+    }
+
+    @Benchmark
+    public Account streamReadAccount() throws IOException {
+        return accountProvider.readFrom(Account.class, Account.class, null, MediaType.APPLICATION_JSON_TYPE, null,
+                new ByteArrayInputStream(accountJson));
+    }
+
+    @Benchmark
+    public int streamWriteAccount() throws IOException {
+        out.reset();
+        accountProvider.writeTo(account, Account.class, Account.class, null, MediaType.APPLICATION_JSON_TYPE, null,
+                out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int streamWriteStatuses() throws IOException {
+        out.reset();
+        batchProvider.writeTo(statuses, ArrayList.class, statusesType, null, MediaType.APPLICATION_JSON_TYPE, null,
+                out);
+        return out.size();
+    }
+}
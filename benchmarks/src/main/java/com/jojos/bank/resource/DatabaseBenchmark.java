@@ -0,0 +1,115 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time of the reads and writes of an account: through the {@link Database} facade, which converts from and
+ * to {@link Account} objects, and directly against every {@link AccountStore}.
+ *
+ * The facade uses the store selected by {@code -Dbank.store}, pass it with {@code -jvmArgsAppend -Dbank.store=primitive}
+ * to benchmark another store.
+ *
+ * @author karanikasg@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class DatabaseBenchmark {
+
+    private static final int ACCOUNTS = 1 << 16;
+
+    @Param({"MAP", "PRIMITIVE", "MAPPED"})
+    public StoreType storeType;
+
+    private AccountStore store;
+    private Path file;
+    private final int[] databaseIds = new int[ACCOUNTS];
+    private final int[] storeIds = new int[ACCOUNTS];
+    private final Account account = new Account(new BigDecimal("1234.56"), Currency.EURO);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (storeType == StoreType.MAPPED) {
+            file = Files.createTempFile("accounts", ".db");
+            Files.delete(file);
+            store = new MappedAccountStore(file);
+        } else {
+            store = storeType.newStore();
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            databaseIds[i] = Database.add(account);
+            storeIds[i] = store.add(Currency.EURO, 123456);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static int pick(int[] ids) {
+        return ids[ThreadLocalRandom.current().nextInt(ACCOUNTS)];
+    }
+
+    @Benchmark
+    public Account databaseGet() {
+        return Database.get(pick(databaseIds));
+    }
+
+    @Benchmark
+    public VersionedAccount databaseGetVersioned() {
+        return Database.getVersioned(pick(databaseIds));
+    }
+
+    @Benchmark
+    public boolean databaseUpdate() {
+        return Database.update(pick(databaseIds), account);
+    }
+
+    @Benchmark
+    public long storeRead() {
+        int id = pick(storeIds);
+        return store.version(id) + store.balance(id);
+    }
+
+    @Benchmark
+    public boolean storeCompareAndSet() {
+        int id = pick(storeIds);
+        long version = store.version(id);
+        return store.compareAndSet(id, version, store.balance(id) + 1);
+    }
+}
@@ -0,0 +1,110 @@
+package com.jojos.bank.service;
+
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.Reconciliation;
+import com.jojos.bank.money.Transfer;
+import com.jojos.bank.util.AccountCreator;
+import com.jojos.bank.util.AccountRange;
+import com.jojos.bank.util.BalanceDistribution;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to {@link TransferHandler#reconcile() reconcile} millions of accounts, on its own and while three threads keep
+ * transferring between random accounts, and the throughput of those transfers meanwhile.
+ *
+ * Run it with a heap large enough for the accounts and the {@code primitive} store, ie
+ * {@code -jvmArgsAppend "-Xmx4g -Dbank.store=primitive -Dbank.history=false"}.
+ *
+ * @author karanikasg@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReconciliationBenchmark {
+
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({"STRIPED", "OPTIMISTIC"})
+    public ConcurrencyMode mode;
+
+    @Param({"1000000", "5000000"})
+    public int accounts;
+
+    private TransferHandler handler;
+    private Transfer[] transfers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        handler = new TransferHandler(mode);
+        List<AccountRange> ranges = AccountCreator.createRandomTestAccounts(accounts, Currency.EURO,
+                BalanceDistribution.UNIFORM, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(9_000_000));
+        int first = ranges.get(0).getFirstId();
+        SplittableRandom random = new SplittableRandom(42);
+        transfers = new Transfer[SAMPLE_SIZE];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            transfers[i] = new Transfer(first + random.nextInt(accounts), first + random.nextInt(accounts), "1.00");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        handler.shutdown();
+    }
+
+    /**
+     * The position of every thread in the pre-drawn transfers
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = new SplittableRandom().nextInt(SAMPLE_SIZE);
+
+        int next() {
+            next = (next + 1) & (SAMPLE_SIZE - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Reconciliation reconcile() {
+        return handler.reconcile();
+    }
+
+    /**
+     * Three threads transferring while one reconciles all the accounts
+     */
+    @Benchmark
+    @Group("reconcileDuringTransfers")
+    @GroupThreads(3)
+    public boolean transferWhileReconciling(Cursor cursor) {
+        return handler.execute(transfers[cursor.next()]);
+    }
+
+    @Benchmark
+    @Group("reconcileDuringTransfers")
+    @GroupThreads(1)
+    public Reconciliation reconcileWhileTransferring() {
+        return handler.reconcile();
+    }
+}
@@ -0,0 +1,157 @@
+package com.jojos.bank.service;
+
+import com.jojos.bank.benchmark.Zipfian;
+import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.Transfer;
+import com.jojos.bank.resource.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link TransferHandler#execute(Transfer)} for every {@link ConcurrencyMode}, from one thread to as
+ * many threads as cores, over a varying number of accounts picked with a varying skew towards a few hot accounts.
+ *
+ * The accounts are added to the {@link Database} selected by {@code -Dbank.store}, pass it with
+ * {@code -jvmArgsAppend -Dbank.store=primitive} to benchmark another store.
+ *
+ * @author karanikasg@gmail.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({"STRIPED", "GLOBAL", "OPTIMISTIC", "SHARDED"})
+    public ConcurrencyMode mode;
+
+    @Param({"16", "100000"})
+    public int accounts;
+
+    /**
+     * 0 spreads the transfers evenly, 1.2 sends most of them to a handful of hot accounts
+     */
+    @Param({"0", "1.2"})
+    public double skew;
+
+    private TransferHandler handler;
+    private Transfer[] transfers;
+    private int[] readIds;
+    private int[][] readPairs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        handler = new TransferHandler(mode);
+        int[] ids = new int[accounts];
+        for (int i = 0; i < accounts; i++) {
+            // large enough that the accounts never run dry during a trial
+            ids[i] = Database.add(new Account(BigDecimal.valueOf(1_000_000_000), Currency.EURO));
+        }
+
+        Zipfian zipfian = new Zipfian(accounts, skew);
+        int[] from = zipfian.sample(SAMPLE_SIZE, 1);
+        int[] to = zipfian.sample(SAMPLE_SIZE, 2);
+        transfers = new Transfer[SAMPLE_SIZE];
+        readIds = new int[SAMPLE_SIZE];
+        readPairs = new int[SAMPLE_SIZE][];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            transfers[i] = new Transfer(ids[from[i]], ids[to[i]], "1.00");
+            readIds[i] = ids[to[i]];
+            readPairs[i] = new int[] {ids[from[i]], ids[to[i]]};
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        handler.shutdown();
+    }
+
+    /**
+     * The position of every thread in the pre-drawn transfers, so that threads don't all hit the same accounts
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = ThreadLocalRandom.current().nextInt(SAMPLE_SIZE);
+
+        int next() {
+            next = (next + 1) & (SAMPLE_SIZE - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean transferOneThread(Cursor cursor) {
+        return handler.execute(transfers[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean transferFourThreads(Cursor cursor) {
+        return handler.execute(transfers[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean transferAllCores(Cursor cursor) {
+        return handler.execute(transfers[cursor.next()]);
+    }
+
+    /**
+     * Three threads transferring while one reads the accounts they touch
+     */
+    @Benchmark
+    @Group("readsDuringTransfers")
+    @GroupThreads(3)
+    public boolean transferWhileReading(Cursor cursor) {
+        return handler.execute(transfers[cursor.next()]);
+    }
+
+    @Benchmark
+    @Group("readsDuringTransfers")
+    @GroupThreads(1)
+    public Account readWhileTransferring(Cursor cursor) {
+        return handler.getAccount(readIds[cursor.next()]);
+    }
+
+    /**
+     * Three threads transferring while one reads both accounts of transfers consistently
+     */
+    @Benchmark
+    @Group("consistentReadsDuringTransfers")
+    @GroupThreads(3)
+    public boolean transferWhileReadingConsistently(Cursor cursor) {
+        return handler.execute(transfers[cursor.next()]);
+    }
+
+    @Benchmark
+    @Group("consistentReadsDuringTransfers")
+    @GroupThreads(1)
+    public Map<Integer, Account> readConsistentlyWhileTransferring(Cursor cursor) {
+        return handler.getAccounts(readPairs[cursor.next()]);
+    }
+}
@@ -1,9 +1,19 @@
 package com.jojos.bank;
 
+import com.jojos.bank.resource.BinaryServer;
+import com.jojos.bank.resource.Database;
+import com.jojos.bank.resource.FxRateFile;
 import com.jojos.bank.resource.Server;
+import com.jojos.bank.resource.Snapshotter;
+import com.jojos.bank.resource.TransferJournal;
+import com.jojos.bank.service.TransferHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
 /**
  * The application's main entry point.
  *
@@ -13,7 +23,35 @@ public class App {
 
 	private static final Logger log = LoggerFactory.getLogger(App.class);
 
+	/**
+	 * The directory of the write-ahead journal. Accounts and transfers are only kept in memory if it is not set.
+	 */
+	public static final String JOURNAL_DIR_PROPERTY = "bank.journal.dir";
+
+	/**
+	 * Seconds between two snapshots of the accounts, taken when the journal is enabled. The journal is truncated
+	 * after every snapshot.
+	 */
+	public static final String SNAPSHOT_INTERVAL_PROPERTY = "bank.snapshot.interval";
+	private static final long DEFAULT_SNAPSHOT_INTERVAL = 60;
+
+	/**
+	 * The file holding the exchange rates of the transfers between accounts of different currencies. Such transfers
+	 * are refused if it is not set.
+	 */
+	public static final String FX_RATES_FILE_PROPERTY = "bank.fx.file";
+
+	/**
+	 * Seconds between two checks of the exchange rates file, which is reloaded when it changed.
+	 */
+	public static final String FX_RATES_REFRESH_INTERVAL_PROPERTY = "bank.fx.refresh.interval";
+	private static final long DEFAULT_FX_RATES_REFRESH_INTERVAL = 60;
+
 	private Server server;
+	private BinaryServer binaryServer;
+	private TransferJournal journal;
+	private Snapshotter snapshotter;
+	private FxRateFile fxRates;
 
 	public static void main(String[] args) {
 		App app = new App();
@@ -22,9 +60,32 @@ public class App {
 
 	public void start() {
 		log.info("Starting Embedded Jersey HTTPServer...");
+		String journalDir = System.getProperty(JOURNAL_DIR_PROPERTY);
+		if (journalDir != null) {
+			journal = TransferJournal.open(Paths.get(journalDir));
+			TransferHandler.INSTANCE.useJournal(journal);
+			snapshotter = new Snapshotter(journal);
+			snapshotter.start(Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL));
+		}
+		String fxRatesFile = System.getProperty(FX_RATES_FILE_PROPERTY);
+		if (fxRatesFile != null) {
+			fxRates = new FxRateFile(Paths.get(fxRatesFile));
+			fxRates.load();
+			fxRates.start(Long.getLong(FX_RATES_REFRESH_INTERVAL_PROPERTY, DEFAULT_FX_RATES_REFRESH_INTERVAL));
+		}
+		log.info("Accounts are kept in a {} store holding {} accounts", Database.storeType(), Database.count());
 
 		server = new Server();
 		server.start();
+		Integer binaryPort = Integer.getInteger(BinaryServer.PORT_PROPERTY);
+		if (binaryPort != null) {
+			try {
+				binaryServer = new BinaryServer(binaryPort);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not serve the binary protocol on port " + binaryPort, e);
+			}
+			binaryServer.start();
+		}
 		attachShutDownHook();
 	}
 
@@ -34,6 +95,20 @@ public class App {
                 // every piece of instructions that JVM should execute before going down should be defined here
                 server.stop();
             }
+            if (binaryServer != null) {
+                binaryServer.stop();
+            }
+            TransferHandler.INSTANCE.shutdown();
+            if (fxRates != null) {
+                fxRates.shutdown();
+            }
+            if (snapshotter != null) {
+                snapshotter.shutdown();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            Database.close();
         }));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.jojos.bank.api;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.jojos.bank.money.Account;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Reads and writes an {@link Account} as {@code {"balance":12.34,"currency":"EUR"}} with the {@link JsonCodec},
+ * taking precedence over the generic Jackson provider for this type.
+ *
+ * @author karanikasg@gmail.com
+ */
+@Provider
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class AccountJsonProvider implements MessageBodyReader<Account>, MessageBodyWriter<Account> {
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == Account.class;
+    }
+
+    @Override
+    public Account readFrom(Class<Account> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        try (JsonParser parser = JsonCodec.FACTORY.createParser(entityStream)) {
+            JsonCodec.expect(parser, JsonToken.START_OBJECT, "an account");
+            return JsonCodec.readAccount(parser);
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == Account.class;
+    }
+
+    @Override
+    public long getSize(Account account, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Account account, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException {
+        try (JsonGenerator generator = JsonCodec.FACTORY.createGenerator(entityStream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            JsonCodec.writeAccountFields(generator, account);
+            generator.writeEndObject();
+        }
+    }
+}
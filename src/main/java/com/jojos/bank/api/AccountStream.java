@@ -0,0 +1,102 @@
+package com.jojos.bank.api;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.jojos.bank.money.Account;
+import com.jojos.bank.resource.Database;
+import com.jojos.bank.service.TransferHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes accounts as newline delimited JSON, one account per line, ie
+ * {@code {"id":7,"balance":12.34,"currency":"EUR"}}, with Jackson's streaming parser and generator: neither the
+ * export nor the import ever holds more than a batch of accounts in memory.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class AccountStream {
+
+    static final String MEDIA_TYPE = "application/x-ndjson";
+
+    // accounts created with a single commit, and a single wait for the journal, by the import
+    static final int IMPORT_BATCH_SIZE = 10_000;
+
+    private AccountStream() {
+    }
+
+    /**
+     * Write all the accounts existing when the export starts, ordered by ID. Every account is read on its own: the
+     * export is not a point-in-time image of the accounts, transfers executed meanwhile may be seen half way.
+     */
+    static void write(OutputStream out) throws IOException {
+        int count = Database.count();
+        try (JsonGenerator generator = JsonCodec.FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            // separates the root values with a new line instead of a space
+            generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+            for (int accountId = 0; accountId < count; accountId++) {
+                Account account = Database.get(accountId);
+                if (account == null) {
+                    continue;
+                }
+                generator.writeStartObject();
+                generator.writeNumberField("id", accountId);
+                JsonCodec.writeAccountFields(generator, account);
+                generator.writeEndObject();
+            }
+            generator.writeRaw('\n');
+        }
+    }
+
+    /**
+     * Create the accounts read from the stream, in batches of {@value #IMPORT_BATCH_SIZE}. The accounts get new IDs,
+     * in the order they are read: the IDs of the export are kept when importing it into an empty bank.
+     * Fields other than the balance and the currency, ie the ID, are ignored.
+     *
+     * @return the number of accounts created
+     * @throws IllegalArgumentException if an account is invalid or the stream breaks, the accounts read before are
+     * created anyway and counted in the message
+     */
+    static int read(InputStream in, TransferHandler handler) {
+        int created = 0;
+        List<Account> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        try (JsonParser parser = JsonCodec.FACTORY.createParser(in)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Expected an account at line "
+                            + parser.getCurrentLocation().getLineNr());
+                }
+                batch.add(readAccount(parser));
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    created += handler.createAccounts(batch);
+                    batch.clear();
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            created += handler.createAccounts(batch);
+            throw new IllegalArgumentException(e.getMessage() + ". " + created + " accounts were imported before it",
+                    e);
+        }
+        return created + handler.createAccounts(batch);
+    }
+
+    private static Account readAccount(JsonParser parser) throws IOException {
+        int line = parser.getCurrentLocation().getLineNr();
+        Account account = JsonCodec.readAccount(parser);
+        try {
+            // checked before the batch is created, a batch either fits or is not created at all
+            account.getCurrency().toMinorUnits(account.getBalance());
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Balance too big at line " + line);
+        }
+        return account;
+    }
+}
@@ -0,0 +1,52 @@
+package com.jojos.bank.api;
+
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.TransferStatus;
+import com.jojos.bank.service.TransferHandler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The operations of the {@link BinaryProtocol}, executed by the same {@link TransferHandler} as the
+ * {@link ResourceApi}
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class BinaryApi {
+
+    private static final TransferHandler handler = TransferHandler.INSTANCE;
+
+    private BinaryApi() {
+    }
+
+    /**
+     * Execute the transfer of a request
+     * @param currencyCode the ISO 4217 numeric code of the currency of the amount
+     * @return a future completed with the status code of the response
+     */
+    public static CompletableFuture<Short> transfer(int fromAccountId, int toAccountId, long amount,
+                                                    int currencyCode) {
+        Currency currency = Currency.forNumericCode(currencyCode);
+        if (currency == null) {
+            return CompletableFuture.completedFuture(BinaryProtocol.code(TransferStatus.INVALID_AMOUNT));
+        }
+        CompletableFuture<TransferStatus> result;
+        try {
+            result = handler.executeAsync(fromAccountId, toAccountId, amount, currency);
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(codeOf(e));
+        }
+        // the codes are small enough for the boxes to be cached
+        return result.handle((status, failure) -> failure == null ? BinaryProtocol.code(status) : codeOf(failure));
+    }
+
+    private static short codeOf(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure instanceof RejectedExecutionException
+                ? BinaryProtocol.STATUS_BUSY : BinaryProtocol.code(TransferStatus.FAILED);
+    }
+}
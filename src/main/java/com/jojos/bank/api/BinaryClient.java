@@ -0,0 +1,117 @@
+package com.jojos.bank.api;
+
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.TransferStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A client of the {@link BinaryProtocol}, sharing a single connection between all its threads.
+ *
+ * Every transfer is sent as soon as it is requested, without waiting for the responses of the previous ones, and a
+ * thread of the client completes the transfers as their responses arrive.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class BinaryClient implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryClient.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BinaryProtocol.REQUEST_SIZE);
+    private final AtomicLong lastRequestId = new AtomicLong();
+    private final ConcurrentMap<Long, CompletableFuture<TransferStatus>> inFlight = new ConcurrentHashMap<>();
+    private final Thread reader;
+
+    public BinaryClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        reader = new Thread(this::read, "binary-client-" + port);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Send a transfer
+     * @param amount in minor units of the currency
+     * @param currency the currency of the source account
+     * @return a future completed with the status of the transfer, or exceptionally with a
+     * {@link RejectedExecutionException} if the server was too busy to execute it, an {@link IllegalArgumentException}
+     * if the server did not understand it, or an {@link IOException} if the connection broke before its response
+     */
+    public CompletableFuture<TransferStatus> transfer(int fromAccountId, int toAccountId, long amount,
+                                                      Currency currency) {
+        long requestId = lastRequestId.incrementAndGet();
+        CompletableFuture<TransferStatus> result = new CompletableFuture<>();
+        inFlight.put(requestId, result);
+        try {
+            synchronized (out) {
+                out.clear();
+                BinaryProtocol.putRequest(out, requestId, fromAccountId, toAccountId, amount,
+                        currency.getNumericCode());
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+        } catch (IOException e) {
+            inFlight.remove(requestId);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void read() {
+        ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                while (in.remaining() >= BinaryProtocol.RESPONSE_SIZE) {
+                    long requestId = in.getLong();
+                    short code = in.getShort();
+                    in.getShort();
+                    CompletableFuture<TransferStatus> result = inFlight.remove(requestId);
+                    if (result != null) {
+                        complete(result, code);
+                    }
+                }
+                in.compact();
+            }
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                log.warn("The binary protocol connection broke", e);
+            }
+        }
+        IOException closed = new IOException("The connection was closed before the response");
+        inFlight.values().forEach(result -> result.completeExceptionally(closed));
+        inFlight.clear();
+    }
+
+    private static void complete(CompletableFuture<TransferStatus> result, short code) {
+        TransferStatus status = BinaryProtocol.status(code);
+        if (status != null) {
+            result.complete(status);
+        } else if (code == BinaryProtocol.STATUS_BUSY) {
+            result.completeExceptionally(new RejectedExecutionException("Too many transfers, retry later"));
+        } else {
+            result.completeExceptionally(new IllegalArgumentException("Request not understood, status " + code));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.jojos.bank.api;
+
+import com.jojos.bank.money.TransferStatus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The compact binary protocol for transfers, an alternative to the JSON of the {@link ResourceApi} for the traffic
+ * between services.
+ *
+ * A client sends fixed-layout transfer requests over a plain TCP connection and gets a fixed-layout response for every
+ * one of them, identified by the request ID it chose. The requests can be pipelined: a client doesn't need to wait for
+ * a response before sending the next request, and responses may arrive in a different order than their requests.
+ * All the fields are big-endian.
+ *
+ * <pre>
+ * request  (28 bytes): request ID (8), from account ID (4), to account ID (4), amount in minor units (8),
+ *                      ISO 4217 numeric code of the currency of the amount (2), reserved, 0 (2)
+ * response (12 bytes): request ID (8), status (2), reserved, 0 (2)
+ * </pre>
+ *
+ * The status is the ordinal of the {@link TransferStatus} of the transfer, {@value #STATUS_BUSY} if too many transfers
+ * are already queued and the request should be retried later, or {@value #STATUS_MALFORMED} if the request was not
+ * understood.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class BinaryProtocol {
+
+    public static final int REQUEST_SIZE = 28;
+    public static final int RESPONSE_SIZE = 12;
+
+    public static final short STATUS_BUSY = -1;
+    public static final short STATUS_MALFORMED = -2;
+
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+    private BinaryProtocol() {
+    }
+
+    public static void putRequest(ByteBuffer buffer, long requestId, int fromAccountId, int toAccountId, long amount,
+                                  int currencyCode) {
+        buffer.putLong(requestId)
+                .putInt(fromAccountId)
+                .putInt(toAccountId)
+                .putLong(amount)
+                .putShort((short) currencyCode)
+                .putShort((short) 0);
+    }
+
+    public static void putResponse(ByteBuffer buffer, long requestId, short status) {
+        buffer.putLong(requestId)
+                .putShort(status)
+                .putShort((short) 0);
+    }
+
+    /**
+     * @return the code of a status in the responses
+     */
+    public static short code(TransferStatus status) {
+        return (short) status.ordinal();
+    }
+
+    /**
+     * @param code the status of a response
+     * @return the status with this code, null for {@value #STATUS_BUSY}, {@value #STATUS_MALFORMED} or an unknown code
+     */
+    public static TransferStatus status(short code) {
+        return code >= 0 && code < STATUSES.length ? STATUSES[code] : null;
+    }
+}
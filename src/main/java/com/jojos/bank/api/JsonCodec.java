@@ -0,0 +1,200 @@
+package com.jojos.bank.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.Transfer;
+import com.jojos.bank.money.TransferStatus;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes the JSON of the entities on the hot path of the API with Jackson's streaming parser and generator,
+ * field by field, instead of binding them through reflection: no tree, no intermediate map, no creator lookup.
+ *
+ * Like the binding it replaces, it ignores unknown fields and accepts numbers for string fields and strings for
+ * number fields. Invalid input is refused with an {@link IllegalArgumentException}.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class JsonCodec {
+
+    // the streams belong to the container, which closes them
+    static final JsonFactory FACTORY = new JsonFactory()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final int MIN_BATCH_CAPACITY = 16;
+
+    // encoded once instead of for every response
+    private static final SerializedString BALANCE = new SerializedString("balance");
+    private static final SerializedString CURRENCY = new SerializedString("currency");
+    private static final SerializedString[] STATUSES = Arrays.stream(TransferStatus.values())
+            .map(status -> new SerializedString(status.name()))
+            .toArray(SerializedString[]::new);
+
+    private JsonCodec() {
+    }
+
+    /**
+     * @return true if the type is a collection of elements of the given type, ie {@code List<Transfer>}
+     */
+    static boolean isListOf(Class<?> type, Type genericType, Class<?> elementType) {
+        if (!List.class.isAssignableFrom(type) || !(genericType instanceof ParameterizedType)) {
+            return false;
+        }
+        Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+        return arguments.length == 1 && arguments[0] == elementType;
+    }
+
+    /**
+     * Read an account, the parser being on its {@link JsonToken#START_OBJECT}
+     * @throws IllegalArgumentException if the balance or the currency is missing or invalid
+     */
+    static Account readAccount(JsonParser parser) throws IOException {
+        int line = parser.getCurrentLocation().getLineNr();
+        BigDecimal balance = null;
+        Currency currency = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("balance".equals(field) && (value == JsonToken.VALUE_NUMBER_INT
+                    || value == JsonToken.VALUE_NUMBER_FLOAT)) {
+                balance = parser.getDecimalValue();
+            } else if ("balance".equals(field) && value == JsonToken.VALUE_STRING) {
+                try {
+                    balance = new BigDecimal(parser.getText());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid balance at line " + line);
+                }
+            } else if ("currency".equals(field) && value == JsonToken.VALUE_STRING) {
+                try {
+                    currency = Currency.getFor(parser.getText());
+                } catch (EnumConstantNotPresentException e) {
+                    throw new IllegalArgumentException("Unsupported currency at line " + line);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (balance == null || currency == null) {
+            throw new IllegalArgumentException("Missing or invalid balance or currency at line " + line);
+        }
+        return new Account(balance, currency);
+    }
+
+    /**
+     * Write the fields of an account into the object being written
+     */
+    static void writeAccountFields(JsonGenerator generator, Account account) throws IOException {
+        generator.writeFieldName(BALANCE);
+        generator.writeNumber(account.getBalance());
+        generator.writeFieldName(CURRENCY);
+        generator.writeString(account.getCurrency().getIso());
+    }
+
+    /**
+     * Read a transfer, the parser being on its {@link JsonToken#START_OBJECT}. The amount is kept as it was sent,
+     * it is parsed into minor units once the currency of the source account is known.
+     * @throws IllegalArgumentException if an account ID is not a number or the idempotency key is invalid
+     */
+    static Transfer readTransfer(JsonParser parser) throws IOException {
+        int fromAccountId = 0;
+        int toAccountId = 0;
+        String transferAmount = null;
+        String idempotencyKey = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "fromAccountId":
+                    fromAccountId = readInt(parser, field);
+                    break;
+                case "toAccountId":
+                    toAccountId = readInt(parser, field);
+                    break;
+                case "transferAmount":
+                    transferAmount = readText(parser);
+                    break;
+                case "idempotencyKey":
+                    idempotencyKey = readText(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return new Transfer(fromAccountId, toAccountId, transferAmount, idempotencyKey);
+    }
+
+    /**
+     * Read an array of transfers, the parser being on its {@link JsonToken#START_ARRAY}
+     */
+    static List<Transfer> readTransfers(JsonParser parser) throws IOException {
+        List<Transfer> transfers = new ArrayList<>(MIN_BATCH_CAPACITY);
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            transfers.add(readTransfer(parser));
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new IllegalArgumentException("Expected a transfer at line " + parser.getCurrentLocation().getLineNr());
+        }
+        return transfers;
+    }
+
+    static void writeStatuses(JsonGenerator generator, List<TransferStatus> statuses) throws IOException {
+        generator.writeStartArray();
+        for (TransferStatus status : statuses) {
+            generator.writeString(STATUSES[status.ordinal()]);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Move to the first token of the entity
+     * @throws IllegalArgumentException if the entity is not of the expected JSON type
+     */
+    static void expect(JsonParser parser, JsonToken start, String entity) throws IOException {
+        if (parser.nextToken() != start) {
+            throw new IllegalArgumentException("Expected " + entity);
+        }
+    }
+
+    private static int readInt(JsonParser parser, String field) throws IOException {
+        JsonToken value = parser.getCurrentToken();
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getIntValue();
+        }
+        if (value == JsonToken.VALUE_NULL) {
+            return 0;
+        }
+        try {
+            if (value == JsonToken.VALUE_STRING) {
+                return Integer.parseInt(parser.getText().trim());
+            }
+        } catch (NumberFormatException e) {
+            // refused below
+        }
+        throw new IllegalArgumentException("Invalid " + field);
+    }
+
+    private static String readText(JsonParser parser) throws IOException {
+        JsonToken value = parser.getCurrentToken();
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value.isScalarValue()) {
+            return parser.getText();
+        }
+        throw new IllegalArgumentException("Invalid " + parser.getCurrentName());
+    }
+}
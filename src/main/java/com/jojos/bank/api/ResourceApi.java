@@ -1,22 +1,43 @@
 package com.jojos.bank.api;
 
+import com.jojos.bank.metrics.Metrics;
 import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.Hold;
+import com.jojos.bank.money.Reconciliation;
+import com.jojos.bank.money.TransactionPage;
 import com.jojos.bank.money.Transfer;
+import com.jojos.bank.money.TransferStatus;
 import com.jojos.bank.service.TransferHandler;
 import com.jojos.bank.util.AccountCreator;
+import com.jojos.bank.util.AccountRange;
+import com.jojos.bank.util.BalanceDistribution;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -31,6 +52,17 @@ public class ResourceApi {
 
 	private static final TransferHandler handler = TransferHandler.INSTANCE;
 
+	public static final String TRANSFER_TIMEOUT_PROPERTY = "bank.transfer.timeout";
+	public static final long DEFAULT_TRANSFER_TIMEOUT_SECONDS = 30;
+
+	private static final long transferTimeoutSeconds = Long.getLong(TRANSFER_TIMEOUT_PROPERTY,
+			DEFAULT_TRANSFER_TIMEOUT_SECONDS);
+
+	static final int DEFAULT_PAGE_SIZE = 50;
+	static final int MAX_PAGE_SIZE = 1000;
+	static final int MAX_ACCOUNTS_PER_READ = 1000;
+	static final int MAX_BATCH_SIZE = 10_000;
+
 	@GET
 	@Produces(MediaType.TEXT_PLAIN)
 	public String get() {
@@ -52,19 +84,194 @@ public class ResourceApi {
 	}
 
 	/**
-	 * Transfer a specific amount of money from one account to another
+	 * Get many accounts at once, consistently: a transfer between two of them is either seen entirely or not at all
+	 * @param accountIds the IDs of the accounts, up to {@value #MAX_ACCOUNTS_PER_READ}, ie `?id=7&id=8`
+	 * @return `200 OK` with the accounts by ID, `404 Not Found` if one of them does not exist or `400 Bad Request` if
+	 * there are no IDs or too many of them
+	 */
+	@GET @Path("accounts")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getAccounts(@QueryParam("id") List<Integer> accountIds) {
+		log.debug("GET accounts {}", accountIds);
+
+		if (accountIds.isEmpty() || accountIds.size() > MAX_ACCOUNTS_PER_READ) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		Map<Integer, Account> accounts = handler.getAccounts(accountIds.stream().mapToInt(Integer::intValue).toArray());
+		return accounts == null ? Response.status(Response.Status.NOT_FOUND).build()
+				: Response.ok().entity(accounts).build();
+	}
+
+	/**
+	 * Get the transfers of an account, newest first, a page at a time
+	 * @param cursor the `nextCursor` of the previous page, none for the first page
+	 * @param limit the maximum number of transfers of the page, {@value #DEFAULT_PAGE_SIZE} by default
+	 * @return `200 OK` with the page, `404 Not Found` if the account does not exist or `400 Bad Request` if the
+	 * cursor or the limit is invalid
+	 */
+	@GET @Path("account/{accountId}/transactions")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getTransactions(@PathParam("accountId") int accountId,
+			@QueryParam("cursor") @DefaultValue("-1") int cursor,
+			@QueryParam("limit") @DefaultValue("" + DEFAULT_PAGE_SIZE) int limit) {
+		log.debug("GET account/{}/transactions cursor={} limit={}", accountId, cursor, limit);
+
+		if (cursor < -1 || limit <= 0 || limit > MAX_PAGE_SIZE) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		TransactionPage page = handler.getTransactions(accountId, cursor, limit);
+		return page == null ? Response.status(Response.Status.NOT_FOUND).build() : Response.ok().entity(page).build();
+	}
+
+	/**
+	 * Add up the balances of all the accounts as they all were at a single point in time, by currency, and compare
+	 * them to the money every currency should hold. Transfers are not stopped while the accounts are scanned.
+	 * @return the totals, with `balanced` false if money was lost or made
+	 */
+	@GET @Path("reconciliation")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Reconciliation reconcile() {
+		log.debug("GET reconciliation");
+
+		return handler.reconcile();
+	}
+
+	/**
+	 * Transfer a specific amount of money from one account to another.
+	 * The request thread is released as soon as the transfer is queued, the response is sent once it is executed.
+	 * A retry sent with the same idempotency key, in the transfer or in the `Idempotency-Key` header, gets the response
+	 * of the first attempt and is not executed again.
 	 * @param transfer object holding info about the involved accounts and the amount to be transferred
-	 * @return `200 OK` if the transfer was successfully executed or `404 Not Found` otherwise
+	 * @param idempotencyKey the key of the transfer if it doesn't carry one
+	 * @param response resumed with `200 OK` if the transfer was successfully executed, `404 Not Found` if it failed
+	 * or `503 Service Unavailable` if too many transfers are already queued or it was not executed within
+	 * {@value #TRANSFER_TIMEOUT_PROPERTY} seconds, in which case it may still be executed later
 	 */
 	@POST @Path("transfer")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public Response transfer(Transfer transfer) {
+	public void transfer(Transfer transfer, @HeaderParam("Idempotency-Key") String idempotencyKey,
+			@Suspended AsyncResponse response) {
 		log.debug("POST transfer:{}", transfer);
 
-		if (handler.execute(transfer)) {
-			return Response.ok().build();
+		if (idempotencyKey != null && transfer.getIdempotencyKey() == null) {
+			transfer = new Transfer(transfer.getFromAccountId(), transfer.getToAccountId(),
+					transfer.getTransferAmount(), idempotencyKey);
+		}
+
+		response.setTimeoutHandler(timedOut ->
+				timedOut.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build()));
+		response.setTimeout(transferTimeoutSeconds, TimeUnit.SECONDS);
+		handler.executeAsync(transfer).whenComplete((executed, failure) -> {
+			if (failure == null) {
+				response.resume(executed ? Response.ok().build() : Response.status(Response.Status.NOT_FOUND).build());
+			} else if (failure instanceof RejectedExecutionException) {
+				response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+			} else {
+				// handled by the exception mappers
+				response.resume(failure instanceof CompletionException ? failure.getCause() : failure);
+			}
+		});
+	}
+
+	/**
+	 * Execute many transfers with a single request, ie a burst of payouts
+	 * @param transfers the transfers to execute, in order
+	 * @param atomic if true either all the transfers are executed or none of them
+	 * @return `200 OK` with the {@link TransferStatus} of every transfer in the order of the request, or
+	 * `400 Bad Request` if there are no transfers, more than {@value #MAX_BATCH_SIZE} or the batch cannot be executed
+	 * at all
+	 */
+	@POST @Path("transfers/batch")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response transferBatch(List<Transfer> transfers, @QueryParam("atomic") boolean atomic) {
+		if (transfers == null || transfers.isEmpty() || transfers.size() > MAX_BATCH_SIZE) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		log.debug("POST transfers/batch of {} transfers, atomic:{}", transfers.size(), atomic);
+
+		List<TransferStatus> statuses = handler.executeBatch(transfers, atomic);
+		return Response.ok().entity(new GenericEntity<List<TransferStatus>>(statuses) {}).build();
+	}
+
+	/**
+	 * Hold funds of an account aside for a later transfer, ie to authorize a card payment now and capture it later
+	 * @param hold the account and the amount to hold
+	 * @return `200 OK` with the hold and its ID, `404 Not Found` if the account does not exist, `409 Conflict` if the
+	 * account has insufficient funds or `400 Bad Request` if the amount is invalid, each with the refused hold
+	 */
+	@POST @Path("hold")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response hold(Hold hold) {
+		log.debug("POST hold:{}", hold);
+
+		Hold held = handler.reserve(hold);
+		switch (held.getStatus()) {
+			case OK:
+				return Response.ok().entity(held).build();
+			case ACCOUNT_NOT_FOUND:
+				return Response.status(Response.Status.NOT_FOUND).entity(held).build();
+			case INSUFFICIENT_FUNDS:
+				return Response.status(Response.Status.CONFLICT).entity(held).build();
+			default:
+				return Response.status(Response.Status.BAD_REQUEST).entity(held).build();
+		}
+	}
+
+	/**
+	 * Transfer the funds of a hold to an account
+	 * @param toAccountId required, the hold is left untouched without it
+	 * @return `200 OK` once transferred, `404 Not Found` if the hold or the account do not exist or `400 Bad Request`
+	 * if there is no account to transfer to or the funds cannot be transferred to that account, with the
+	 * {@link TransferStatus}
+	 */
+	@POST @Path("hold/{holdId}/commit")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response commitHold(@PathParam("holdId") long holdId, @QueryParam("toAccountId") Integer toAccountId) {
+		log.debug("POST hold/{}/commit to {}", holdId, toAccountId);
+
+		if (toAccountId == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		return statusResponse(handler.commitHold(holdId, toAccountId));
+	}
+
+	/**
+	 * Give the funds of a hold back to its account
+	 * @return `200 OK` once released or `404 Not Found` if the hold does not exist
+	 */
+	@DELETE @Path("hold/{holdId}")
+	public Response releaseHold(@PathParam("holdId") long holdId) {
+		log.debug("DELETE hold/{}", holdId);
+
+		return handler.releaseHold(holdId) ? Response.ok().build() : Response.status(Response.Status.NOT_FOUND).build();
+	}
+
+	/**
+	 * Set how far below zero the balance of an account may be debited
+	 * @param amount the credit line in the currency of the account, 0 to forbid any overdraft
+	 * @return `200 OK` once set, `404 Not Found` if the account does not exist or `400 Bad Request` if the amount is
+	 * invalid, with the {@link TransferStatus}
+	 */
+	@POST @Path("account/{accountId}/credit_line")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response setCreditLine(@PathParam("accountId") int accountId, @QueryParam("amount") String amount) {
+		log.debug("POST account/{}/credit_line {}", accountId, amount);
+
+		return statusResponse(handler.setCreditLine(accountId, amount));
+	}
+
+	private static Response statusResponse(TransferStatus status) {
+		switch (status) {
+			case OK:
+				return Response.ok().entity(status).build();
+			case ACCOUNT_NOT_FOUND:
+			case HOLD_NOT_FOUND:
+				return Response.status(Response.Status.NOT_FOUND).entity(status).build();
+			default:
+				return Response.status(Response.Status.BAD_REQUEST).entity(status).build();
 		}
-		return Response.status(Response.Status.NOT_FOUND).build();
 	}
 
 	@POST @Path("create")
@@ -79,17 +286,67 @@ public class ResourceApi {
 	}
 
 	/**
-	 * Used to produce some accounts for testing purposes
+	 * Stream all the accounts, one JSON object per line, without holding them in memory
+	 * @return the accounts ordered by ID, with their ID, balance and currency
+	 */
+	@GET @Path("accounts/export")
+	@Produces(AccountStream.MEDIA_TYPE)
+	public StreamingOutput exportAccounts() {
+		log.debug("GET accounts/export");
+
+		return AccountStream::write;
+	}
+
+	/**
+	 * Create the accounts of a stream of JSON objects, one per line, as they are read. The accounts are created in
+	 * batches, the body is never held in memory as a whole.
+	 * @param accounts the balance and currency of every account, other fields such as the ID of an export are ignored
+	 * @return `200 OK` with the number of accounts created, or `400 Bad Request` if an account is invalid: the accounts
+	 * before it are created anyway
+	 */
+	@POST @Path("accounts/import")
+	@Consumes({AccountStream.MEDIA_TYPE, MediaType.APPLICATION_JSON})
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response importAccounts(InputStream accounts) {
+		log.debug("POST accounts/import");
+
+		return Response.ok().entity(AccountStream.read(accounts, handler)).build();
+	}
+
+	/**
+	 * The metrics of the application, ie transfer latencies, lock wait times, failed transfers and queue depths
+	 * @return the metrics in the Prometheus text exposition format
+	 */
+	@GET @Path("metrics")
+	@Produces("text/plain; version=0.0.4; charset=utf-8")
+	public String metrics() {
+		return Metrics.scrape();
+	}
+
+	/**
+	 * Used to produce some accounts for testing purposes, generated in parallel
+	 * @param amount the number of accounts
+	 * @param currency the currency of the accounts, euros by default
+	 * @param distribution how the balances are spread between the minimum and the maximum, see
+	 * {@link BalanceDistribution}
+	 * @param min the lowest balance
+	 * @param max the highest balance
+	 * @return the ranges of the IDs of the accounts, ie `{0..999999}`
 	 */
 	@GET @Path("accounts/create_test")
-	public Response createTestAccounts(@QueryParam("amount") int amount) {
-		log.debug("GET accounts/create_test {}", amount);
+	public Response createTestAccounts(@QueryParam("amount") int amount,
+			@QueryParam("currency") @DefaultValue("EUR") String currency,
+			@QueryParam("distribution") @DefaultValue("UNIFORM") BalanceDistribution distribution,
+			@QueryParam("min") @DefaultValue("100000") BigDecimal min,
+			@QueryParam("max") @DefaultValue("900000") BigDecimal max) {
+		log.debug("GET accounts/create_test {} {} {} {}..{}", amount, currency, distribution, min, max);
 
-		List<Integer> accountIds = AccountCreator.createAndStoreRandomTestAccounts(amount);
+		List<AccountRange> ranges = AccountCreator.createRandomTestAccounts(amount, Currency.getFor(currency),
+				distribution, min, max);
 
-		String result = accountIds
+		String result = ranges
 				.stream()
-				.map(String::valueOf)
+				.map(AccountRange::toString)
 				.collect(Collectors.joining(", ", "{", "}"));
 		return Response.ok().entity(result).build();
 	}
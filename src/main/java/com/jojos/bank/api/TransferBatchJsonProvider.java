@@ -0,0 +1,70 @@
+package com.jojos.bank.api;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.jojos.bank.money.Transfer;
+import com.jojos.bank.money.TransferStatus;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Reads a batch of transfers, a JSON array of {@link Transfer}s, and writes the {@link TransferStatus} of every one of
+ * them with the {@link JsonCodec}, taking precedence over the generic Jackson provider for these types.
+ *
+ * @author karanikasg@gmail.com
+ */
+@Provider
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class TransferBatchJsonProvider implements MessageBodyReader<List<Transfer>>,
+        MessageBodyWriter<List<TransferStatus>> {
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return JsonCodec.isListOf(type, genericType, Transfer.class);
+    }
+
+    @Override
+    public List<Transfer> readFrom(Class<List<Transfer>> type, Type genericType, Annotation[] annotations,
+                                   MediaType mediaType, MultivaluedMap<String, String> httpHeaders,
+                                   InputStream entityStream) throws IOException {
+        try (JsonParser parser = JsonCodec.FACTORY.createParser(entityStream)) {
+            JsonCodec.expect(parser, JsonToken.START_ARRAY, "an array of transfers");
+            return JsonCodec.readTransfers(parser);
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return JsonCodec.isListOf(type, genericType, TransferStatus.class);
+    }
+
+    @Override
+    public long getSize(List<TransferStatus> statuses, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(List<TransferStatus> statuses, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException {
+        try (JsonGenerator generator = JsonCodec.FACTORY.createGenerator(entityStream, JsonEncoding.UTF8)) {
+            JsonCodec.writeStatuses(generator, statuses);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.jojos.bank.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.jojos.bank.money.Transfer;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Reads a single {@link Transfer} with the {@link JsonCodec}, taking precedence over the generic Jackson provider
+ * for this type.
+ *
+ * @author karanikasg@gmail.com
+ */
+@Provider
+@Consumes(MediaType.APPLICATION_JSON)
+public class TransferJsonProvider implements MessageBodyReader<Transfer> {
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == Transfer.class;
+    }
+
+    @Override
+    public Transfer readFrom(Class<Transfer> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                             MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+            throws IOException {
+        try (JsonParser parser = JsonCodec.FACTORY.createParser(entityStream)) {
+            JsonCodec.expect(parser, JsonToken.START_OBJECT, "a transfer");
+            return JsonCodec.readTransfer(parser);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.jojos.bank.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Increments are spread over striped cells so that the threads updating it
+ * concurrently don't contend on one field, and don't allocate once the cells exist.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class Counter implements Metric {
+
+    private final String name;
+    private final String help;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long sum() {
+        return count.sum();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out) {
+        Metric.writeHeader(out, name, help, "counter");
+        out.append(name).append(' ').append(count.sum()).append('\n');
+    }
+}
@@ -0,0 +1,37 @@
+package com.jojos.bank.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value owned by another component and only read when the metrics are collected, ie the size of a queue
+ *
+ * @author karanikasg@gmail.com
+ */
+final class Gauge implements Metric {
+
+    private final String name;
+    private final String help;
+    private final String type;
+    private final LongSupplier value;
+
+    /**
+     * @param type {@code gauge}, or {@code counter} if the value only ever grows
+     */
+    Gauge(String name, String help, String type, LongSupplier value) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.value = value;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out) {
+        Metric.writeHeader(out, name, help, type);
+        out.append(name).append(' ').append(value.getAsLong()).append('\n');
+    }
+}
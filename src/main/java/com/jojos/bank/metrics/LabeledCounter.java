@@ -0,0 +1,52 @@
+package com.jojos.bank.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Counter} per value of an enum, exposed as one metric with the value as a label
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class LabeledCounter<E extends Enum<E>> implements Metric {
+
+    private final String name;
+    private final String help;
+    private final String label;
+    private final E[] values;
+    private final LongAdder[] counts;
+
+    LabeledCounter(String name, String help, String label, Class<E> type) {
+        this.name = name;
+        this.help = help;
+        this.label = label;
+        this.values = type.getEnumConstants();
+        this.counts = new LongAdder[values.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void increment(E value) {
+        counts[value.ordinal()].increment();
+    }
+
+    public long sum(E value) {
+        return counts[value.ordinal()].sum();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out) {
+        Metric.writeHeader(out, name, help, "counter");
+        for (E value : values) {
+            out.append(name).append('{').append(label).append("=\"")
+                    .append(value.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(counts[value.ordinal()].sum()).append('\n');
+        }
+    }
+}
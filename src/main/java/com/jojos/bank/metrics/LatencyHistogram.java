@@ -0,0 +1,98 @@
+package com.jojos.bank.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations with power of two buckets, from about a microsecond ({@code 2^10} ns) to about
+ * half a minute ({@code 2^35} ns), plus an overflow bucket.
+ *
+ * Recording a duration is two atomic additions into a preallocated array and never allocates. Like the counters of
+ * the {@link com.jojos.bank.resource.Database} commit gate, every thread records into one of a few stripes so that
+ * concurrent threads rarely update the same cache line. The stripes are only summed when the metrics are collected.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class LatencyHistogram implements Metric {
+
+    private static final int MIN_EXPONENT = 10;
+    private static final int MAX_EXPONENT = 35;
+    // the finite buckets followed by the overflow bucket
+    private static final int BUCKETS = MAX_EXPONENT - MIN_EXPONENT + 2;
+    // the buckets and the sum of a stripe, padded to a multiple of a cache line
+    private static final int SUM = BUCKETS;
+    private static final int ROW = 32;
+    private static final int STRIPES = 8;
+
+    private final String name;
+    private final String help;
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * ROW);
+
+    LatencyHistogram(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * @param nanos the duration to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        int row = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * ROW;
+        cells.incrementAndGet(row + bucket(nanos));
+        cells.addAndGet(row + SUM, nanos);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos <= 1L << MIN_EXPONENT) {
+            return 0;
+        }
+        // the exponent of the smallest power of two not below the duration
+        int exponent = 64 - Long.numberOfLeadingZeros(nanos - 1);
+        return Math.min(exponent - MIN_EXPONENT, BUCKETS - 1);
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long count() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            count += bucketCount(bucket);
+        }
+        return count;
+    }
+
+    private long bucketCount(int bucket) {
+        long count = 0;
+        for (int row = 0; row < cells.length(); row += ROW) {
+            count += cells.get(row + bucket);
+        }
+        return count;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out) {
+        Metric.writeHeader(out, name, help, "histogram");
+        long cumulative = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            cumulative += bucketCount(bucket);
+            out.append(name).append("_bucket{le=\"");
+            if (bucket == BUCKETS - 1) {
+                out.append("+Inf");
+            } else {
+                out.append(seconds(1L << (bucket + MIN_EXPONENT)));
+            }
+            out.append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum ").append(seconds(bucketCount(SUM))).append('\n');
+        out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
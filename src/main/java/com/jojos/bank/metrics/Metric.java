@@ -0,0 +1,21 @@
+package com.jojos.bank.metrics;
+
+/**
+ * A metric exposed by {@link Metrics} in the Prometheus text format
+ *
+ * @author karanikasg@gmail.com
+ */
+interface Metric {
+
+    String name();
+
+    /**
+     * Append the help and type lines of the metric followed by its samples
+     */
+    void writeTo(StringBuilder out);
+
+    static void writeHeader(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
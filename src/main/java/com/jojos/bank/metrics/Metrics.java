@@ -0,0 +1,82 @@
+package com.jojos.bank.metrics;
+
+import com.jojos.bank.money.TransferStatus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of the application, collected in the Prometheus text format by {@code GET /api/metrics}.
+ *
+ * The metrics updated on every transfer are fields of this class, recording them never locks nor allocates so they
+ * are always on. Values already tracked by a component, like the depth of a queue, are registered as gauges and
+ * only read when the metrics are collected.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class Metrics {
+
+    private static final Map<String, Metric> registry = new ConcurrentSkipListMap<>();
+
+    /**
+     * Time from the arrival of a single transfer until it is executed, or fails, and is durable
+     */
+    public static final LatencyHistogram TRANSFER_DURATION = register(new LatencyHistogram(
+            "bank_transfer_duration_seconds", "Time to execute a transfer, including waiting for the journal."));
+
+    /**
+     * Time spent waiting for the lock of an account that was held by another transfer. Locks acquired without waiting
+     * are not recorded.
+     */
+    public static final LatencyHistogram LOCK_WAIT = register(new LatencyHistogram(
+            "bank_lock_wait_seconds", "Time spent waiting for contended account locks."));
+
+    /**
+     * Transfers by outcome: executed, or the reason why they were not. Transfers of a batch are counted one by one.
+     */
+    public static final LabeledCounter<TransferStatus> TRANSFERS = register(new LabeledCounter<>(
+            "bank_transfers_total", "Transfers by outcome.", "status", TransferStatus.class));
+
+    public static final Counter TRANSFER_REJECTIONS = register(new Counter(
+            "bank_transfers_rejected_total", "Transfers rejected because too many transfers were already queued."));
+
+    /**
+     * Transfers sent again with the idempotency key of a transfer already executed, answered with its outcome
+     */
+    public static final Counter TRANSFER_REPLAYS = register(new Counter(
+            "bank_transfers_replayed_total", "Transfers answered with the outcome of the one with the same key."));
+
+    private Metrics() {
+    }
+
+    private static <M extends Metric> M register(M metric) {
+        registry.put(metric.name(), metric);
+        return metric;
+    }
+
+    /**
+     * Expose a value that can go up and down. A metric registered with the same name is replaced.
+     */
+    public static void registerGauge(String name, String help, LongSupplier value) {
+        register(new Gauge(name, help, "gauge", value));
+    }
+
+    /**
+     * Expose a count that only ever grows. A metric registered with the same name is replaced.
+     */
+    public static void registerCounter(String name, String help, LongSupplier value) {
+        register(new Gauge(name, help, "counter", value));
+    }
+
+    /**
+     * @return all the metrics in the Prometheus text exposition format, sorted by name
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Metric metric : registry.values()) {
+            metric.writeTo(out);
+        }
+        return out.toString();
+    }
+}
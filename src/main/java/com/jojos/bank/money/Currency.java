@@ -1,20 +1,207 @@
 package com.jojos.bank.money;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * Custom currency implementation holding the ISO code and the decimal places
  *
- * TODO support more currencies
+ * Amounts can be expressed in minor units of the currency (ie cents), that is a {@code long} holding the amount
+ * multiplied by 10^decimalPlaces. Conversions round {@link RoundingMode#HALF_UP} like {@link Account} does.
+ *
+ * Every active ISO 4217 currency is supported, including the fund codes that have minor units. The codes without
+ * minor units (precious metals, special drawing rights, testing codes) are not currencies an account can hold.
+ * Amounts of different currencies are converted with the {@link FxRates}.
  *
  * @author karanikasg@gmail.com
  */
 public enum Currency {
-    EURO("EUR", 2);
+    UAE_DIRHAM("AED", 784, 2),
+    AFGHANI("AFN", 971, 2),
+    LEK("ALL", 8, 2),
+    ARMENIAN_DRAM("AMD", 51, 2),
+    NETHERLANDS_ANTILLEAN_GUILDER("ANG", 532, 2),
+    KWANZA("AOA", 973, 2),
+    ARGENTINE_PESO("ARS", 32, 2),
+    AUSTRALIAN_DOLLAR("AUD", 36, 2),
+    ARUBAN_FLORIN("AWG", 533, 2),
+    AZERBAIJAN_MANAT("AZN", 944, 2),
+    CONVERTIBLE_MARK("BAM", 977, 2),
+    BARBADOS_DOLLAR("BBD", 52, 2),
+    TAKA("BDT", 50, 2),
+    BULGARIAN_LEV("BGN", 975, 2),
+    BAHRAINI_DINAR("BHD", 48, 3),
+    BURUNDI_FRANC("BIF", 108, 0),
+    BERMUDIAN_DOLLAR("BMD", 60, 2),
+    BRUNEI_DOLLAR("BND", 96, 2),
+    BOLIVIANO("BOB", 68, 2),
+    MVDOL("BOV", 984, 2),
+    BRAZILIAN_REAL("BRL", 986, 2),
+    BAHAMIAN_DOLLAR("BSD", 44, 2),
+    NGULTRUM("BTN", 64, 2),
+    PULA("BWP", 72, 2),
+    BELARUSIAN_RUBLE("BYN", 933, 2),
+    BELIZE_DOLLAR("BZD", 84, 2),
+    CANADIAN_DOLLAR("CAD", 124, 2),
+    CONGOLESE_FRANC("CDF", 976, 2),
+    WIR_EURO("CHE", 947, 2),
+    SWISS_FRANC("CHF", 756, 2),
+    WIR_FRANC("CHW", 948, 2),
+    UNIDAD_DE_FOMENTO("CLF", 990, 4),
+    CHILEAN_PESO("CLP", 152, 0),
+    YUAN_RENMINBI("CNY", 156, 2),
+    COLOMBIAN_PESO("COP", 170, 2),
+    UNIDAD_DE_VALOR_REAL("COU", 970, 2),
+    COSTA_RICAN_COLON("CRC", 188, 2),
+    CUBAN_PESO("CUP", 192, 2),
+    CABO_VERDE_ESCUDO("CVE", 132, 2),
+    CZECH_KORUNA("CZK", 203, 2),
+    DJIBOUTI_FRANC("DJF", 262, 0),
+    DANISH_KRONE("DKK", 208, 2),
+    DOMINICAN_PESO("DOP", 214, 2),
+    ALGERIAN_DINAR("DZD", 12, 2),
+    EGYPTIAN_POUND("EGP", 818, 2),
+    NAKFA("ERN", 232, 2),
+    ETHIOPIAN_BIRR("ETB", 230, 2),
+    EURO("EUR", 978, 2),
+    FIJI_DOLLAR("FJD", 242, 2),
+    FALKLAND_ISLANDS_POUND("FKP", 238, 2),
+    POUND_STERLING("GBP", 826, 2),
+    LARI("GEL", 981, 2),
+    GHANA_CEDI("GHS", 936, 2),
+    GIBRALTAR_POUND("GIP", 292, 2),
+    DALASI("GMD", 270, 2),
+    GUINEAN_FRANC("GNF", 324, 0),
+    QUETZAL("GTQ", 320, 2),
+    GUYANA_DOLLAR("GYD", 328, 2),
+    HONG_KONG_DOLLAR("HKD", 344, 2),
+    LEMPIRA("HNL", 340, 2),
+    GOURDE("HTG", 332, 2),
+    FORINT("HUF", 348, 2),
+    RUPIAH("IDR", 360, 2),
+    NEW_ISRAELI_SHEQEL("ILS", 376, 2),
+    INDIAN_RUPEE("INR", 356, 2),
+    IRAQI_DINAR("IQD", 368, 3),
+    IRANIAN_RIAL("IRR", 364, 2),
+    ICELAND_KRONA("ISK", 352, 0),
+    JAMAICAN_DOLLAR("JMD", 388, 2),
+    JORDANIAN_DINAR("JOD", 400, 3),
+    YEN("JPY", 392, 0),
+    KENYAN_SHILLING("KES", 404, 2),
+    SOM("KGS", 417, 2),
+    RIEL("KHR", 116, 2),
+    COMORIAN_FRANC("KMF", 174, 0),
+    NORTH_KOREAN_WON("KPW", 408, 2),
+    WON("KRW", 410, 0),
+    KUWAITI_DINAR("KWD", 414, 3),
+    CAYMAN_ISLANDS_DOLLAR("KYD", 136, 2),
+    TENGE("KZT", 398, 2),
+    LAO_KIP("LAK", 418, 2),
+    LEBANESE_POUND("LBP", 422, 2),
+    SRI_LANKA_RUPEE("LKR", 144, 2),
+    LIBERIAN_DOLLAR("LRD", 430, 2),
+    LOTI("LSL", 426, 2),
+    LIBYAN_DINAR("LYD", 434, 3),
+    MOROCCAN_DIRHAM("MAD", 504, 2),
+    MOLDOVAN_LEU("MDL", 498, 2),
+    MALAGASY_ARIARY("MGA", 969, 2),
+    DENAR("MKD", 807, 2),
+    KYAT("MMK", 104, 2),
+    TUGRIK("MNT", 496, 2),
+    PATACA("MOP", 446, 2),
+    OUGUIYA("MRU", 929, 2),
+    MAURITIUS_RUPEE("MUR", 480, 2),
+    RUFIYAA("MVR", 462, 2),
+    MALAWI_KWACHA("MWK", 454, 2),
+    MEXICAN_PESO("MXN", 484, 2),
+    MEXICAN_UNIDAD_DE_INVERSION("MXV", 979, 2),
+    MALAYSIAN_RINGGIT("MYR", 458, 2),
+    MOZAMBIQUE_METICAL("MZN", 943, 2),
+    NAMIBIA_DOLLAR("NAD", 516, 2),
+    NAIRA("NGN", 566, 2),
+    CORDOBA_ORO("NIO", 558, 2),
+    NORWEGIAN_KRONE("NOK", 578, 2),
+    NEPALESE_RUPEE("NPR", 524, 2),
+    NEW_ZEALAND_DOLLAR("NZD", 554, 2),
+    RIAL_OMANI("OMR", 512, 3),
+    BALBOA("PAB", 590, 2),
+    SOL("PEN", 604, 2),
+    KINA("PGK", 598, 2),
+    PHILIPPINE_PESO("PHP", 608, 2),
+    PAKISTAN_RUPEE("PKR", 586, 2),
+    ZLOTY("PLN", 985, 2),
+    GUARANI("PYG", 600, 0),
+    QATARI_RIAL("QAR", 634, 2),
+    ROMANIAN_LEU("RON", 946, 2),
+    SERBIAN_DINAR("RSD", 941, 2),
+    RUSSIAN_RUBLE("RUB", 643, 2),
+    RWANDA_FRANC("RWF", 646, 0),
+    SAUDI_RIYAL("SAR", 682, 2),
+    SOLOMON_ISLANDS_DOLLAR("SBD", 90, 2),
+    SEYCHELLES_RUPEE("SCR", 690, 2),
+    SUDANESE_POUND("SDG", 938, 2),
+    SWEDISH_KRONA("SEK", 752, 2),
+    SINGAPORE_DOLLAR("SGD", 702, 2),
+    SAINT_HELENA_POUND("SHP", 654, 2),
+    LEONE("SLE", 925, 2),
+    SOMALI_SHILLING("SOS", 706, 2),
+    SURINAM_DOLLAR("SRD", 968, 2),
+    SOUTH_SUDANESE_POUND("SSP", 728, 2),
+    DOBRA("STN", 930, 2),
+    EL_SALVADOR_COLON("SVC", 222, 2),
+    SYRIAN_POUND("SYP", 760, 2),
+    LILANGENI("SZL", 748, 2),
+    BAHT("THB", 764, 2),
+    SOMONI("TJS", 972, 2),
+    TURKMENISTAN_NEW_MANAT("TMT", 934, 2),
+    TUNISIAN_DINAR("TND", 788, 3),
+    PAANGA("TOP", 776, 2),
+    TURKISH_LIRA("TRY", 949, 2),
+    TRINIDAD_AND_TOBAGO_DOLLAR("TTD", 780, 2),
+    NEW_TAIWAN_DOLLAR("TWD", 901, 2),
+    TANZANIAN_SHILLING("TZS", 834, 2),
+    HRYVNIA("UAH", 980, 2),
+    UGANDA_SHILLING("UGX", 800, 0),
+    US_DOLLAR("USD", 840, 2),
+    US_DOLLAR_NEXT_DAY("USN", 997, 2),
+    URUGUAY_PESO_EN_UNIDADES_INDEXADAS("UYI", 940, 0),
+    PESO_URUGUAYO("UYU", 858, 2),
+    UNIDAD_PREVISIONAL("UYW", 927, 4),
+    UZBEKISTAN_SUM("UZS", 860, 2),
+    BOLIVAR_DIGITAL("VED", 926, 2),
+    BOLIVAR_SOBERANO("VES", 928, 2),
+    DONG("VND", 704, 0),
+    VATU("VUV", 548, 0),
+    TALA("WST", 882, 2),
+    CFA_FRANC_BEAC("XAF", 950, 0),
+    EAST_CARIBBEAN_DOLLAR("XCD", 951, 2),
+    CFA_FRANC_BCEAO("XOF", 952, 0),
+    CFP_FRANC("XPF", 953, 0),
+    YEMENI_RIAL("YER", 886, 2),
+    RAND("ZAR", 710, 2),
+    ZAMBIAN_KWACHA("ZMW", 967, 2),
+    ZIMBABWE_GOLD("ZWG", 924, 2);
+
+    private static final Currency[] BY_NUMERIC_CODE = new Currency[1000];
+    private static final Map<String, Currency> BY_ISO = new HashMap<>();
+
+    static {
+        for (Currency currency : values()) {
+            BY_NUMERIC_CODE[currency.numericCode] = currency;
+            BY_ISO.put(currency.iso, currency);
+        }
+    }
 
     private final String iso;
+    private final int numericCode;
     private final int decimalPlaces;
 
-    Currency(String iso, int decimalPlaces) {
+    Currency(String iso, int numericCode, int decimalPlaces) {
         this.iso = iso;
+        this.numericCode = numericCode;
         this.decimalPlaces = decimalPlaces;
     }
 
@@ -22,17 +209,113 @@ public enum Currency {
         return iso;
     }
 
+    /**
+     * @return the ISO 4217 numeric code, ie 978 for euros. Unlike the ordinal it never changes so it is what
+     * gets persisted.
+     */
+    public int getNumericCode() {
+        return numericCode;
+    }
+
     public int getDecimalPlaces() {
         return decimalPlaces;
     }
 
-    public static Currency getFor(String code) {
-        for (Currency currency : values()) {
-            if (currency.iso.equalsIgnoreCase(code)) {
-                return currency;
+    /**
+     * Parse a decimal amount into minor units of this currency without going through {@link BigDecimal}
+     * for the usual plain notation ({@code -123.45}). Any other notation accepted by {@link BigDecimal#BigDecimal(String)}
+     * such as exponents is parsed by it.
+     * @param amount the amount in major units, ie "12.345"
+     * @return the amount in minor units, rounded half up
+     * @throws NumberFormatException if the amount is not a valid number
+     * @throws ArithmeticException if the amount does not fit in a {@code long}
+     */
+    public long toMinorUnits(String amount) {
+        int length = amount.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (amount.charAt(0) == '-' || amount.charAt(0) == '+')) {
+            negative = amount.charAt(0) == '-';
+            i++;
+        }
+
+        long units = 0;
+        boolean hasDigits = false;
+        boolean roundUp = false;
+        // -1 while parsing the integer part, then the number of fraction digits consumed
+        int fractionDigits = -1;
+        for (; i < length; i++) {
+            char c = amount.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigits = true;
+                if (fractionDigits < decimalPlaces) {
+                    units = Math.addExact(Math.multiplyExact(units, 10), c - '0');
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                } else if (fractionDigits == decimalPlaces) {
+                    // half up rounding only depends on the first digit that is dropped
+                    roundUp = c >= '5';
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return toMinorUnits(new BigDecimal(amount));
             }
         }
-        throw new EnumConstantNotPresentException(Currency.class, String.format("Invalid constant defined %s", code));
+        if (!hasDigits) {
+            throw new NumberFormatException("Not a valid amount: " + amount);
+        }
+
+        for (int scale = Math.max(fractionDigits, 0); scale < decimalPlaces; scale++) {
+            units = Math.multiplyExact(units, 10);
+        }
+        if (roundUp) {
+            units = Math.addExact(units, 1);
+        }
+        return negative ? -units : units;
+    }
+
+    /**
+     * @param amount the amount in major units
+     * @return the amount in minor units, rounded half up
+     * @throws ArithmeticException if the amount does not fit in a {@code long}
+     */
+    public long toMinorUnits(BigDecimal amount) {
+        return amount.setScale(decimalPlaces, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * @param minorUnits an amount in minor units of this currency, ie 1234 cents
+     * @return the same amount in major units with the scale of the currency, ie 12.34
+     */
+    public BigDecimal fromMinorUnits(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, decimalPlaces);
+    }
+
+    /**
+     * @param numericCode an ISO 4217 numeric code
+     * @return the currency with this code or null if it is not supported
+     */
+    public static Currency forNumericCode(int numericCode) {
+        return numericCode >= 0 && numericCode < BY_NUMERIC_CODE.length ? BY_NUMERIC_CODE[numericCode] : null;
+    }
+
+    /**
+     * @param code an ISO 4217 code, in any case
+     * @return the currency with this code
+     * @throws EnumConstantNotPresentException if the currency is not supported
+     */
+    public static Currency getFor(String code) {
+        Currency currency = code == null ? null : BY_ISO.get(code);
+        if (currency == null && code != null) {
+            currency = BY_ISO.get(code.toUpperCase(Locale.ROOT));
+        }
+        if (currency == null) {
+            throw new EnumConstantNotPresentException(Currency.class, String.format("Invalid constant defined %s", code));
+        }
+        return currency;
     }
 
 }
@@ -0,0 +1,63 @@
+package com.jojos.bank.money;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+
+/**
+ * The money held by all the accounts of a currency at a point in time, next to the money they should hold: what the
+ * accounts were created with plus what transfers exchanged into the currency, minus what they exchanged out of it.
+ *
+ * @author karanikasg@gmail.com
+ */
+public class CurrencyTotal {
+
+    private final String currency;
+    private final int accounts;
+    private final BigDecimal balance;
+    private final BigDecimal expected;
+
+    @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+    public CurrencyTotal(@JsonProperty("currency") String currency,
+                         @JsonProperty("accounts") int accounts,
+                         @JsonProperty("balance") BigDecimal balance,
+                         @JsonProperty("expected") BigDecimal expected) {
+        this.currency = currency;
+        this.accounts = accounts;
+        this.balance = balance;
+        this.expected = expected;
+    }
+
+    /**
+     * @return the ISO code of the currency
+     */
+    public String getCurrency() {
+        return currency;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @return the sum of the balances of the accounts, coalesced credits included
+     */
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public BigDecimal getExpected() {
+        return expected;
+    }
+
+    @Override
+    public String toString() {
+        return "CurrencyTotal{" +
+                "currency='" + currency + '\'' +
+                ", accounts=" + accounts +
+                ", balance=" + balance +
+                ", expected=" + expected +
+                '}';
+    }
+}
@@ -0,0 +1,116 @@
+package com.jojos.bank.money;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * The price of one unit of a currency in another one, ie 1 EUR = 1.0845 USD.
+ *
+ * The rate is kept as an unscaled {@code long} and a power of ten that already accounts for the decimal places of
+ * both currencies, so converting an amount of minor units is a multiplication and a division by a power of ten
+ * rounded {@link RoundingMode#HALF_UP}. Only amounts so large that the product would overflow go through
+ * {@link BigDecimal}, with the same result.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class FxRate {
+
+    /**
+     * Significant digits a rate is kept with, well beyond the quotes of the markets. The fewer they are the larger the
+     * amounts converted without {@link BigDecimal}: up to about 9 * 10^8 minor units with 10 digits.
+     */
+    public static final int PRECISION = 10;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final Currency from;
+    private final Currency to;
+    private final BigDecimal rate;
+    private final long unscaled;
+    // the power of ten the product of an amount and the unscaled rate is multiplied with
+    private final int exponent;
+    // amounts up to it are converted with long arithmetic
+    private final long fastLimit;
+
+    /**
+     * @param rate units of {@code to} that one unit of {@code from} is worth, rounded to {@value #PRECISION}
+     * significant digits
+     * @throws IllegalArgumentException if the rate is not positive
+     */
+    public FxRate(Currency from, Currency to, BigDecimal rate) {
+        if (rate.signum() <= 0) {
+            throw new IllegalArgumentException("The rate from " + from.getIso() + " to " + to.getIso() +
+                    " must be positive but is " + rate);
+        }
+        this.from = from;
+        this.to = to;
+        this.rate = rate.round(new MathContext(PRECISION, RoundingMode.HALF_EVEN)).stripTrailingZeros();
+        this.unscaled = this.rate.unscaledValue().longValueExact();
+        this.exponent = to.getDecimalPlaces() - from.getDecimalPlaces() - this.rate.scale();
+        if (Math.abs(exponent) >= POWERS_OF_TEN.length) {
+            fastLimit = -1;
+        } else {
+            fastLimit = Long.MAX_VALUE / unscaled / (exponent > 0 ? POWERS_OF_TEN[exponent] : 1);
+        }
+    }
+
+    public Currency getFrom() {
+        return from;
+    }
+
+    public Currency getTo() {
+        return to;
+    }
+
+    public BigDecimal getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the rate from {@code to} back to {@code from}, rounded to {@value #PRECISION} significant digits
+     */
+    public FxRate inverse() {
+        return new FxRate(to, from, BigDecimal.ONE.divide(rate, new MathContext(PRECISION, RoundingMode.HALF_EVEN)));
+    }
+
+    /**
+     * @param minorUnits an amount in minor units of {@code from}
+     * @return the amount in minor units of {@code to}, rounded half up
+     * @throws ArithmeticException if the converted amount does not fit in a {@code long}
+     */
+    public long convert(long minorUnits) {
+        if (minorUnits > fastLimit || minorUnits < -fastLimit) {
+            return convertExactly(minorUnits);
+        }
+        long product = minorUnits * unscaled;
+        if (exponent >= 0) {
+            return product * POWERS_OF_TEN[exponent];
+        }
+        long divisor = POWERS_OF_TEN[-exponent];
+        long quotient = product / divisor;
+        long remainder = Math.abs(product % divisor);
+        // half up: away from zero when the remainder is at least half of the divisor
+        if (remainder >= divisor - remainder) {
+            quotient += product < 0 ? -1 : 1;
+        }
+        return quotient;
+    }
+
+    private long convertExactly(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits).multiply(BigDecimal.valueOf(unscaled)).scaleByPowerOfTen(exponent)
+                .setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    @Override
+    public String toString() {
+        return from.getIso() + "/" + to.getIso() + "=" + rate.toPlainString();
+    }
+}
@@ -0,0 +1,102 @@
+package com.jojos.bank.money;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.Properties;
+
+/**
+ * The exchange rates transfers between accounts of different currencies are converted with.
+ *
+ * The rates are held in an immutable table indexed by the ordinals of both currencies, so looking a rate up is an
+ * array access. A new set of rates is parsed aside and published by replacing the whole table at once: a transfer
+ * converts with either the old rates or the new ones, never a mix, and is never blocked while they are loaded.
+ *
+ * Rates are given as {@code BASE/QUOTE=rate} lines, ie {@code EUR/USD=1.0845} for 1 EUR = 1.0845 USD. The inverse
+ * of a rate is derived unless it is given as well.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class FxRates {
+
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private static volatile FxRate[] table = new FxRate[CURRENCIES.length * CURRENCIES.length];
+
+    private FxRates() {
+    }
+
+    /**
+     * @return the rate from a currency to another one, or null if there is none
+     */
+    public static FxRate get(Currency from, Currency to) {
+        return table[from.ordinal() * CURRENCIES.length + to.ordinal()];
+    }
+
+    /**
+     * @return the number of rates currently known, derived ones included
+     */
+    public static int size() {
+        return count(table);
+    }
+
+    private static int count(FxRate[] rates) {
+        int count = 0;
+        for (FxRate rate : rates) {
+            if (rate != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Replace all the rates with the ones read, the current rates stay in use if they cannot be read
+     * @return the number of rates read, derived ones included
+     * @throws IOException if the rates cannot be read
+     * @throws IllegalArgumentException if a line is not a valid rate
+     */
+    public static int load(Reader rates) throws IOException {
+        Properties properties = new Properties();
+        properties.load(rates);
+        FxRate[] parsed = new FxRate[table.length];
+        for (String pair : properties.stringPropertyNames()) {
+            String[] currencies = pair.split("/");
+            if (currencies.length != 2) {
+                throw new IllegalArgumentException("Expected BASE/QUOTE=rate but got " + pair);
+            }
+            Currency from;
+            Currency to;
+            BigDecimal rate;
+            try {
+                from = Currency.getFor(currencies[0].trim());
+                to = Currency.getFor(currencies[1].trim());
+                rate = new BigDecimal(properties.getProperty(pair).trim());
+            } catch (EnumConstantNotPresentException | NumberFormatException e) {
+                throw new IllegalArgumentException("Not a valid rate " + pair + "=" + properties.getProperty(pair), e);
+            }
+            if (from == to) {
+                throw new IllegalArgumentException("Not a valid rate " + pair + ", the currencies are the same");
+            }
+            parsed[from.ordinal() * CURRENCIES.length + to.ordinal()] = new FxRate(from, to, rate);
+        }
+
+        for (FxRate rate : parsed) {
+            if (rate != null) {
+                int inverse = rate.getTo().ordinal() * CURRENCIES.length + rate.getFrom().ordinal();
+                if (parsed[inverse] == null) {
+                    parsed[inverse] = rate.inverse();
+                }
+            }
+        }
+        table = parsed;
+        return count(parsed);
+    }
+
+    /**
+     * Forget all the rates, only transfers between accounts of the same currency are possible afterwards
+     */
+    public static void clear() {
+        table = new FxRate[table.length];
+    }
+}
@@ -0,0 +1,71 @@
+package com.jojos.bank.money;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Immutable object that holds funds of an account aside for a later transfer, ie a card payment authorized now and
+ * captured later. The funds stay in the account but cannot be debited by anything else until the hold is committed
+ * into a transfer or released.
+ *
+ * A request only carries the account and the amount, the response of the reservation carries its ID and status too.
+ *
+ * @author karanikasg@gmail.com
+ */
+public class Hold {
+
+    private final long holdId;
+    private final int accountId;
+    private final String amount;
+    private final TransferStatus status;
+
+    public Hold(int accountId, String amount) {
+        this(0, accountId, amount, null);
+    }
+
+    @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+    public Hold(@JsonProperty("holdId") long holdId,
+                @JsonProperty("accountId") int accountId,
+                @JsonProperty("amount") String amount,
+                @JsonProperty("status") TransferStatus status) {
+        this.holdId = holdId;
+        this.accountId = accountId;
+        this.amount = amount;
+        this.status = status;
+    }
+
+    /**
+     * @return the ID to commit or release the hold with, 0 if the funds could not be held
+     */
+    public long getHoldId() {
+        return holdId;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * @return the amount in the currency of the account
+     */
+    public String getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return the outcome of the reservation, null for a request
+     */
+    public TransferStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return "Hold{" +
+                "holdId=" + holdId +
+                ", accountId=" + accountId +
+                ", amount='" + amount + '\'' +
+                ", status=" + status +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+package com.jojos.bank.money;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The totals of all the accounts at a single point in time, by currency, and whether every one of them matches the
+ * money the currency should hold, ie no transfer lost or made money.
+ *
+ * @author karanikasg@gmail.com
+ */
+public class Reconciliation {
+
+    private final boolean balanced;
+    private final int accounts;
+    private final List<CurrencyTotal> totals;
+    private final long durationMillis;
+
+    @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+    public Reconciliation(@JsonProperty("balanced") boolean balanced,
+                          @JsonProperty("accounts") int accounts,
+                          @JsonProperty("totals") List<CurrencyTotal> totals,
+                          @JsonProperty("durationMillis") long durationMillis) {
+        this.balanced = balanced;
+        this.accounts = accounts;
+        this.totals = totals;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return true if the balance of every currency is the expected one
+     */
+    public boolean isBalanced() {
+        return balanced;
+    }
+
+    /**
+     * @return the number of accounts existing at that point in time
+     */
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @return the currencies the accounts hold or should hold, ordered by ISO code
+     */
+    public List<CurrencyTotal> getTotals() {
+        return totals;
+    }
+
+    /**
+     * @return how long it took to scan the accounts
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "Reconciliation{" +
+                "balanced=" + balanced +
+                ", accounts=" + accounts +
+                ", totals=" + totals +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
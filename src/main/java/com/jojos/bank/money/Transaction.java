@@ -0,0 +1,79 @@
+package com.jojos.bank.money;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+
+/**
+ * Immutable entry of the history of an account: a transfer that debited or credited it.
+ *
+ * @author karanikasg@gmail.com
+ */
+public class Transaction {
+
+    private final long transferId;
+    private final int counterpartyAccountId;
+    private final BigDecimal amount;
+    private final BigDecimal balance;
+    private final long timestamp;
+
+    @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+    public Transaction(@JsonProperty("transferId") long transferId,
+                       @JsonProperty("counterpartyAccountId") int counterpartyAccountId,
+                       @JsonProperty("amount") BigDecimal amount,
+                       @JsonProperty("balance") BigDecimal balance,
+                       @JsonProperty("timestamp") long timestamp) {
+        this.transferId = transferId;
+        this.counterpartyAccountId = counterpartyAccountId;
+        this.amount = amount;
+        this.balance = balance;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return the ID of the transfer, shared by the entries of both of its accounts
+     */
+    public long getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * @return the other account of the transfer
+     */
+    public int getCounterpartyAccountId() {
+        return counterpartyAccountId;
+    }
+
+    /**
+     * @return the amount in the currency of the account, negative if it was debited
+     */
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return the balance of the account right after the transfer
+     */
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return when the transfer was executed, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "Transaction{" +
+                "transferId=" + transferId +
+                ", counterpartyAccountId=" + counterpartyAccountId +
+                ", amount=" + amount +
+                ", balance=" + balance +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -0,0 +1,43 @@
+package com.jojos.bank.money;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * A page of the history of an account, newest transactions first, and the cursor to fetch the next one with.
+ *
+ * @author karanikasg@gmail.com
+ */
+public class TransactionPage {
+
+    private final List<Transaction> transactions;
+    private final Integer nextCursor;
+
+    @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+    public TransactionPage(@JsonProperty("transactions") List<Transaction> transactions,
+                           @JsonProperty("nextCursor") Integer nextCursor) {
+        this.transactions = transactions;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return the cursor of the page of older transactions, null if this page holds the oldest one
+     */
+    public Integer getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionPage{" +
+                "transactions=" + transactions +
+                ", nextCursor=" + nextCursor +
+                '}';
+    }
+}
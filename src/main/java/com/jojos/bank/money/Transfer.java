@@ -6,22 +6,43 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 /**
  * Immutable object that holds information regarding the two accounts involved
  * in a transaction plus the amount to be transferred between the two accounts.
+ *
+ * A transfer may carry an idempotency key chosen by the client: a transfer sent again with the same key is not
+ * executed twice, it gets the outcome of the first one. Keys are honoured by single transfers, not within batches.
  **
  * @author karanikasg@gmail.com
  */
 public class Transfer {
 
+    public static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
     private final int fromAccountId;
     private final int toAccountId;
     private final String transferAmount;
+    private final String idempotencyKey;
+
+    public Transfer(int fromAccountId, int toAccountId, String transferAmount) {
+        this(fromAccountId, toAccountId, transferAmount, null);
+    }
 
+    /**
+     * @param idempotencyKey up to {@value #MAX_IDEMPOTENCY_KEY_LENGTH} characters, or null
+     * @throws IllegalArgumentException if the key is empty or too long
+     */
     @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
     public Transfer(@JsonProperty("fromAccountId") int fromAccountId,
                     @JsonProperty("toAccountId") int toAccountId,
-                    @JsonProperty("transferAmount") String transferAmount) {
+                    @JsonProperty("transferAmount") String transferAmount,
+                    @JsonProperty("idempotencyKey") String idempotencyKey) {
+        if (idempotencyKey != null
+                && (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            throw new IllegalArgumentException("The idempotency key must have between 1 and "
+                    + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+        }
         this.fromAccountId = fromAccountId;
         this.toAccountId = toAccountId;
         this.transferAmount = transferAmount;
+        this.idempotencyKey = idempotencyKey;
     }
 
     public int getFromAccountId() {
@@ -36,12 +57,20 @@ public class Transfer {
         return transferAmount;
     }
 
+    /**
+     * @return the key identifying the transfer across retries, null if it has none
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
     @Override
     public String toString() {
         return "Transfer{" +
                 "fromAccountId=" + fromAccountId +
                 ", toAccountId=" + toAccountId +
                 ", transferAmount='" + transferAmount + '\'' +
+                ", idempotencyKey='" + idempotencyKey + '\'' +
                 '}';
     }
 }
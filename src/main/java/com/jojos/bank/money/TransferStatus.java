@@ -0,0 +1,43 @@
+package com.jojos.bank.money;
+
+/**
+ * The outcome of a single transfer of a batch, or of a hold.
+ *
+ * The ordinals are the status codes of the binary protocol, new statuses are added last.
+ *
+ * @author karanikasg@gmail.com
+ */
+public enum TransferStatus {
+    /**
+     * The transfer was executed
+     */
+    OK,
+    /**
+     * At least one of the accounts does not exist
+     */
+    ACCOUNT_NOT_FOUND,
+    /**
+     * The amount is not a number or is not positive
+     */
+    INVALID_AMOUNT,
+    /**
+     * The accounts hold different currencies and there is no exchange rate between them
+     */
+    NO_EXCHANGE_RATE,
+    /**
+     * The debit would take the balance of the source account below its credit line, or into its held funds
+     */
+    INSUFFICIENT_FUNDS,
+    /**
+     * The hold does not exist, or has already been committed or released
+     */
+    HOLD_NOT_FOUND,
+    /**
+     * The transfer was valid but could not be applied, ie the balance would overflow
+     */
+    FAILED,
+    /**
+     * The transfer was valid but was not executed because another transfer of its all-or-nothing batch failed
+     */
+    ABORTED
+}
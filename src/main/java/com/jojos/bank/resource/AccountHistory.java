@@ -0,0 +1,92 @@
+package com.jojos.bank.resource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The append-only history of a single account, kept in chunks of primitive longs.
+ *
+ * The chunks double in size, so an account that is rarely used only takes a few bytes while a busy one allocates a
+ * new chunk every now and then, never an object per entry. An entry is appended by reserving its index with a single
+ * atomic increment and writing its fields, the transfer ID last: readers wait for the ID of an entry before reading
+ * the rest of it.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class AccountHistory {
+
+    private static final int TRANSFER_ID = 0;
+    private static final int COUNTERPARTY = 1;
+    private static final int AMOUNT = 2;
+    private static final int BALANCE = 3;
+    private static final int TIMESTAMP = 4;
+    private static final int FIELDS = 5;
+
+    private static final int FIRST_CHUNK = 8;
+    // the chunks hold more than Integer.MAX_VALUE entries altogether
+    private static final int MAX_CHUNKS = 28;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+    /**
+     * @param transferId not 0
+     */
+    void append(long transferId, int counterpartyId, long amount, long balance, long timestampMillis) {
+        int index = size.getAndIncrement();
+        int chunk = chunkOf(index);
+        AtomicLongArray entries = chunks.get(chunk);
+        if (entries == null) {
+            chunks.compareAndSet(chunk, null, new AtomicLongArray((FIRST_CHUNK << chunk) * FIELDS));
+            entries = chunks.get(chunk);
+        }
+        int offset = (index - start(chunk)) * FIELDS;
+        entries.lazySet(offset + COUNTERPARTY, counterpartyId);
+        entries.lazySet(offset + AMOUNT, amount);
+        entries.lazySet(offset + BALANCE, balance);
+        entries.lazySet(offset + TIMESTAMP, timestampMillis);
+        // published last, the ordered store makes the fields above visible first
+        entries.lazySet(offset + TRANSFER_ID, transferId);
+    }
+
+    /**
+     * @return the number of entries, some of the latest ones may still be being written
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Visit entries from the given index down to the oldest one, waiting for the ones still being written
+     * @param from the index of the first entry to visit, less than {@link #size()}
+     * @param limit the maximum number of entries to visit
+     * @return the index of the entry to continue with, -1 once the oldest entry was visited
+     */
+    int read(int from, int limit, TransactionHistory.Visitor visitor) {
+        int index = from;
+        for (int i = 0; i < limit && index >= 0; i++, index--) {
+            int chunk = chunkOf(index);
+            AtomicLongArray entries;
+            while ((entries = chunks.get(chunk)) == null) {
+                Thread.yield();
+            }
+            int offset = (index - start(chunk)) * FIELDS;
+            long transferId;
+            while ((transferId = entries.get(offset + TRANSFER_ID)) == 0) {
+                Thread.yield();
+            }
+            visitor.onEntry(transferId, (int) entries.get(offset + COUNTERPARTY), entries.get(offset + AMOUNT),
+                    entries.get(offset + BALANCE), entries.get(offset + TIMESTAMP));
+        }
+        return index;
+    }
+
+    private static int chunkOf(int index) {
+        return 31 - Integer.numberOfLeadingZeros(index / FIRST_CHUNK + 1);
+    }
+
+    private static int start(int chunk) {
+        return FIRST_CHUNK * ((1 << chunk) - 1);
+    }
+}
@@ -0,0 +1,23 @@
+package com.jojos.bank.resource;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How far an account may be debited: its credit line, the amount its balance may go below zero, and the funds
+ * reserved by holds that debits must leave untouched. Only the accounts that have either get one.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class AccountLimits {
+
+    // in minor units of the account's currency, like the balances
+    volatile long creditLine;
+    final AtomicLong held = new AtomicLong();
+
+    /**
+     * @return the lowest balance a debit may leave
+     */
+    long minimumBalance() {
+        return held.get() - creditLine;
+    }
+}
@@ -0,0 +1,83 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+
+/**
+ * The storage engine behind the {@link Database}.
+ *
+ * Balances are kept in minor units of the account's currency (see {@link Currency#toMinorUnits(String)}) so that
+ * reading and updating an account doesn't allocate. Every account has a version that is even while the account is
+ * stable, odd while an update is being applied and grows by 2 on every update. A version read before the balance
+ * which is still the same after reading the balance guarantees that the balance belongs to that version.
+ *
+ * Implementations must be thread safe. Accounts are never removed.
+ *
+ * @author karanikasg@gmail.com
+ */
+public interface AccountStore {
+
+    /**
+     * Store a new account
+     * @param currency the currency of the account, which cannot be changed afterwards
+     * @param balance the initial balance in minor units
+     * @return the ID associated with the new account
+     */
+    int add(Currency currency, long balance);
+
+    /**
+     * Store an account under a known ID, used when the accounts are recovered after a restart.
+     * IDs handed out by {@link #add(Currency, long)} afterwards are greater than this one.
+     * @param accountId the ID of the account, which must not exist yet
+     * @param currency the currency of the account
+     * @param balance the balance in minor units
+     * @throws IllegalStateException if an account with this ID already exists
+     */
+    void restore(int accountId, Currency currency, long balance);
+
+    /**
+     * Reserve a range of consecutive IDs for accounts stored afterwards with
+     * {@link #restore(int, Currency, long) restore}, so that many accounts are created with a single atomic operation
+     * @param count the number of IDs to reserve
+     * @return the first ID of the range
+     * @throws IllegalStateException if there are not enough IDs left
+     */
+    int reserveIds(int count);
+
+    boolean exists(int accountId);
+
+    /**
+     * @return the currency of the account or null if it does not exist
+     */
+    Currency currency(int accountId);
+
+    /**
+     * @return the balance of the account in minor units. Undefined if the account does not exist.
+     */
+    long balance(int accountId);
+
+    /**
+     * @return the current version of the account or 0 if it does not exist
+     */
+    long version(int accountId);
+
+    /**
+     * Atomically set the balance of an account, provided that it has not been updated since {@code expectedVersion}
+     * was read.
+     * @param accountId the account to update
+     * @param expectedVersion the (even) version that was read together with the balance the update is based on
+     * @param balance the new balance in minor units
+     * @return true if the balance was updated, false if the account does not exist or its version changed.
+     */
+    boolean compareAndSet(int accountId, long expectedVersion, long balance);
+
+    /**
+     * @return the number of accounts stored
+     */
+    int count();
+
+    /**
+     * Release the resources held by the store. Nothing to do for stores living on the heap.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,80 @@
+package com.jojos.bank.resource;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * State kept by account ID for the few accounts having some, ie their pending credits or their limits. Entries are
+ * found by indexing arrays of {@value #CHUNK_SIZE} accounts allocated on first use, so looking an account up neither
+ * boxes its ID nor allocates, and an account without an entry costs a single read when its chunk was never allocated.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class AccountTable<T> {
+
+    private static final int CHUNK_BITS = 14;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // enough chunks to address every non negative int
+    private static final int MAX_CHUNKS = 1 << (Integer.SIZE - 1 - CHUNK_BITS);
+
+    private final AtomicReferenceArray<AtomicReferenceArray<T>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final Supplier<T> factory;
+
+    /**
+     * @param factory creates the entry of an account the first time it needs one
+     */
+    AccountTable(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return the entry of the account, null if it has none
+     */
+    T get(int accountId) {
+        if (accountId < 0) {
+            return null;
+        }
+        AtomicReferenceArray<T> chunk = chunks.get(accountId >>> CHUNK_BITS);
+        return chunk == null ? null : chunk.get(accountId & CHUNK_MASK);
+    }
+
+    /**
+     * @param accountId not negative
+     * @return the entry of the account, created if it has none yet. Concurrent callers get the same entry.
+     */
+    T getOrCreate(int accountId) {
+        T entry = get(accountId);
+        if (entry != null) {
+            return entry;
+        }
+        int index = accountId >>> CHUNK_BITS;
+        AtomicReferenceArray<T> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = chunks.get(index);
+        }
+        T created = factory.get();
+        int offset = accountId & CHUNK_MASK;
+        return chunk.compareAndSet(offset, null, created) ? created : chunk.get(offset);
+    }
+
+    /**
+     * Run the action for every entry, in ascending order of account ID. Entries created concurrently may be missed.
+     */
+    void forEach(ObjIntConsumer<T> action) {
+        for (int index = 0; index < MAX_CHUNKS; index++) {
+            AtomicReferenceArray<T> chunk = chunks.get(index);
+            if (chunk == null) {
+                continue;
+            }
+            for (int offset = 0; offset < CHUNK_SIZE; offset++) {
+                T entry = chunk.get(offset);
+                if (entry != null) {
+                    action.accept(entry, index << CHUNK_BITS | offset);
+                }
+            }
+        }
+    }
+}
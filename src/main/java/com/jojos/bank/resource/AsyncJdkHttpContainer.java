@@ -0,0 +1,206 @@
+package com.jojos.bank.resource;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsExchange;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerException;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.spi.ContainerResponseWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.SecurityContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bridges the JDK {@link com.sun.net.httpserver.HttpServer} and Jersey like the container shipped with Jersey does,
+ * but also supports suspended requests ({@link javax.ws.rs.container.AsyncResponse}): the exchange stays open after
+ * the request thread returns and is completed by whichever thread resumes the response.
+ *
+ * Requests shed by the {@link ServerExecutor} are answered with {@code 503 Service Unavailable} right away.
+ *
+ * Suspend timeouts are enforced by a single scheduler thread, which hands the timed out responses to the timeout
+ * handler of Jersey: the resource's own handler if it set one, {@code 503 Service Unavailable} otherwise.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class AsyncJdkHttpContainer implements HttpHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncJdkHttpContainer.class);
+
+    private final ApplicationHandler application;
+    private final ServerExecutor executor;
+    private final ScheduledThreadPoolExecutor timeouts;
+
+    AsyncJdkHttpContainer(ResourceConfig resourceConfig, ServerExecutor executor) {
+        application = new ApplicationHandler(resourceConfig);
+        this.executor = executor;
+        timeouts = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "suspend-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // most responses are resumed long before they time out
+        timeouts.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Stop enforcing the suspend timeouts
+     */
+    void close() {
+        timeouts.shutdownNow();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (ServerExecutor.isShedding()) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(executor.getRetryAfterSeconds()));
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+
+        boolean secure = exchange instanceof HttpsExchange;
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null) {
+            host = exchange.getLocalAddress().getHostString() + ":" + exchange.getLocalAddress().getPort();
+        }
+        URI root = URI.create((secure ? "https" : "http") + "://" + host);
+        URI baseUri = root.resolve(exchange.getHttpContext().getPath());
+        URI requestUri = root.resolve(exchange.getRequestURI());
+
+        ContainerRequest request = new ContainerRequest(baseUri, requestUri, exchange.getRequestMethod(),
+                new AnonymousSecurityContext(secure), new MapPropertiesDelegate());
+        request.setEntityStream(exchange.getRequestBody());
+        exchange.getRequestHeaders().forEach((name, values) -> request.getHeaders().addAll(name, values));
+        request.setWriter(new ResponseWriter(exchange, timeouts));
+        application.handle(request);
+    }
+
+    private static final class ResponseWriter implements ContainerResponseWriter {
+        private final HttpExchange exchange;
+        private final ScheduledThreadPoolExecutor timeouts;
+        // guarded by this
+        private TimeoutHandler timeoutHandler;
+        private ScheduledFuture<?> timeout;
+
+        private ResponseWriter(HttpExchange exchange, ScheduledThreadPoolExecutor timeouts) {
+            this.exchange = exchange;
+            this.timeouts = timeouts;
+        }
+
+        @Override
+        public OutputStream writeResponseStatusAndHeaders(long contentLength, ContainerResponse response) {
+            Headers headers = exchange.getResponseHeaders();
+            response.getStringHeaders().forEach((name, values) -> headers.put(name, new ArrayList<>(values)));
+            int status = response.getStatus();
+            // the JDK server expects -1 for no body and 0 for a body of unknown length
+            long length = status == 204 || status == 304 || contentLength == 0 ? -1
+                    : contentLength < 0 ? 0 : contentLength;
+            try {
+                exchange.sendResponseHeaders(status, length);
+            } catch (IOException e) {
+                throw new ContainerException("Could not send the response headers", e);
+            }
+            return exchange.getResponseBody();
+        }
+
+        @Override
+        public synchronized boolean suspend(long timeOut, TimeUnit timeUnit, TimeoutHandler timeoutHandler) {
+            if (this.timeoutHandler != null) {
+                return false;
+            }
+            this.timeoutHandler = timeoutHandler;
+            scheduleTimeout(timeOut, timeUnit);
+            return true;
+        }
+
+        @Override
+        public synchronized void setSuspendTimeout(long timeOut, TimeUnit timeUnit) {
+            if (timeoutHandler == null) {
+                throw new IllegalStateException("The response is not suspended");
+            }
+            scheduleTimeout(timeOut, timeUnit);
+        }
+
+        private void scheduleTimeout(long timeOut, TimeUnit timeUnit) {
+            cancelTimeout();
+            // a timeout of 0 or less waits for as long as it takes
+            if (timeOut > 0) {
+                TimeoutHandler handler = timeoutHandler;
+                timeout = timeouts.schedule(() -> handler.onTimeout(this), timeOut, timeUnit);
+            }
+        }
+
+        private synchronized void cancelTimeout() {
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+        }
+
+        @Override
+        public void commit() {
+            cancelTimeout();
+            exchange.close();
+        }
+
+        @Override
+        public void failure(Throwable error) {
+            cancelTimeout();
+            log.error("Could not process the request {} {}", exchange.getRequestMethod(), exchange.getRequestURI(),
+                    error);
+            try {
+                exchange.sendResponseHeaders(500, -1);
+            } catch (IOException e) {
+                // the headers were already sent, nothing more can be done than closing the exchange
+            }
+            exchange.close();
+        }
+
+        @Override
+        public boolean enableResponseBuffering() {
+            return true;
+        }
+    }
+
+    private static final class AnonymousSecurityContext implements SecurityContext {
+        private final boolean secure;
+
+        private AnonymousSecurityContext(boolean secure) {
+            this.secure = secure;
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return null;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return false;
+        }
+
+        @Override
+        public boolean isSecure() {
+            return secure;
+        }
+
+        @Override
+        public String getAuthenticationScheme() {
+            return null;
+        }
+    }
+}
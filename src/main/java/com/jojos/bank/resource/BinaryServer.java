@@ -0,0 +1,292 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.api.BinaryApi;
+import com.jojos.bank.api.BinaryProtocol;
+import com.jojos.bank.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the {@link BinaryProtocol} over plain TCP connections, next to the HTTP {@link Server}.
+ *
+ * A single selector thread accepts the connections, reads the requests and writes the responses; the transfers are
+ * executed by the {@link com.jojos.bank.service.TransferHandler}, like the ones of the REST API. A connection reads
+ * as many pipelined requests as its buffer holds at once. The responses completed meanwhile are queued on their
+ * connection and written together, with a single write and a single wake up of the selector for all of them.
+ *
+ * A connection stops reading requests while {@value #MAX_IN_FLIGHT} of its transfers are in progress, so that a
+ * client that doesn't read its responses cannot make the server queue them forever.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class BinaryServer {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryServer.class);
+
+    /**
+     * The port of the binary protocol. The protocol is not served if it is not set.
+     */
+    public static final String PORT_PROPERTY = "bank.binary.port";
+
+    static final int MAX_IN_FLIGHT = 4096;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final LongAdder requests = new LongAdder();
+
+    static {
+        Metrics.registerCounter("bank_binary_requests_total", "Requests received over the binary protocol.",
+                requests::sum);
+    }
+
+    private final int port;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    // connections having responses to write, woken up once until the selector writes them
+    private final ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param port the port to listen to, 0 for any free port
+     * @throws IOException if the port could not be bound
+     */
+    public BinaryServer(int port) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        thread = new Thread(this::run, "binary-selector");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+        log.info("Binary protocol served on port {}", port);
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Could not close the binary protocol connections", e);
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Connection connection;
+                while ((connection = ready.poll()) != null) {
+                    connection.write();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                log.error("The binary protocol selector failed", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    /**
+     * A client connection. Only the selector thread reads and writes it, the threads completing the transfers only
+     * queue the responses.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private int inFlight;
+
+        // responses completed but not written yet, guarded by this
+        private long[] pendingIds = new long[64];
+        private short[] pendingStatuses = new short[64];
+        private int pending;
+        private boolean queued;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void read() {
+            int read;
+            try {
+                read = channel.read(in);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            process();
+        }
+
+        private void process() {
+            in.flip();
+            while (in.remaining() >= BinaryProtocol.REQUEST_SIZE && inFlight < MAX_IN_FLIGHT) {
+                long requestId = in.getLong();
+                int fromAccountId = in.getInt();
+                int toAccountId = in.getInt();
+                long amount = in.getLong();
+                int currencyCode = in.getShort() & 0xFFFF;
+                short reserved = in.getShort();
+                inFlight++;
+                requests.increment();
+                if (reserved != 0) {
+                    respond(requestId, BinaryProtocol.STATUS_MALFORMED);
+                    continue;
+                }
+                BinaryApi.transfer(fromAccountId, toAccountId, amount, currencyCode)
+                        .thenAccept(status -> respond(requestId, status));
+            }
+            in.compact();
+            updateInterest();
+        }
+
+        /**
+         * Queue the response of a request, from any thread
+         */
+        private void respond(long requestId, short status) {
+            boolean wakeUp = false;
+            synchronized (this) {
+                if (pending == pendingIds.length) {
+                    pendingIds = Arrays.copyOf(pendingIds, pending * 2);
+                    pendingStatuses = Arrays.copyOf(pendingStatuses, pending * 2);
+                }
+                pendingIds[pending] = requestId;
+                pendingStatuses[pending] = status;
+                pending++;
+                if (!queued) {
+                    queued = true;
+                    wakeUp = true;
+                }
+            }
+            if (wakeUp) {
+                ready.add(this);
+                selector.wakeup();
+            }
+        }
+
+        private void write() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            int written = 0;
+            synchronized (this) {
+                int room = out.remaining() / BinaryProtocol.RESPONSE_SIZE;
+                written = Math.min(room, pending);
+                for (int i = 0; i < written; i++) {
+                    BinaryProtocol.putResponse(out, pendingIds[i], pendingStatuses[i]);
+                }
+                pending -= written;
+                System.arraycopy(pendingIds, written, pendingIds, 0, pending);
+                System.arraycopy(pendingStatuses, written, pendingStatuses, 0, pending);
+                // the rest is written once the socket is writable again
+                queued = false;
+            }
+            inFlight -= written;
+            out.flip();
+            try {
+                channel.write(out);
+            } catch (IOException e) {
+                close();
+                return;
+            } finally {
+                out.compact();
+            }
+            if (inFlight < MAX_IN_FLIGHT && in.position() >= BinaryProtocol.REQUEST_SIZE) {
+                // requests left unread while the connection had too many in flight
+                process();
+            } else {
+                updateInterest();
+            }
+        }
+
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            boolean unwritten;
+            synchronized (this) {
+                unwritten = pending > 0;
+            }
+            int ops = 0;
+            if (inFlight < MAX_IN_FLIGHT) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (out.position() > 0 || unwritten) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Could not close a binary protocol connection", e);
+            }
+        }
+    }
+}
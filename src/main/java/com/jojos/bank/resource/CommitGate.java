@@ -0,0 +1,114 @@
+package com.jojos.bank.resource;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets any number of writers update the accounts concurrently while allowing a snapshot to briefly stop new writers
+ * and wait for the ones in flight, so that it can mark a point in time where no write is half done.
+ *
+ * Unlike a read-write lock a section may be entered by one thread and exited by another one, which is what a
+ * transfer handed over between the shards needs. Writers are counted in padded stripes chosen by thread so that
+ * they don't all contend on one counter.
+ *
+ * A reader may also wait for the sections in flight without stopping new ones, see {@link #awaitInFlight()}: the
+ * writers are counted in two banks of stripes, and the bank new writers enter is flipped for every such wait.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class CommitGate {
+
+    private static final int STRIPES = 64;
+    // keep the counters of different stripes on different cache lines
+    private static final int PADDING = 8;
+
+    private static final int BANK = STRIPES * PADDING;
+
+    private final AtomicLongArray active = new AtomicLongArray(2 * BANK);
+    private final Object pauseMonitor = new Object();
+    private volatile boolean paused;
+    // the bank new writers enter, only flipped by awaitInFlight
+    private volatile int bank;
+    private final Object flipMonitor = new Object();
+
+    /**
+     * Enter a write section, waiting if a snapshot is marking its point in time
+     * @return the ticket to give back to {@link #exit(int)}
+     */
+    int enter() {
+        int stripe = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+        while (true) {
+            int entered = bank;
+            int slot = entered + stripe;
+            active.incrementAndGet(slot);
+            if (!paused && bank == entered) {
+                return slot;
+            }
+            // back off so that the pause can complete, or enter the bank that is not being waited for
+            active.decrementAndGet(slot);
+            synchronized (pauseMonitor) {
+                while (paused) {
+                    try {
+                        pauseMonitor.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Leave a write section, possibly from another thread than the one that entered it
+     */
+    void exit(int ticket) {
+        active.decrementAndGet(ticket);
+    }
+
+    /**
+     * Run an action while no write section is open. New writers wait until the action is done.
+     * Only one pause may run at a time.
+     */
+    synchronized void pause(Runnable action) {
+        paused = true;
+        try {
+            while (!drained()) {
+                LockSupport.parkNanos(10_000);
+            }
+            action.run();
+        } finally {
+            synchronized (pauseMonitor) {
+                paused = false;
+                pauseMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until the write sections open when this method is called are all closed, without stopping the sections
+     * opened meanwhile. A writer only enters a bank it still finds current after counting itself in, so every open
+     * section is either in the current bank or in the one drained by the wait in progress.
+     */
+    void awaitInFlight() {
+        synchronized (flipMonitor) {
+            int previous = bank;
+            bank = BANK - previous;
+            while (!drained(previous)) {
+                LockSupport.parkNanos(10_000);
+            }
+        }
+    }
+
+    private boolean drained() {
+        return drained(0) && drained(BANK);
+    }
+
+    private boolean drained(int bank) {
+        for (int slot = bank; slot < bank + BANK; slot += PADDING) {
+            if (active.get(slot) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,31 +1,133 @@
 package com.jojos.bank.resource;
 
+import com.jojos.bank.metrics.Metrics;
 import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A storage implementation that is using in-memory key-value pairs for simplicity
  *
+ * The accounts are kept by an {@link AccountStore} chosen at startup, see {@link StoreType}, either in memory or in
+ * a memory-mapped file. Balances are stored in
+ * minor units of the account's currency, {@link Account} objects are only created for the callers asking for them.
+ *
+ * Every stored account carries a version. Callers that don't hold a lock can read the balance of an account after
+ * its {@link #version(int)} and write it back with {@link #compareAndSet(int, long, long)} which fails if somebody
+ * else updated it in between.
+ *
+ * Writers that must appear atomically in a {@link Snapshotter snapshot}, ie both legs of a transfer and its journal
+ * record, run between {@link #beginCommit()} and {@link #endCommit(int)}.
+ *
+ * A debit may not leave the balance below the {@link #minimumBalance(int) minimum} of the account: minus its credit
+ * line, plus the funds held for a later debit. Accounts have no credit line unless one is set.
+ *
+ * The money every currency should hold altogether is kept next to the accounts: it grows with the accounts created
+ * and moves between currencies with the transfers {@link #exchanged(int, int, long, long) exchanging} it. Transfers
+ * within a currency don't change it, so comparing it to the sum of the balances proves no money was lost or made.
+ *
  * @author karanikasg@gmail.com
  */
 public final class Database {
-    private static final Database INSTANCE = new Database();
-    private static final AtomicInteger ID = new AtomicInteger();
+    private static final Database INSTANCE = new Database(StoreType.fromSystemProperties());
+
+    static final int CONSISTENT_READ_ATTEMPTS = 4;
+    // version, pending credits and folds of an account read by getConsistent
+    private static final int STAMP_SIZE = 3;
+
+    static {
+        Metrics.registerGauge("bank_accounts", "Accounts in the store.", Database::count);
+    }
+
+    private final StoreType storeType;
+    private final AccountStore store;
+    private final CommitGate gate = new CommitGate();
+    // one snapshot at a time, released by another method than the one acquiring it
+    private final Semaphore snapshotPermit = new Semaphore(1);
+
+    // the money the accounts of every currency should hold, by currency ordinal, in minor units
+    private final LongAdder[] supply = new LongAdder[Currency.values().length];
 
-    private final ConcurrentMap<Integer, Account> store = new ConcurrentHashMap<>();
+    // balances the accounts had when the snapshot being written was taken, for the accounts updated since then
+    private volatile ConcurrentMap<Integer, Long> preImages;
+
+    // credits of the hot accounts not folded into their stored balance yet
+    private final AccountTable<PendingCredits> pendingCredits = new AccountTable<>(PendingCredits::new);
+    // the pending credits when the snapshot being written was taken
+    private volatile Map<Integer, Long> pendingAtCut;
+
+    // credit lines and held funds, of the accounts having any
+    private final AccountTable<AccountLimits> limits = new AccountTable<>(AccountLimits::new);
+    // the credit lines when the snapshot being written was taken
+    private volatile Map<Integer, Long> creditLinesAtCut;
+
+    private Database(StoreType storeType) {
+        this.storeType = storeType;
+        this.store = storeType.newStore();
+        // a store kept in a file comes back with the accounts it had, and their money
+        long[] stored = supplyOf(store);
+        for (int i = 0; i < supply.length; i++) {
+            supply[i] = new LongAdder();
+            supply[i].add(stored[i]);
+        }
+    }
+
+    /**
+     * @return the money the accounts of a store hold, by currency ordinal, in minor units
+     */
+    static long[] supplyOf(AccountStore store) {
+        long[] supply = new long[Currency.values().length];
+        // the IDs are dense, like the reconciliation expects them
+        for (int accountId = 0, count = store.count(); accountId < count; accountId++) {
+            Currency currency = store.currency(accountId);
+            if (currency != null) {
+                supply[currency.ordinal()] += store.balance(accountId);
+            }
+        }
+        return supply;
+    }
 
     /**
      * Add an account to our storage implementation
      * @param account to be added
      * @return the ID associated with this account
+     * @throws ArithmeticException if the balance is too big to be stored
      */
     public static int add(Account account) {
-        int id = ID.getAndIncrement();
-        INSTANCE.store.putIfAbsent(id, account);
-        return id;
+        Currency currency = account.getCurrency();
+        long balance = currency.toMinorUnits(account.getBalance());
+        int accountId = INSTANCE.store.add(currency, balance);
+        INSTANCE.supply[currency.ordinal()].add(balance);
+        return accountId;
+    }
+
+    /**
+     * Store an account under a known ID, used when recovering the accounts after a restart
+     * @param accountId the ID the account had before the restart
+     * @param currency the currency of the account
+     * @param balance the balance in minor units
+     * @throws IllegalStateException if the account already exists
+     */
+    public static void restore(int accountId, Currency currency, long balance) {
+        INSTANCE.store.restore(accountId, currency, balance);
+        INSTANCE.supply[currency.ordinal()].add(balance);
+    }
+
+    /**
+     * Reserve a range of consecutive IDs for accounts stored afterwards with {@link #restore(int, Currency, long)}.
+     * The range must be filled within the same commit, so that a snapshot never sees it half filled.
+     * @param count the number of IDs to reserve
+     * @return the first ID of the range
+     * @throws IllegalStateException if there are not enough IDs left
+     */
+    public static int reserveIds(int count) {
+        return INSTANCE.store.reserveIds(count);
     }
 
     /**
@@ -33,28 +135,424 @@ public final class Database {
      * @param accountId is associated with the accound to be updated
      * @param account the values to be updated
      * @return false in case the update is not successful and true if the account was updated.
+     * @throws IllegalArgumentException if the currency of the account is not the stored one
      *
      * @implNote
      * in case no account with this ID exists in the DB the operation will not try to create a new one and simply fail.
      */
     public static boolean update(int accountId, Account account) {
-        if (INSTANCE.store.replace(accountId, account) == null) {
+        Currency currency = INSTANCE.store.currency(accountId);
+        if (currency == null) {
             return false;
         }
-        return true;
+        if (currency != account.getCurrency()) {
+            throw new IllegalArgumentException("The currency of account " + accountId + " cannot be changed");
+        }
+        long balance = currency.toMinorUnits(account.getBalance());
+        while (true) {
+            long version = INSTANCE.store.version(accountId);
+            long previous = INSTANCE.store.balance(accountId);
+            if (compareAndSet(accountId, version, balance)) {
+                INSTANCE.supply[currency.ordinal()].add(balance - previous);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Account for a transfer moving money from one currency to another, nothing to do if both accounts hold the same
+     * currency. Must be called within the commit of the transfer.
+     * @param debitAmount the amount taken from the source account, in minor units of its currency
+     * @param creditAmount the amount given to the target account, in minor units of its currency
+     */
+    public static void exchanged(int fromAccountId, int toAccountId, long debitAmount, long creditAmount) {
+        Currency from = INSTANCE.store.currency(fromAccountId);
+        Currency to = INSTANCE.store.currency(toAccountId);
+        if (from != to) {
+            INSTANCE.supply[from.ordinal()].add(-debitAmount);
+            INSTANCE.supply[to.ordinal()].add(creditAmount);
+        }
+    }
+
+    /**
+     * @return the money the accounts of every currency should hold, by currency ordinal, in minor units. Exact when
+     * no commit is in progress, ie within the action of {@link #startSnapshot(Runnable)}.
+     */
+    static long[] supply() {
+        long[] supply = new long[INSTANCE.supply.length];
+        for (int i = 0; i < supply.length; i++) {
+            supply[i] = INSTANCE.supply[i].sum();
+        }
+        return supply;
+    }
+
+    /**
+     * Atomically set the balance of an account, provided that it has not been modified since its version was read.
+     * @param accountId is associated with the account to be updated
+     * @param expectedVersion the version read with {@link #version(int)} before reading the balance
+     * @param balance the new balance in minor units of the account's currency
+     * @return true if the account was updated, false if the account has been modified in the meantime
+     */
+    public static boolean compareAndSet(int accountId, long expectedVersion, long balance) {
+        AccountStore store = INSTANCE.store;
+        ConcurrentMap<Integer, Long> preImages = INSTANCE.preImages;
+        if (preImages != null && !preImages.containsKey(accountId)) {
+            // copy on write: keep the balance of the snapshot before overwriting it. The version being unchanged
+            // after reading the balance proves the balance is the one of the expected version.
+            long previous = store.balance(accountId);
+            if ((expectedVersion & 1) != 0 || store.version(accountId) != expectedVersion) {
+                return false;
+            }
+            preImages.putIfAbsent(accountId, previous);
+        }
+        return store.compareAndSet(accountId, expectedVersion, balance);
+    }
+
+    /**
+     * Start updating the accounts. A snapshot is either taken before all the updates made until
+     * {@link #endCommit(int)} or after them, never in the middle.
+     * Sections must not be nested, the calling thread would wait for itself if a snapshot is starting.
+     * @return the ticket to give back to {@link #endCommit(int)}
+     */
+    public static int beginCommit() {
+        return INSTANCE.gate.enter();
+    }
+
+    /**
+     * Done updating the accounts, may be called from another thread than {@link #beginCommit()}
+     * @param ticket the value returned by {@link #beginCommit()}
+     */
+    public static void endCommit(int ticket) {
+        INSTANCE.gate.exit(ticket);
     }
 
     /**
-     * Retrieve operation of an account
+     * Wait for the commits in flight, run the action while no commit is in progress and start keeping the balances
+     * the accounts have at that point in time. Only one snapshot is kept at a time: waits for the one in progress to
+     * {@link #endSnapshot() end}.
+     * @param atCut run while no account is being updated
+     * @return the number of accounts at that point in time, the IDs of the accounts being assigned densely
+     */
+    static int startSnapshot(Runnable atCut) {
+        INSTANCE.snapshotPermit.acquireUninterruptibly();
+        int[] count = new int[1];
+        INSTANCE.gate.pause(() -> {
+            // nobody is crediting at the cut, the sums are exact
+            Map<Integer, Long> pending = new HashMap<>();
+            INSTANCE.pendingCredits.forEach((credits, accountId) -> pending.put(accountId, credits.sum()));
+            INSTANCE.pendingAtCut = pending;
+            Map<Integer, Long> creditLines = new HashMap<>();
+            INSTANCE.limits.forEach((limits, accountId) -> {
+                if (limits.creditLine != 0) {
+                    creditLines.put(accountId, limits.creditLine);
+                }
+            });
+            INSTANCE.creditLinesAtCut = creditLines;
+            INSTANCE.preImages = new ConcurrentHashMap<>();
+            count[0] = INSTANCE.store.count();
+            atCut.run();
+        });
+        return count[0];
+    }
+
+    /**
+     * @return the balance the account had when {@link #startSnapshot(Runnable)} was called
+     */
+    static long snapshotBalance(int accountId) {
+        AccountStore store = INSTANCE.store;
+        long balance;
+        while (true) {
+            long version = store.version(accountId);
+            balance = store.balance(accountId);
+            if ((version & 1) == 0 && version == store.version(accountId)) {
+                break;
+            }
+        }
+        // the current balance is read first: if no pre-image exists after that, the account was not updated since
+        // the snapshot started when it was read
+        Long previous = INSTANCE.preImages.get(accountId);
+        // credits folded since the cut are in neither of them
+        return (previous != null ? previous : balance) + INSTANCE.pendingAtCut.getOrDefault(accountId, 0L);
+    }
+
+    /**
+     * @return the credit lines the accounts had when {@link #startSnapshot(Runnable)} was called, by account ID
+     */
+    static Map<Integer, Long> snapshotCreditLines() {
+        return INSTANCE.creditLinesAtCut;
+    }
+
+    /**
+     * Stop keeping the balances of the snapshot
+     */
+    static void endSnapshot() {
+        INSTANCE.preImages = null;
+        INSTANCE.pendingAtCut = null;
+        INSTANCE.creditLinesAtCut = null;
+        INSTANCE.snapshotPermit.release();
+    }
+
+    /**
+     * Credit an account without updating its stored balance, so that concurrent credits of the same account never
+     * contend. The credit is visible to {@link #get(int)} right away and stored by
+     * {@link #foldPendingCredits(int)}.
+     * Must be called between {@link #beginCommit()} and {@link #endCommit(int)}.
+     * @param accountId an existing account
+     * @param amount the amount in minor units of the account's currency
+     */
+    public static void addPendingCredit(int accountId, long amount) {
+        INSTANCE.pendingCredits.getOrCreate(accountId).add(amount);
+    }
+
+    /**
+     * Add the pending credits of an account to its stored balance.
+     * Must be called between {@link #beginCommit()} and {@link #endCommit(int)} by a writer allowed to update the
+     * account, ie holding its lock.
+     * @throws ArithmeticException if the balance would overflow, the credits are then left pending
+     */
+    public static void foldPendingCredits(int accountId) {
+        PendingCredits credits = INSTANCE.pendingCredits.get(accountId);
+        if (credits == null) {
+            return;
+        }
+        credits.startFold();
+        try {
+            long amount = credits.drain();
+            if (amount == 0) {
+                return;
+            }
+            AccountStore store = INSTANCE.store;
+            while (true) {
+                long version = store.version(accountId);
+                long folded;
+                try {
+                    folded = Math.addExact(store.balance(accountId), amount);
+                } catch (ArithmeticException e) {
+                    credits.add(amount);
+                    throw e;
+                }
+                if (compareAndSet(accountId, version, folded)) {
+                    return;
+                }
+            }
+        } finally {
+            credits.finishFold();
+        }
+    }
+
+    /**
+     * @return the credits of the account that are not in its stored balance yet
+     */
+    public static long pendingCredits(int accountId) {
+        PendingCredits credits = INSTANCE.pendingCredits.get(accountId);
+        return credits == null ? 0 : credits.sum();
+    }
+
+    /**
+     * Set how far below zero the balance of an account may be debited, 0 to forbid any overdraft.
+     * Must be called between {@link #beginCommit()} and {@link #endCommit(int)}.
+     * @param creditLine in minor units of the account's currency, not negative
+     */
+    public static void setCreditLine(int accountId, long creditLine) {
+        limitsOf(accountId).creditLine = creditLine;
+    }
+
+    /**
+     * @return how far below zero the balance of the account may be debited, in minor units
+     */
+    public static long creditLine(int accountId) {
+        AccountLimits limits = INSTANCE.limits.get(accountId);
+        return limits == null ? 0 : limits.creditLine;
+    }
+
+    /**
+     * Add to, or with a negative amount take from, the funds of an account held for a later debit. Held funds are
+     * only kept in memory, they are all released by a restart.
+     * @param amount in minor units of the account's currency
+     */
+    public static void hold(int accountId, long amount) {
+        limitsOf(accountId).held.addAndGet(amount);
+    }
+
+    /**
+     * @return the funds of the account held for a later debit, in minor units
+     */
+    public static long held(int accountId) {
+        AccountLimits limits = INSTANCE.limits.get(accountId);
+        return limits == null ? 0 : limits.held.get();
+    }
+
+    /**
+     * @return the lowest balance a debit may leave the account with: the funds it holds minus its credit line
+     */
+    public static long minimumBalance(int accountId) {
+        AccountLimits limits = INSTANCE.limits.get(accountId);
+        return limits == null ? 0 : limits.minimumBalance();
+    }
+
+    private static AccountLimits limitsOf(int accountId) {
+        return INSTANCE.limits.getOrCreate(accountId);
+    }
+
+    /**
+     * Retrieve operation of an account. Never waits for the writers: the balance is read again until no update of the
+     * account, nor a fold of its pending credits, overlapped the read.
      * @param accountId associated with the account to be retrieved
-     * @return the account that is mapped to the accountId null if it does not exist.
+     * @return the account that is mapped to the accountId null if it does not exist. Its balance includes the
+     * pending credits.
      */
     public static Account get(int accountId) {
-        return INSTANCE.store.get(accountId);
+        Currency currency = INSTANCE.store.currency(accountId);
+        if (currency == null) {
+            return null;
+        }
+        return new Account(currency.fromMinorUnits(read(accountId, null, 0)), currency);
+    }
+
+    /**
+     * Retrieve many accounts as they all were at a single point in time: a transfer between two of them is either
+     * seen entirely or not at all.
+     *
+     * The accounts are read without locking, then read again once the commits in flight during the first read are
+     * over. If none of the accounts changed in between, no commit was half way through them when they were read.
+     * Accounts that keep changing are read after {@value #CONSISTENT_READ_ATTEMPTS} attempts while the commits are
+     * paused, which only waits for the commits in flight.
+     * @return the accounts in the order of their IDs, null for the ones that do not exist. Their balances include the
+     * pending credits.
+     */
+    public static Account[] getConsistent(int[] accountIds) {
+        long[] stamps = new long[accountIds.length * STAMP_SIZE];
+        long[] balances = new long[accountIds.length];
+        for (int attempt = 0; attempt < CONSISTENT_READ_ATTEMPTS; attempt++) {
+            for (int i = 0; i < accountIds.length; i++) {
+                balances[i] = read(accountIds[i], stamps, i * STAMP_SIZE);
+            }
+            INSTANCE.gate.awaitInFlight();
+            if (unchanged(accountIds, stamps)) {
+                return accounts(accountIds, balances);
+            }
+        }
+        INSTANCE.gate.pause(() -> {
+            for (int i = 0; i < accountIds.length; i++) {
+                balances[i] = read(accountIds[i], null, 0);
+            }
+        });
+        return accounts(accountIds, balances);
+    }
+
+    /**
+     * Read the balance of an account with its pending credits, consistently
+     * @param stamp if not null, receives the version of the account, its pending credits and the number of folds
+     * of its credits at the offset, for {@link #unchanged(int[], long[])}
+     * @return the balance in minor units, 0 if the account does not exist
+     */
+    private static long read(int accountId, long[] stamp, int offset) {
+        AccountStore store = INSTANCE.store;
+        PendingCredits credits = INSTANCE.pendingCredits.get(accountId);
+        while (true) {
+            long folds = credits == null ? 0 : credits.foldsFinished();
+            long version = store.version(accountId);
+            long balance = version == 0 ? 0 : store.balance(accountId);
+            long pending = credits == null ? 0 : credits.sum();
+            if ((version & 1) == 0 && version == store.version(accountId)
+                    && (credits == null || credits.foldsStarted() == folds)) {
+                if (stamp != null) {
+                    stamp[offset] = version;
+                    stamp[offset + 1] = pending;
+                    stamp[offset + 2] = folds;
+                }
+                return balance + pending;
+            }
+        }
+    }
+
+    /**
+     * @return true if none of the accounts was updated, credited or folded since its stamp was taken. Pending credits
+     * only grow between two folds, so an unchanged sum means no credit was added.
+     */
+    private static boolean unchanged(int[] accountIds, long[] stamps) {
+        for (int i = 0; i < accountIds.length; i++) {
+            int accountId = accountIds[i];
+            int offset = i * STAMP_SIZE;
+            PendingCredits credits = INSTANCE.pendingCredits.get(accountId);
+            long folds = credits == null ? 0 : credits.foldsStarted();
+            long pending = credits == null ? 0 : credits.sum();
+            if (INSTANCE.store.version(accountId) != stamps[offset] || pending != stamps[offset + 1]
+                    || folds != stamps[offset + 2]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Account[] accounts(int[] accountIds, long[] balances) {
+        Account[] accounts = new Account[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            Currency currency = INSTANCE.store.currency(accountIds[i]);
+            if (currency != null) {
+                accounts[i] = new Account(currency.fromMinorUnits(balances[i]), currency);
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Retrieve operation of an account together with its current version
+     * @param accountId associated with the account to be retrieved
+     * @return the stored account or null if it does not exist.
+     */
+    public static VersionedAccount getVersioned(int accountId) {
+        Currency currency = INSTANCE.store.currency(accountId);
+        if (currency == null) {
+            return null;
+        }
+        while (true) {
+            long version = INSTANCE.store.version(accountId);
+            long balance = INSTANCE.store.balance(accountId);
+            if ((version & 1) == 0 && version == INSTANCE.store.version(accountId)) {
+                return new VersionedAccount(new Account(currency.fromMinorUnits(balance), currency), version);
+            }
+        }
     }
 
     public static boolean accountExists(int account) {
-        return INSTANCE.store.containsKey(account);
+        return INSTANCE.store.exists(account);
+    }
+
+    /**
+     * @return the currency of the account or null if it does not exist
+     */
+    public static Currency currency(int accountId) {
+        return INSTANCE.store.currency(accountId);
+    }
+
+    /**
+     * @return the stored balance of an existing account in minor units of its currency, without its pending credits
+     */
+    public static long balance(int accountId) {
+        return INSTANCE.store.balance(accountId);
+    }
+
+    /**
+     * @return the current version of the account, odd while an update is being applied, 0 if it does not exist.
+     */
+    public static long version(int accountId) {
+        return INSTANCE.store.version(accountId);
+    }
+
+    /**
+     * @return the kind of store holding the accounts
+     */
+    public static StoreType storeType() {
+        return INSTANCE.storeType;
+    }
+
+    /**
+     * Release the resources of the store, ie flush a file backed store to the disk.
+     * The database must not be used afterwards.
+     */
+    public static void close() {
+        INSTANCE.store.close();
     }
 
     /**
@@ -63,6 +561,6 @@ public final class Database {
      * @return the total count of the accounts stored in out store
      */
     public static int count() {
-        return INSTANCE.store.size();
+        return INSTANCE.store.count();
     }
 }
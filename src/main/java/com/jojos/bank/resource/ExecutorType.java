@@ -0,0 +1,76 @@
+package com.jojos.bank.resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The executors available to run the requests of the {@link Server}.
+ *
+ * The executor is picked once at startup through the {@value #EXECUTOR_PROPERTY} system property,
+ * ie {@code -Dbank.server.executor=virtual}. The default is {@link #BOUNDED}.
+ *
+ * @author karanikasg@gmail.com
+ */
+public enum ExecutorType {
+
+    /**
+     * A pool of {@value #THREADS_PROPERTY} threads growing up to {@value #MAX_THREADS_PROPERTY} when its queue of
+     * {@value #QUEUE_PROPERTY} requests is full. Requests arriving after that are rejected.
+     */
+    BOUNDED {
+        @Override
+        public ServerExecutor newExecutor() {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int threads = Integer.getInteger(THREADS_PROPERTY, 2 * cores);
+            int maxThreads = Math.max(threads, Integer.getInteger(MAX_THREADS_PROPERTY, 8 * cores));
+            return ServerExecutor.bounded(threads, maxThreads, Integer.getInteger(QUEUE_PROPERTY, DEFAULT_QUEUE),
+                    retryAfterSeconds());
+        }
+    },
+
+    /**
+     * A virtual thread per request, at most {@value #MAX_CONCURRENT_PROPERTY} requests at once. Requires a JDK
+     * supporting virtual threads, the {@link #BOUNDED} executor is used otherwise.
+     */
+    VIRTUAL {
+        @Override
+        public ServerExecutor newExecutor() {
+            ServerExecutor executor = ServerExecutor.virtual(
+                    Integer.getInteger(MAX_CONCURRENT_PROPERTY, DEFAULT_MAX_CONCURRENT), retryAfterSeconds());
+            if (executor == null) {
+                log.warn("Virtual threads are not supported by this JVM, falling back to the bounded executor");
+                return BOUNDED.newExecutor();
+            }
+            return executor;
+        }
+    };
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutorType.class);
+
+    public static final String EXECUTOR_PROPERTY = "bank.server.executor";
+    public static final String THREADS_PROPERTY = "bank.server.threads";
+    public static final String MAX_THREADS_PROPERTY = "bank.server.threads.max";
+    public static final String QUEUE_PROPERTY = "bank.server.queue";
+    public static final String MAX_CONCURRENT_PROPERTY = "bank.server.concurrent.max";
+    public static final String RETRY_AFTER_PROPERTY = "bank.server.retry.after";
+
+    private static final int DEFAULT_QUEUE = 1000;
+    private static final int DEFAULT_MAX_CONCURRENT = 10_000;
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+    public abstract ServerExecutor newExecutor();
+
+    /**
+     * @return the executor type defined by the {@value #EXECUTOR_PROPERTY} system property or {@link #BOUNDED} if it
+     * is absent.
+     * @throws IllegalArgumentException if the property doesn't name a known executor type
+     */
+    public static ExecutorType fromSystemProperties() {
+        String type = System.getProperty(EXECUTOR_PROPERTY);
+        return type == null ? BOUNDED : valueOf(type.trim().toUpperCase());
+    }
+
+    private static int retryAfterSeconds() {
+        return Integer.getInteger(RETRY_AFTER_PROPERTY, DEFAULT_RETRY_AFTER_SECONDS);
+    }
+}
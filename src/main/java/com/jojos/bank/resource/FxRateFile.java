@@ -0,0 +1,85 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.FxRates;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the {@link FxRates} from a local file and reloads them whenever the file changes.
+ *
+ * The file is only read by a background thread and the new rates replace the old ones at once, so transfers keep
+ * converting with the previous rates meanwhile. A file that cannot be parsed is reported and the previous rates
+ * stay in use.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class FxRateFile {
+
+    private static final Logger log = LoggerFactory.getLogger(FxRateFile.class);
+
+    private final Path file;
+    private final ScheduledExecutorService scheduler;
+    // of the file last loaded, guarded by this
+    private FileTime loaded;
+
+    public FxRateFile(Path file) {
+        this.file = file;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fx-rate-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Load the rates if the file changed since they were last loaded
+     * @return true if the rates were loaded
+     * @throws UncheckedIOException if the file cannot be read
+     * @throws IllegalArgumentException if the file holds an invalid rate
+     */
+    public synchronized boolean load() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            if (modified.equals(loaded)) {
+                return false;
+            }
+            int count;
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                count = FxRates.load(reader);
+            }
+            loaded = modified;
+            log.info("Loaded {} exchange rates from {}", count, file);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Check the file for new rates every given number of seconds in the background
+     */
+    public void start(long intervalSeconds) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (RuntimeException e) {
+                log.error("Could not reload the exchange rates from {}, the previous ones stay in use", file, e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,104 @@
+package com.jojos.bank.resource;
+
+import org.glassfish.grizzly.http.KeepAlive;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.RequestExecutorProvider;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.strategies.SameThreadIOStrategy;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpContainer;
+import org.glassfish.jersey.server.ContainerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import java.io.IOException;
+import java.net.URI;
+/**
+ * Serves the requests with a non-blocking Grizzly server.
+ *
+ * The selector threads read and parse the requests of every connection and hand the complete requests to the
+ * {@link ServerExecutor}, the same executor as the {@link JdkTransport}: the Grizzly worker pool is not used, so the
+ * number of threads, the queue and the load shedding are configured once for both transports. Connections are kept
+ * alive and requests pipelined on a connection are answered in order.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class GrizzlyTransport implements Transport {
+
+    private static final String LISTENER = "bank";
+
+    private final HttpServer server;
+
+    GrizzlyTransport(URI uri, ResourceConfig resourceConfig, ServerExecutor executor, int selectors,
+                     int keepAliveRequests, int keepAliveTimeoutSeconds) {
+        NetworkListener listener = new NetworkListener(LISTENER, NetworkListener.DEFAULT_NETWORK_HOST, uri.getPort());
+        TCPNIOTransport transport = listener.getTransport();
+        transport.setSelectorRunnersCount(selectors);
+        // the requests are dispatched to the executor by the container, not to a worker pool of the transport
+        transport.setIOStrategy(SameThreadIOStrategy.getInstance());
+        transport.setWorkerThreadPoolConfig(null);
+        transport.setTcpNoDelay(true);
+        KeepAlive keepAlive = listener.getKeepAlive();
+        keepAlive.setMaxRequestsCount(keepAliveRequests);
+        keepAlive.setIdleTimeoutInSeconds(keepAliveTimeoutSeconds);
+
+        server = new HttpServer();
+        server.addListener(listener);
+        server.getServerConfiguration().addHttpHandler(new Container(
+                ContainerFactory.createContainer(GrizzlyHttpContainer.class, resourceConfig), executor), "/");
+    }
+
+    @Override
+    public void start() throws IOException {
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        server.shutdownNow();
+    }
+
+    /**
+     * The Jersey container, executed by the {@link ServerExecutor} instead of a Grizzly worker thread. Requests shed
+     * by the executor are answered with {@code 503 Service Unavailable} right away, from the selector thread.
+     */
+    private static final class Container extends HttpHandler {
+
+        private final GrizzlyHttpContainer jersey;
+        private final ServerExecutor executor;
+        private final RequestExecutorProvider executorProvider;
+
+        private Container(GrizzlyHttpContainer jersey, ServerExecutor executor) {
+            this.jersey = jersey;
+            this.executor = executor;
+            executorProvider = request -> executor;
+        }
+
+        @Override
+        public void service(Request request, Response response) throws Exception {
+            if (ServerExecutor.isShedding()) {
+                response.setHeader("Retry-After", String.valueOf(executor.getRetryAfterSeconds()));
+                response.setStatus(503);
+                return;
+            }
+            jersey.service(request, response);
+        }
+
+        @Override
+        public RequestExecutorProvider getRequestExecutorProvider() {
+            return executorProvider;
+        }
+
+        @Override
+        public void start() {
+            jersey.start();
+        }
+
+        @Override
+        public void destroy() {
+            jersey.destroy();
+        }
+    }
+}
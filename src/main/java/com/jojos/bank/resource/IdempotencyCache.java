@@ -0,0 +1,178 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.metrics.Metrics;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the outcome of the transfers sent with an idempotency key, so that a client retrying a transfer gets the
+ * outcome of the first attempt instead of executing it twice.
+ *
+ * The keys are kept in a {@link ConcurrentHashMap}, so claiming a key never takes a lock shared by all the transfers.
+ * Every key lives for {@value #TTL_PROPERTY} seconds and at most {@value #SIZE_PROPERTY} keys are kept: the keys are
+ * queued in the order they were claimed, which is the order they expire in, and the oldest ones are dropped by the
+ * transfers claiming new keys. Under pressure a key may thus be forgotten before it expires.
+ *
+ * The keys of executed transfers are journaled with them and written to the snapshots, so they survive a restart.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class IdempotencyCache {
+
+    public static final String TTL_PROPERTY = "bank.idempotency.ttl";
+    public static final String SIZE_PROPERTY = "bank.idempotency.size";
+    public static final long DEFAULT_TTL_SECONDS = 24 * 60 * 60;
+    public static final int DEFAULT_SIZE = 1_000_000;
+
+    private static final IdempotencyCache INSTANCE = new IdempotencyCache(
+            Long.getLong(TTL_PROPERTY, DEFAULT_TTL_SECONDS) * 1000, Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+
+    static {
+        Metrics.registerGauge("bank_idempotency_keys", "Idempotency keys remembered.", IdempotencyCache::size);
+    }
+
+    private final long ttlMillis;
+    private final int maxSize;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // oldest first, may still hold entries already dropped from the map
+    private final ConcurrentLinkedQueue<Entry> byAge = new ConcurrentLinkedQueue<>();
+
+    IdempotencyCache(long ttlMillis, int maxSize) {
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Claim a key for a transfer about to be executed
+     * @param outcome completed with the outcome of the transfer once it is known
+     * @return null if the key was claimed and the transfer must be executed, otherwise the outcome of the transfer
+     * that claimed the key first, which may still be in progress
+     */
+    public static CompletableFuture<Boolean> claim(String key, CompletableFuture<Boolean> outcome) {
+        return INSTANCE.claim(key, outcome, System.currentTimeMillis());
+    }
+
+    /**
+     * Forget a key whose transfer was never attempted, ie rejected because too many transfers were queued, so that
+     * it can be retried
+     * @param outcome the future the key was claimed with
+     */
+    public static void release(String key, CompletableFuture<Boolean> outcome) {
+        INSTANCE.remove(key, outcome);
+    }
+
+    /**
+     * Mark the transfer of a key as executed, from the commit that journals it. Only the keys of executed transfers
+     * are written to the snapshots.
+     */
+    public static void committed(String key) {
+        Entry entry = INSTANCE.entries.get(key);
+        if (entry != null) {
+            entry.committed = true;
+        }
+    }
+
+    /**
+     * @return the number of keys remembered
+     */
+    public static int size() {
+        return INSTANCE.entries.size();
+    }
+
+    /**
+     * Remember the key of a transfer executed before a restart, unless it expired since
+     * @param createdMillis when the transfer was executed
+     */
+    static void restore(String key, long createdMillis) {
+        INSTANCE.restore(key, createdMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the keys of the executed transfers that did not expire yet and when they were executed
+     */
+    static List<Map.Entry<String, Long>> committedKeys() {
+        return INSTANCE.committedKeys(System.currentTimeMillis());
+    }
+
+    CompletableFuture<Boolean> claim(String key, CompletableFuture<Boolean> outcome, long now) {
+        evict(now);
+        Entry entry = new Entry(key, now, outcome);
+        while (true) {
+            Entry previous = entries.putIfAbsent(key, entry);
+            if (previous == null || (previous.expired(now, ttlMillis) && entries.replace(key, previous, entry))) {
+                byAge.add(entry);
+                return null;
+            }
+            if (!previous.expired(now, ttlMillis)) {
+                return previous.outcome;
+            }
+        }
+    }
+
+    void remove(String key, CompletableFuture<Boolean> outcome) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.outcome == outcome) {
+            entries.remove(key, entry);
+        }
+    }
+
+    void restore(String key, long createdMillis, long now) {
+        Entry entry = new Entry(key, createdMillis, CompletableFuture.completedFuture(true));
+        if (entry.expired(now, ttlMillis)) {
+            return;
+        }
+        entry.committed = true;
+        // the same key may be both in the snapshot and in the journal written after it
+        if (entries.putIfAbsent(key, entry) == null) {
+            byAge.add(entry);
+        }
+        evict(now);
+    }
+
+    List<Map.Entry<String, Long>> committedKeys(long now) {
+        List<Map.Entry<String, Long>> keys = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.committed && !entry.expired(now, ttlMillis)) {
+                keys.add(new AbstractMap.SimpleImmutableEntry<>(entry.key, entry.createdMillis));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Drop the oldest keys while they are expired or there are too many of them
+     */
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = byAge.peek()) != null && (oldest.expired(now, ttlMillis) || entries.size() > maxSize)) {
+            // whoever removes it from the queue drops it from the map
+            if (byAge.remove(oldest)) {
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final long createdMillis;
+        final CompletableFuture<Boolean> outcome;
+        volatile boolean committed;
+
+        Entry(String key, long createdMillis, CompletableFuture<Boolean> outcome) {
+            this.key = key;
+            this.createdMillis = createdMillis;
+            this.outcome = outcome;
+        }
+
+        boolean expired(long now, long ttlMillis) {
+            return now - createdMillis >= ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.jojos.bank.resource;
+
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import javax.ws.rs.ProcessingException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * Serves the requests with the {@link HttpServer} of the JDK
+ *
+ * @author karanikasg@gmail.com
+ */
+final class JdkTransport implements Transport {
+
+    private final HttpServer server;
+    private final AsyncJdkHttpContainer container;
+
+    JdkTransport(URI uri, ResourceConfig resourceConfig, ServerExecutor executor) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(uri.getPort()), 0);
+        } catch (IOException e) {
+            throw new ProcessingException("Could not create the http server", e);
+        }
+        // unlike the container shipped with Jersey it lets the resources suspend their responses
+        container = new AsyncJdkHttpContainer(resourceConfig, executor);
+        server.createContext("/", container);
+        // set the executors BEFORE the server is started
+        server.setExecutor(executor);
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        server.stop(1);
+        container.close();
+    }
+}
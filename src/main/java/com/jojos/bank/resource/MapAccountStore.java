@@ -0,0 +1,93 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Store keeping every account as an immutable record in a {@link ConcurrentHashMap}.
+ * Every update replaces the record of the account, the version of a record is therefore never odd.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class MapAccountStore implements AccountStore {
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final ConcurrentMap<Integer, Entry> store = new ConcurrentHashMap<>();
+
+    @Override
+    public int add(Currency currency, long balance) {
+        int id = nextId.getAndIncrement();
+        store.put(id, new Entry(currency, balance, 2));
+        return id;
+    }
+
+    @Override
+    public void restore(int accountId, Currency currency, long balance) {
+        if (store.putIfAbsent(accountId, new Entry(currency, balance, 2)) != null) {
+            throw new IllegalStateException("Account " + accountId + " already exists");
+        }
+        nextId.accumulateAndGet(accountId + 1, Math::max);
+    }
+
+    @Override
+    public int reserveIds(int count) {
+        int first = nextId.getAndAdd(count);
+        if (first < 0 || first + count < 0) {
+            throw new IllegalStateException("No account ID left");
+        }
+        return first;
+    }
+
+    @Override
+    public boolean exists(int accountId) {
+        return store.containsKey(accountId);
+    }
+
+    @Override
+    public Currency currency(int accountId) {
+        Entry entry = store.get(accountId);
+        return entry == null ? null : entry.currency;
+    }
+
+    @Override
+    public long balance(int accountId) {
+        Entry entry = store.get(accountId);
+        return entry == null ? 0 : entry.balance;
+    }
+
+    @Override
+    public long version(int accountId) {
+        Entry entry = store.get(accountId);
+        return entry == null ? 0 : entry.version;
+    }
+
+    @Override
+    public boolean compareAndSet(int accountId, long expectedVersion, long balance) {
+        Entry entry = store.get(accountId);
+        if (entry == null || entry.version != expectedVersion) {
+            return false;
+        }
+        // the entries don't override equals so replace only succeeds if the very same entry is still stored
+        return store.replace(accountId, entry, new Entry(entry.currency, balance, expectedVersion + 2));
+    }
+
+    @Override
+    public int count() {
+        return store.size();
+    }
+
+    private static final class Entry {
+        private final Currency currency;
+        private final long balance;
+        private final long version;
+
+        private Entry(Currency currency, long balance, long version) {
+            this.currency = currency;
+            this.balance = balance;
+            this.version = version;
+        }
+    }
+}
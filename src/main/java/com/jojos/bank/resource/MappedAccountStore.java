@@ -0,0 +1,317 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Store keeping the accounts off-heap, in fixed width records of a memory-mapped file. The record of an account
+ * is located by its ID so the file is a dense array of accounts, mapped in segments of {@value #SEGMENT_RECORDS}
+ * records as it grows.
+ *
+ * Layout of the file, all numbers in big endian
+ * <pre>
+ * header (64 bytes): magic (int), format version (int), record size (int), next ID (int), account count (int)
+ * record (24 bytes): account ID (int), ISO numeric currency code (short), unused (short), balance (long), version (long)
+ * </pre>
+ * A record with a version of 0 is not an account (yet).
+ *
+ * The file outlives the process so a restart picks up the accounts where they were left, without loading anything
+ * on the heap. Writes reach the disk when the operating system flushes its page cache, or on {@link #close()}.
+ *
+ * {@link MappedByteBuffer} offers no compare-and-swap nor volatile access, so writers of a record take one of a
+ * fixed pool of monitors and readers never block: every monitor comes with a stamp, odd while a writer is changing
+ * one of its records, and a read is retried until the stamp was even and unchanged around it. The stamp is checked
+ * again with an atomic read-modify-write, which orders the read of the record before any writer that comes after.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class MappedAccountStore implements AccountStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedAccountStore.class);
+
+    private static final int MAGIC = 0x4A4F4A4F;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_VERSION_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int NEXT_ID_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+
+    private static final int RECORD_SIZE = 24;
+    private static final int ID_OFFSET = 0;
+    private static final int CURRENCY_OFFSET = 4;
+    private static final int BALANCE_OFFSET = 8;
+    private static final int VERSION_OFFSET = 16;
+
+    private static final int SEGMENT_BITS = 20;
+    static final int SEGMENT_RECORDS = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_RECORDS - 1;
+    private static final int MAX_SEGMENTS = 1 << (Integer.SIZE - 1 - SEGMENT_BITS);
+
+    private static final int LOCK_STRIPES = 1024;
+    // keep the stamps of different stripes on different cache lines
+    private static final int PADDING = 8;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicLongArray stamps = new AtomicLongArray(LOCK_STRIPES * PADDING);
+
+    private final AtomicInteger nextId;
+    // only modified while holding the header
+    private int count;
+
+    /**
+     * Open the store, creating the file if it does not exist.
+     * @param file the file holding the accounts
+     * @throws UncheckedIOException if the file cannot be opened or is not an account store
+     */
+    MappedAccountStore(Path file) {
+        this.file = file;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            boolean created = channel.size() == 0;
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (created) {
+                header.putInt(MAGIC_OFFSET, MAGIC);
+                header.putInt(FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+                header.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+            } else if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(FORMAT_VERSION_OFFSET) != FORMAT_VERSION
+                    || header.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+                channel.close();
+                throw new IOException(file + " is not an account store or has an unsupported format");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        nextId = new AtomicInteger(header.getInt(NEXT_ID_OFFSET));
+        count = header.getInt(COUNT_OFFSET);
+        log.info("Opened account store {} holding {} accounts", file, count);
+    }
+
+    @Override
+    public int add(Currency currency, long balance) {
+        int id = nextId.getAndIncrement();
+        if (id < 0) {
+            throw new IllegalStateException("No account ID left");
+        }
+        store(id, currency, balance);
+        return id;
+    }
+
+    @Override
+    public void restore(int accountId, Currency currency, long balance) {
+        if (exists(accountId)) {
+            throw new IllegalStateException("Account " + accountId + " already exists");
+        }
+        nextId.accumulateAndGet(accountId + 1, Math::max);
+        store(accountId, currency, balance);
+    }
+
+    @Override
+    public int reserveIds(int count) {
+        int first = nextId.getAndAdd(count);
+        if (first < 0 || first + count < 0) {
+            throw new IllegalStateException("No account ID left");
+        }
+        return first;
+    }
+
+    private void store(int accountId, Currency currency, long balance) {
+        MappedByteBuffer segment = segmentForWrite(accountId);
+        int offset = offset(accountId);
+        int stamp = stamp(accountId);
+        synchronized (lock(accountId)) {
+            stamps.getAndIncrement(stamp);
+            segment.putInt(offset + ID_OFFSET, accountId);
+            segment.putShort(offset + CURRENCY_OFFSET, (short) currency.getNumericCode());
+            segment.putLong(offset + BALANCE_OFFSET, balance);
+            segment.putLong(offset + VERSION_OFFSET, 2);
+            stamps.incrementAndGet(stamp);
+        }
+        synchronized (header) {
+            count++;
+            header.putInt(COUNT_OFFSET, count);
+            header.putInt(NEXT_ID_OFFSET, Math.max(accountId + 1, header.getInt(NEXT_ID_OFFSET)));
+        }
+    }
+
+    @Override
+    public boolean exists(int accountId) {
+        return version(accountId) != 0;
+    }
+
+    @Override
+    public Currency currency(int accountId) {
+        MappedByteBuffer segment = segment(accountId);
+        if (segment == null) {
+            return null;
+        }
+        int offset = offset(accountId);
+        int stamp = stamp(accountId);
+        while (true) {
+            long before = stamps.get(stamp);
+            long version = segment.getLong(offset + VERSION_OFFSET);
+            short code = segment.getShort(offset + CURRENCY_OFFSET);
+            if (unchanged(stamp, before)) {
+                return version == 0 ? null : Currency.forNumericCode(code);
+            }
+        }
+    }
+
+    @Override
+    public long balance(int accountId) {
+        MappedByteBuffer segment = segment(accountId);
+        if (segment == null) {
+            return 0;
+        }
+        return read(accountId, segment, offset(accountId) + BALANCE_OFFSET);
+    }
+
+    @Override
+    public long version(int accountId) {
+        MappedByteBuffer segment = segment(accountId);
+        if (segment == null) {
+            return 0;
+        }
+        return read(accountId, segment, offset(accountId) + VERSION_OFFSET);
+    }
+
+    @Override
+    public boolean compareAndSet(int accountId, long expectedVersion, long balance) {
+        MappedByteBuffer segment = segment(accountId);
+        if (segment == null || expectedVersion == 0) {
+            return false;
+        }
+        int offset = offset(accountId);
+        int stamp = stamp(accountId);
+        synchronized (lock(accountId)) {
+            // other writers are kept out by the monitor
+            if (segment.getLong(offset + VERSION_OFFSET) != expectedVersion) {
+                return false;
+            }
+            stamps.getAndIncrement(stamp);
+            segment.putLong(offset + BALANCE_OFFSET, balance);
+            segment.putLong(offset + VERSION_OFFSET, expectedVersion + 2);
+            stamps.incrementAndGet(stamp);
+            return true;
+        }
+    }
+
+    @Override
+    public int count() {
+        synchronized (header) {
+            return count;
+        }
+    }
+
+    /**
+     * Flush every mapped segment to the disk and close the file.
+     */
+    @Override
+    public void close() {
+        synchronized (header) {
+            header.force();
+        }
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            MappedByteBuffer segment = segments.get(i);
+            if (segment != null) {
+                segment.force();
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Closed account store {}", file);
+    }
+
+    private Object lock(int accountId) {
+        return locks[accountId & (LOCK_STRIPES - 1)];
+    }
+
+    private static int stamp(int accountId) {
+        return (accountId & (LOCK_STRIPES - 1)) * PADDING;
+    }
+
+    private long read(int accountId, MappedByteBuffer segment, int position) {
+        int stamp = stamp(accountId);
+        while (true) {
+            long before = stamps.get(stamp);
+            long value = segment.getLong(position);
+            if (unchanged(stamp, before)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return true if no writer was changing a record of the stamp since it read before
+     */
+    private boolean unchanged(int stamp, long before) {
+        // a plain read of the stamp could be reordered before the read of the record
+        return (before & 1) == 0 && stamps.getAndAdd(stamp, 0) == before;
+    }
+
+    private static int offset(int accountId) {
+        return (accountId & SEGMENT_MASK) * RECORD_SIZE;
+    }
+
+    /**
+     * @return the segment holding the account, null if the file is not that big (yet)
+     */
+    private MappedByteBuffer segment(int accountId) {
+        if (accountId < 0) {
+            return null;
+        }
+        int index = accountId >>> SEGMENT_BITS;
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null && accountId < nextId.get()) {
+            // mapped lazily after a restart
+            segment = segmentForWrite(accountId);
+        }
+        return segment;
+    }
+
+    private MappedByteBuffer segmentForWrite(int accountId) {
+        int index = accountId >>> SEGMENT_BITS;
+        MappedByteBuffer segment = segments.get(index);
+        if (segment != null) {
+            return segment;
+        }
+        synchronized (segments) {
+            segment = segments.get(index);
+            if (segment == null) {
+                try {
+                    long position = HEADER_SIZE + (long) index * SEGMENT_RECORDS * RECORD_SIZE;
+                    // mapping past the end of the file grows it
+                    segment = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) SEGMENT_RECORDS * RECORD_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                segments.set(index, segment);
+            }
+            return segment;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.jojos.bank.resource;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Credits of an account that are not in its stored balance yet, spread over padded cells chosen by thread like
+ * a {@link java.util.concurrent.atomic.LongAdder} so that concurrent credits never contend on one field.
+ *
+ * Unlike a {@code LongAdder} the cells can be drained atomically one by one: every credit is either drained or left
+ * for the next drain, never lost.
+ *
+ * Between a drain and the update of the stored balance the drained credits are in neither of them. Folds are
+ * counted when they start and when they finish, so that a reader can tell it has not seen such an in-between state.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class PendingCredits {
+
+    private static final int STRIPES = 8;
+    // keep the cells on different cache lines
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+    private final AtomicLong foldsStarted = new AtomicLong();
+    private final AtomicLong foldsFinished = new AtomicLong();
+
+    void add(long amount) {
+        cells.addAndGet(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, amount);
+    }
+
+    /**
+     * @return the credits not drained yet, possibly missing the ones being added concurrently
+     */
+    long sum() {
+        long sum = 0;
+        for (int cell = 0; cell < cells.length(); cell += PADDING) {
+            sum += cells.get(cell);
+        }
+        return sum;
+    }
+
+    /**
+     * Take all the credits out of the cells
+     * @return the sum of the credits taken
+     */
+    long drain() {
+        long sum = 0;
+        for (int cell = 0; cell < cells.length(); cell += PADDING) {
+            sum += cells.getAndSet(cell, 0);
+        }
+        return sum;
+    }
+
+    /**
+     * Called before draining the credits to fold them into the stored balance
+     */
+    void startFold() {
+        foldsStarted.incrementAndGet();
+    }
+
+    /**
+     * Called once the drained credits are in the stored balance, or back in the cells
+     */
+    void finishFold() {
+        foldsFinished.incrementAndGet();
+    }
+
+    /**
+     * @return the number of folds finished, to be read before the balance and the credits
+     */
+    long foldsFinished() {
+        return foldsFinished.get();
+    }
+
+    /**
+     * @return the number of folds started, to be read after the balance and the credits: if it equals the number of
+     * folds finished read before them, no fold overlapped the read
+     */
+    long foldsStarted() {
+        return foldsStarted.get();
+    }
+}
@@ -0,0 +1,139 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Store keeping the accounts in primitive arrays indexed by the account ID. IDs are handed out sequentially so the
+ * arrays are dense. They are allocated in chunks of {@value #CHUNK_SIZE} accounts as the store grows.
+ *
+ * An account takes 17 bytes (balance, version and currency ordinal) and neither reading nor updating it allocates.
+ * The version doubles as a tiny sequence lock: an update moves it from even to odd, writes the balance and moves
+ * it to the next even number.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class PrimitiveAccountStore implements AccountStore {
+
+    private static final int CHUNK_BITS = 16;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // enough chunks to address every non negative int
+    private static final int MAX_CHUNKS = 1 << (Integer.SIZE - 1 - CHUNK_BITS);
+
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public int add(Currency currency, long balance) {
+        int id = nextId.getAndIncrement();
+        if (id < 0) {
+            throw new IllegalStateException("No account ID left");
+        }
+        store(id, currency, balance);
+        return id;
+    }
+
+    @Override
+    public void restore(int accountId, Currency currency, long balance) {
+        if (exists(accountId)) {
+            throw new IllegalStateException("Account " + accountId + " already exists");
+        }
+        nextId.accumulateAndGet(accountId + 1, Math::max);
+        store(accountId, currency, balance);
+    }
+
+    @Override
+    public int reserveIds(int count) {
+        int first = nextId.getAndAdd(count);
+        if (first < 0 || first + count < 0) {
+            throw new IllegalStateException("No account ID left");
+        }
+        return first;
+    }
+
+    private void store(int accountId, Currency currency, long balance) {
+        Chunk chunk = chunkForWrite(accountId);
+        int index = accountId & CHUNK_MASK;
+        chunk.currencies[index] = (byte) currency.ordinal();
+        chunk.balances.lazySet(index, balance);
+        // publishes the currency and the balance
+        chunk.versions.set(index, 2);
+        count.incrementAndGet();
+    }
+
+    @Override
+    public boolean exists(int accountId) {
+        return version(accountId) != 0;
+    }
+
+    @Override
+    public Currency currency(int accountId) {
+        Chunk chunk = chunk(accountId);
+        int index = accountId & CHUNK_MASK;
+        if (chunk == null || chunk.versions.get(index) == 0) {
+            return null;
+        }
+        return CURRENCIES[chunk.currencies[index] & 0xFF];
+    }
+
+    @Override
+    public long balance(int accountId) {
+        Chunk chunk = chunk(accountId);
+        return chunk == null ? 0 : chunk.balances.get(accountId & CHUNK_MASK);
+    }
+
+    @Override
+    public long version(int accountId) {
+        Chunk chunk = chunk(accountId);
+        return chunk == null ? 0 : chunk.versions.get(accountId & CHUNK_MASK);
+    }
+
+    @Override
+    public boolean compareAndSet(int accountId, long expectedVersion, long balance) {
+        if (expectedVersion == 0 || (expectedVersion & 1) != 0) {
+            return false;
+        }
+        Chunk chunk = chunk(accountId);
+        int index = accountId & CHUNK_MASK;
+        if (chunk == null || !chunk.versions.compareAndSet(index, expectedVersion, expectedVersion + 1)) {
+            return false;
+        }
+        chunk.balances.set(index, balance);
+        chunk.versions.set(index, expectedVersion + 2);
+        return true;
+    }
+
+    @Override
+    public int count() {
+        return count.get();
+    }
+
+    private Chunk chunk(int accountId) {
+        return accountId < 0 ? null : chunks.get(accountId >>> CHUNK_BITS);
+    }
+
+    private Chunk chunkForWrite(int accountId) {
+        int chunkIndex = accountId >>> CHUNK_BITS;
+        Chunk chunk = chunks.get(chunkIndex);
+        if (chunk == null) {
+            chunks.compareAndSet(chunkIndex, null, new Chunk());
+            chunk = chunks.get(chunkIndex);
+        }
+        return chunk;
+    }
+
+    private static final class Chunk {
+        private final AtomicLongArray balances = new AtomicLongArray(CHUNK_SIZE);
+        // 0 means that there is no account with this ID (yet)
+        private final AtomicLongArray versions = new AtomicLongArray(CHUNK_SIZE);
+        // written before the version is published, read after it
+        private final byte[] currencies = new byte[CHUNK_SIZE];
+    }
+}
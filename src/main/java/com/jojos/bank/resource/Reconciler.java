@@ -0,0 +1,125 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.CurrencyTotal;
+import com.jojos.bank.money.Reconciliation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Adds up the balances of all the accounts at a single point in time and compares them, currency by currency, to the
+ * money the {@link Database} says they should hold.
+ *
+ * The point in time is the cut of a {@link Database#startSnapshot(Runnable) snapshot}, the same one the
+ * {@link Snapshotter} writes: new commits are only held back while the commits in flight complete, from then on
+ * transfers run at full speed and the first update of every account saves the balance it had at the cut. The accounts
+ * are scanned in segments of {@value #SEGMENT_SIZE} by the common fork-join pool.
+ *
+ * A reconciliation waits for a snapshot being written, and the other way round.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class Reconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(Reconciler.class);
+
+    // accounts added up by a single task
+    static final int SEGMENT_SIZE = 1 << 16;
+
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private Reconciler() {
+    }
+
+    /**
+     * @return the totals of the accounts at the point in time this is called
+     */
+    public static Reconciliation reconcile() {
+        long start = System.nanoTime();
+        long[][] expected = new long[1][];
+        int count = Database.startSnapshot(() -> expected[0] = Database.supply());
+        Totals totals;
+        try {
+            totals = ForkJoinPool.commonPool().invoke(new SumTask(0, count));
+        } finally {
+            Database.endSnapshot();
+        }
+
+        boolean balanced = true;
+        List<CurrencyTotal> currencyTotals = new ArrayList<>();
+        for (Currency currency : CURRENCIES) {
+            int i = currency.ordinal();
+            if (totals.accounts[i] == 0 && expected[0][i] == 0) {
+                continue;
+            }
+            if (totals.balances[i] != expected[0][i]) {
+                balanced = false;
+                log.error("The accounts in {} hold {} instead of {}", currency.getIso(),
+                        currency.fromMinorUnits(totals.balances[i]), currency.fromMinorUnits(expected[0][i]));
+            }
+            currencyTotals.add(new CurrencyTotal(currency.getIso(), totals.accounts[i],
+                    currency.fromMinorUnits(totals.balances[i]), currency.fromMinorUnits(expected[0][i])));
+        }
+        currencyTotals.sort(Comparator.comparing(CurrencyTotal::getCurrency));
+        long durationMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Reconciled {} accounts in {} ms", count, durationMillis);
+        return new Reconciliation(balanced, count, currencyTotals, durationMillis);
+    }
+
+    /**
+     * The sums of a range of accounts, by currency ordinal
+     */
+    private static final class Totals {
+        private final long[] balances = new long[CURRENCIES.length];
+        private final int[] accounts = new int[CURRENCIES.length];
+
+        private Totals add(Totals other) {
+            for (int i = 0; i < balances.length; i++) {
+                balances[i] += other.balances[i];
+                accounts[i] += other.accounts[i];
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Adds up the accounts from ID {@code from} to {@code to}, exclusive, as they were at the cut
+     */
+    private static final class SumTask extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        private SumTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from <= SEGMENT_SIZE) {
+                Totals totals = new Totals();
+                for (int accountId = from; accountId < to; accountId++) {
+                    Currency currency = Database.currency(accountId);
+                    if (currency != null) {
+                        totals.balances[currency.ordinal()] += Database.snapshotBalance(accountId);
+                        totals.accounts[currency.ordinal()]++;
+                    }
+                }
+                return totals;
+            }
+            int middle = (from + to) >>> 1;
+            SumTask left = new SumTask(from, middle);
+            left.fork();
+            Totals totals = new SumTask(middle, to).compute();
+            return totals.add(left.join());
+        }
+    }
+}
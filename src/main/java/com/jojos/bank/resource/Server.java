@@ -1,20 +1,21 @@
 package com.jojos.bank.resource;
 
+import com.jojos.bank.api.AccountJsonProvider;
 import com.jojos.bank.api.GenericExceptionMapper;
 import com.jojos.bank.api.ResourceApi;
-import com.sun.net.httpserver.HttpServer;
-import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
+import com.jojos.bank.api.TransferBatchJsonProvider;
+import com.jojos.bank.api.TransferJsonProvider;
+import com.jojos.bank.metrics.Metrics;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.core.UriBuilder;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -27,8 +28,9 @@ public class Server {
 
     private final AtomicBoolean started;
 
-    private final HttpServer server;
-    private final ExecutorService executorService;
+    private final TransportType transportType;
+    private final Transport transport;
+    private final ServerExecutor executor;
     private final URI uri;
 
     /**
@@ -40,25 +42,41 @@ public class Server {
         // load resources first
         ResourceConfig resourceConfig = new ResourceConfig(ResourceApi.class);
         resourceConfig.register(GenericExceptionMapper.class);
+        // the entities of the busiest endpoints are (de)serialized by hand instead of through Jackson's data binding
+        resourceConfig.register(AccountJsonProvider.class);
+        resourceConfig.register(TransferJsonProvider.class);
+        resourceConfig.register(TransferBatchJsonProvider.class);
 
         uri = UriBuilder.fromUri("http://" + createHostName() + "/").port(9989).build();
-        server = JdkHttpServerFactory.createHttpServer(uri, resourceConfig, false);
         started = new AtomicBoolean();
-        executorService = Executors.newCachedThreadPool();
-        // set the executors BEFORE the server is started
-        server.setExecutor(executorService);
+        ExecutorType executorType = ExecutorType.fromSystemProperties();
+        executor = executorType.newExecutor();
+        log.info("Requests are executed by the {} executor", executorType);
+        Metrics.registerGauge("bank_server_queue_depth", "Requests waiting for a thread.", executor::getQueueDepth);
+        Metrics.registerGauge("bank_server_active_requests", "Requests being processed.",
+                executor::getActiveRequests);
+        Metrics.registerCounter("bank_server_rejected_requests_total",
+                "Requests answered with 503 because the server was saturated.", executor::getRejectedRequests);
+        transportType = TransportType.fromSystemProperties();
+        transport = transportType.newTransport(uri, resourceConfig, executor);
     }
 
     /**
-     * Create and start a {@link HttpServer}.
+     * Start the {@link TransportType transport} of the server.
      * It's not allowed to start the server twice.
      * @throws IllegalStateException if an attempt is made to start an already started server.
+     * @throws ProcessingException if the transport could not be started
      */
     public void start() throws IllegalStateException {
-        log.info("Starting JDK HttpServer...");
+        log.info("Starting {} HttpServer...", transportType);
 
         if (started.compareAndSet(false, true)) {
-            server.start();
+            try {
+                transport.start();
+            } catch (IOException e) {
+                started.set(false);
+                throw new ProcessingException("Could not start the http server", e);
+            }
             log.info(String.format("Jersey HttpServer started with WADL available at " + "%sapplication.wadl", uri));
         } else {
             String msg = "Server already started. Don't start me twice!";
@@ -72,8 +90,8 @@ public class Server {
      */
     public void stop() {
         if (started.compareAndSet(true, false)) {
-            server.stop(1);
-            executorService.shutdownNow();
+            transport.stop();
+            executor.shutdownNow();
         } else {
             log.warn("Attempting to stop an already stopped http server.");
         }
@@ -87,6 +105,13 @@ public class Server {
         return uri;
     }
 
+    /**
+     * @return the executor of the requests, exposing the queue depth and the rejected requests
+     */
+    public ServerExecutor getExecutor() {
+        return executor;
+    }
+
     private String createHostName() {
         String hostName = "localhost";
         try {
@@ -0,0 +1,148 @@
+package com.jojos.bank.resource;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the requests of the {@link Server} with a bounded amount of threads and queued requests, see
+ * {@link ExecutorType}.
+ *
+ * A request arriving when the executor is saturated is not dropped silently: it runs in the thread of the server
+ * accepting the connections, flagged as shed, and is answered with {@code 503 Service Unavailable} and a
+ * {@code Retry-After} header without reaching the resources. The latency of the accepted requests stays predictable
+ * instead of every request slowing down until the node runs out of memory.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class ServerExecutor implements Executor {
+
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+
+    private final ExecutorService delegate;
+    // null unless running with a bounded pool
+    private final ThreadPoolExecutor pool;
+    // null unless running with virtual threads
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final int retryAfterSeconds;
+    private final LongAdder rejected = new LongAdder();
+
+    private ServerExecutor(ExecutorService delegate, ThreadPoolExecutor pool, int maxConcurrent,
+                           int retryAfterSeconds) {
+        this.delegate = delegate;
+        this.pool = pool;
+        this.permits = pool == null ? new Semaphore(maxConcurrent) : null;
+        this.maxConcurrent = maxConcurrent;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    static ServerExecutor bounded(int threads, int maxThreads, int queueCapacity, int retryAfterSeconds) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, maxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "http-worker-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        return new ServerExecutor(pool, pool, maxThreads + queueCapacity, retryAfterSeconds);
+    }
+
+    /**
+     * @return an executor starting a virtual thread per request, or null if the JVM doesn't support virtual threads
+     */
+    static ServerExecutor virtual(int maxConcurrent, int retryAfterSeconds) {
+        ExecutorService executor;
+        try {
+            // looked up reflectively so that the application still runs on the JDKs it is compiled for
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            executor = (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+        return new ServerExecutor(executor, null, maxConcurrent, retryAfterSeconds);
+    }
+
+    @Override
+    public void execute(Runnable request) {
+        try {
+            if (permits == null) {
+                delegate.execute(request);
+            } else if (permits.tryAcquire()) {
+                try {
+                    delegate.execute(() -> {
+                        try {
+                            request.run();
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            } else {
+                throw new RejectedExecutionException("Too many concurrent requests");
+            }
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            shed(request);
+        }
+    }
+
+    /**
+     * @return true if the calling thread is handling a request that must be rejected
+     */
+    static boolean isShedding() {
+        return SHEDDING.get() != null;
+    }
+
+    private static void shed(Runnable request) {
+        SHEDDING.set(Boolean.TRUE);
+        try {
+            request.run();
+        } finally {
+            SHEDDING.remove();
+        }
+    }
+
+    /**
+     * @return the number of seconds rejected clients are asked to wait before retrying
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @return the number of requests waiting for a thread
+     */
+    public int getQueueDepth() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    /**
+     * @return the number of requests being processed
+     */
+    public int getActiveRequests() {
+        return pool == null ? maxConcurrent - permits.availablePermits() : pool.getActiveCount();
+    }
+
+    /**
+     * @return the number of requests rejected so far because the executor was saturated
+     */
+    public long getRejectedRequests() {
+        return rejected.sum();
+    }
+
+    void shutdownNow() {
+        delegate.shutdownNow();
+    }
+}
@@ -0,0 +1,226 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Periodically writes a point-in-time image of all the accounts of the {@link Database} next to the
+ * {@link TransferJournal}, so that the start up only replays the journal written after the latest snapshot.
+ *
+ * Transfers keep running while the snapshot is written. New commits are only held back for as long as it takes
+ * the commits in flight to complete and the journal to roll to a new segment; from then on the first update of
+ * every account saves the balance it had at that point, which the snapshot uses instead of the current one.
+ *
+ * A snapshot file holds a header (magic, format, first journal segment to replay after it, number of accounts),
+ * a fixed width record per account (ID, numeric currency code, balance in minor units), the number of accounts having
+ * a credit line followed by a record for each (ID, credit line in minor units), the number of idempotency keys of
+ * executed transfers followed by a record for each (time of the transfer, key) and the CRC32 of everything before
+ * it. It is written to a temporary file and renamed once forced to the disk.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class Snapshotter {
+
+    private static final Logger log = LoggerFactory.getLogger(Snapshotter.class);
+
+    private static final int MAGIC = 0x4A534E50;
+    private static final int FORMAT_VERSION = 1;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TransferJournal journal;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param journal the journal to truncate after every snapshot, the snapshots are written in its directory
+     */
+    public Snapshotter(TransferJournal journal) {
+        this.journal = journal;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Take a snapshot every given number of seconds in the background
+     */
+    public void start(long intervalSeconds) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (RuntimeException e) {
+                log.error("Could not take a snapshot, the journal is kept until the next one succeeds", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        log.info("Taking a snapshot every {} seconds", intervalSeconds);
+    }
+
+    /**
+     * Write a snapshot of the database and delete the journal segments it makes obsolete
+     * @return the snapshot file
+     * @throws UncheckedIOException if the snapshot or the journal cannot be written
+     */
+    public synchronized Path snapshot() {
+        long start = System.nanoTime();
+        long[] firstSegment = new long[1];
+        int count = Database.startSnapshot(() -> firstSegment[0] = journal.roll());
+        Path directory = journal.directory();
+        Path file = directory.resolve(SNAPSHOT_PREFIX + String.format("%019d", firstSegment[0]) + SNAPSHOT_SUFFIX);
+        try {
+            write(file, firstSegment[0], count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            Database.endSnapshot();
+        }
+
+        try {
+            for (Path old : snapshots(directory)) {
+                if (!old.equals(file)) {
+                    Files.delete(old);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        journal.deleteSegmentsBefore(firstSegment[0]);
+        log.info("Wrote a snapshot of {} accounts to {} in {} ms", count, file,
+                (System.nanoTime() - start) / 1_000_000);
+        return file;
+    }
+
+    /**
+     * Stop taking snapshots, waiting for the one in progress if any
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void write(Path file, long firstSegment, int count) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileStream = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     new CheckedOutputStream(fileStream, crc), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(firstSegment);
+            out.writeInt(count);
+            for (int accountId = 0; accountId < count; accountId++) {
+                Currency currency = Database.currency(accountId);
+                if (currency == null) {
+                    throw new IllegalStateException("Account " + accountId + " is missing, the IDs are not dense");
+                }
+                out.writeInt(accountId);
+                out.writeShort(currency.getNumericCode());
+                out.writeLong(Database.snapshotBalance(accountId));
+            }
+            Map<Integer, Long> creditLines = Database.snapshotCreditLines();
+            out.writeInt(creditLines.size());
+            for (Map.Entry<Integer, Long> creditLine : creditLines.entrySet()) {
+                out.writeInt(creditLine.getKey());
+                out.writeLong(creditLine.getValue());
+            }
+            // read after the cut, the keys of transfers executed since are in the journal as well
+            List<Map.Entry<String, Long>> keys = IdempotencyCache.committedKeys();
+            out.writeInt(keys.size());
+            for (Map.Entry<String, Long> key : keys) {
+                out.writeLong(key.getValue());
+                out.writeUTF(key.getKey());
+            }
+            out.flush();
+            // not part of the checksum
+            new DataOutputStream(fileStream).writeInt((int) crc.getValue());
+            fileStream.getChannel().force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load the latest snapshot of the directory, if any
+     * @return the first journal segment to replay on top of the snapshot, 0 if there is no snapshot
+     */
+    static long restoreLatest(Path directory, TransferJournal.Visitor visitor) throws IOException {
+        List<Path> snapshots = snapshots(directory);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path file = snapshots.get(snapshots.size() - 1);
+        CRC32 crc = new CRC32();
+        // the checksum sits above the buffer so that it doesn't include the trailer read ahead
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            int format = in.readInt();
+            if (format != FORMAT_VERSION) {
+                throw new IOException(file + " has an unsupported format " + format);
+            }
+            long firstSegment = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                visitor.onCreate(in.readInt(), Currency.forNumericCode(in.readShort()), in.readLong());
+            }
+            int creditLines = in.readInt();
+            for (int i = 0; i < creditLines; i++) {
+                visitor.onCreditLine(in.readInt(), in.readLong());
+            }
+            int keys = in.readInt();
+            for (int i = 0; i < keys; i++) {
+                long createdMillis = in.readLong();
+                visitor.onIdempotencyKey(in.readUTF(), createdMillis);
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException(file + " is corrupted");
+            }
+            log.info("Loaded {} accounts from snapshot {}", count, file);
+            return firstSegment;
+        }
+    }
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path snapshot : stream) {
+                snapshots.add(snapshot);
+            }
+        }
+        // the names are zero padded so they sort in creation order
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+}
@@ -0,0 +1,60 @@
+package com.jojos.bank.resource;
+
+import java.nio.file.Paths;
+
+/**
+ * The storage engines available for the {@link Database}.
+ *
+ * The engine is picked once at startup through the {@value #STORE_PROPERTY} system property,
+ * ie {@code -Dbank.store=primitive}. The default is {@link #MAP}.
+ *
+ * @author karanikasg@gmail.com
+ */
+public enum StoreType {
+
+    /**
+     * Immutable account records in a concurrent hash map. Every update allocates a new record.
+     */
+    MAP {
+        @Override
+        public AccountStore newStore() {
+            return new MapAccountStore();
+        }
+    },
+
+    /**
+     * Balances in primitive arrays indexed by the account ID. Updates don't allocate and an account takes
+     * a fraction of the memory of a map entry.
+     */
+    PRIMITIVE {
+        @Override
+        public AccountStore newStore() {
+            return new PrimitiveAccountStore();
+        }
+    },
+
+    /**
+     * Fixed width records in a memory-mapped file defined by {@value #FILE_PROPERTY}. The accounts live off-heap
+     * and survive a restart of the application.
+     */
+    MAPPED {
+        @Override
+        public AccountStore newStore() {
+            return new MappedAccountStore(Paths.get(System.getProperty(FILE_PROPERTY, "accounts.db")));
+        }
+    };
+
+    public static final String STORE_PROPERTY = "bank.store";
+    public static final String FILE_PROPERTY = "bank.store.file";
+
+    public abstract AccountStore newStore();
+
+    /**
+     * @return the store type defined by the {@value #STORE_PROPERTY} system property or {@link #MAP} if it is absent.
+     * @throws IllegalArgumentException if the property doesn't name a known store type
+     */
+    public static StoreType fromSystemProperties() {
+        String type = System.getProperty(STORE_PROPERTY);
+        return type == null ? MAP : valueOf(type.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,89 @@
+package com.jojos.bank.resource;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The transfers that touched every account, newest first.
+ *
+ * Every leg of a transfer appends an entry to the history of its account: the ID of the transfer, the other account,
+ * the signed amount and the balance the leg left the account with, in minor units of the account's currency, and
+ * when it happened. Appending is a lock-free O(1) operation that doesn't allocate (see {@link AccountHistory}).
+ *
+ * The history is kept in memory for as long as the application runs, it starts empty after a restart. It can be
+ * turned off with {@code -D}{@value #HISTORY_PROPERTY}{@code =false}, ie for benchmarks.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class TransactionHistory {
+
+    public static final String HISTORY_PROPERTY = "bank.history";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(HISTORY_PROPERTY, "true"));
+
+    private static final ConcurrentMap<Integer, AccountHistory> histories = new ConcurrentHashMap<>();
+    private static final AtomicLong lastTransferId = new AtomicLong();
+
+    /**
+     * Receives the entries of a history
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * @param amount negative for a debit, in minor units of the currency of the account
+         * @param balance the balance of the account right after the transfer, in minor units
+         */
+        void onEntry(long transferId, int counterpartyId, long amount, long balance, long timestampMillis);
+    }
+
+    private TransactionHistory() {
+    }
+
+    /**
+     * @return a new transfer ID, unique until a restart
+     */
+    public static long nextTransferId() {
+        return lastTransferId.incrementAndGet();
+    }
+
+    /**
+     * Append a leg of a transfer to the history of its account, unless the history is turned off
+     * @param transferId returned by {@link #nextTransferId()}, the same for both legs of a transfer
+     */
+    public static void append(int accountId, long transferId, int counterpartyId, long amount, long balance,
+            long timestampMillis) {
+        if (!ENABLED) {
+            return;
+        }
+        AccountHistory history = histories.get(accountId);
+        if (history == null) {
+            history = histories.computeIfAbsent(accountId, id -> new AccountHistory());
+        }
+        history.append(transferId, counterpartyId, amount, balance, timestampMillis);
+    }
+
+    /**
+     * @return the number of entries in the history of the account
+     */
+    public static int size(int accountId) {
+        AccountHistory history = histories.get(accountId);
+        return history == null ? 0 : history.size();
+    }
+
+    /**
+     * Visit a page of the history of an account, newest entries first
+     * @param cursor the index of the first entry of the page, -1 to start with the newest one
+     * @param limit the maximum number of entries of the page
+     * @return the cursor of the next page, -1 if there is none
+     */
+    public static int read(int accountId, int cursor, int limit, Visitor visitor) {
+        AccountHistory history = histories.get(accountId);
+        if (history == null) {
+            return -1;
+        }
+        int newest = history.size() - 1;
+        int from = cursor < 0 ? newest : Math.min(cursor, newest);
+        return from < 0 ? -1 : history.read(from, limit, visitor);
+    }
+}
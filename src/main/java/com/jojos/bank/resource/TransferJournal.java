@@ -0,0 +1,684 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of the account creations and transfers, kept in segment files of a directory.
+ *
+ * Appending a record only copies it into an in-memory buffer and returns its sequence number. A single background
+ * thread writes the buffered records with a {@link FileChannel} and forces them to the disk, so all the records
+ * appended while the previous batch was being forced share the next fsync (group commit). Callers that need the
+ * record to be durable wait for it with {@link #awaitDurable(long)} or
+ * {@link #onDurable(long, Runnable, Consumer)}, preferably after releasing their locks.
+ *
+ * Every record ends with the CRC32 of its content. A record torn by a crash is detected on replay and
+ * cut off the end of the journal.
+ *
+ * A {@link Snapshotter} periodically {@link #roll() rolls} the journal to a new segment at the point in time of its
+ * snapshot. Once the snapshot is on the disk the segments before that point are deleted, so that the start up only
+ * loads the latest snapshot and replays the segments written since.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class TransferJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferJournal.class);
+
+    /**
+     * Receives the records of the journal on replay
+     */
+    interface Visitor {
+        void onCreate(int accountId, Currency currency, long balance);
+
+        /**
+         * @param debitAmount the amount in minor units of the currency of the source account
+         * @param creditAmount the amount in minor units of the currency of the target account, the same as the debit
+         * unless the currencies differ
+         */
+        void onTransfer(int fromAccountId, int toAccountId, long debitAmount, long creditAmount);
+
+        /**
+         * @param creditLine how far below zero the balance of the account may go, in minor units
+         */
+        default void onCreditLine(int accountId, long creditLine) {
+        }
+
+        /**
+         * Called after {@link #onTransfer(int, int, long, long)} for a transfer sent with an idempotency key
+         * @param createdMillis when the transfer was executed
+         */
+        default void onIdempotencyKey(String key, long createdMillis) {
+        }
+    }
+
+    private static final int MAGIC = 0x4A524E4C;
+    private static final int FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte CREATE = 1;
+    private static final byte TRANSFER = 2;
+    private static final byte CONVERTED_TRANSFER = 3;
+    private static final byte CREDIT_LINE = 4;
+    private static final byte KEYED_TRANSFER = 5;
+    // type, account ID, currency numeric code, balance, crc
+    private static final int CREATE_SIZE = 1 + 4 + 2 + 8 + 4;
+    // type, from account ID, to account ID, amount, crc
+    private static final int TRANSFER_SIZE = 1 + 4 + 4 + 8 + 4;
+    // type, from account ID, to account ID, debited amount, credited amount, crc
+    private static final int CONVERTED_TRANSFER_SIZE = 1 + 4 + 4 + 8 + 8 + 4;
+    // type, account ID, credit line, crc
+    private static final int CREDIT_LINE_SIZE = 1 + 4 + 8 + 4;
+    // type, from account ID, to account ID, debited amount, credited amount, time, key length, crc; the key follows
+    // the length
+    private static final int KEYED_TRANSFER_SIZE = 1 + 4 + 4 + 8 + 8 + 8 + 2 + 4;
+    private static final int KEY_LENGTH_OFFSET = KEYED_TRANSFER_SIZE - 2 - 4;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path directory;
+    private final Thread flusher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+    private final ArrayDeque<DurabilityCallback> callbacks = new ArrayDeque<>();
+
+    // guarded by the lock: appenders fill the pending buffer while the flusher writes the other one
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+    private FileChannel channel;
+    private long segment;
+    private long appended;
+    private long durable;
+    private long batches;
+    private IOException failure;
+    private boolean closed;
+
+    private TransferJournal(Path directory, FileChannel channel, long segment) {
+        this.directory = directory;
+        this.channel = channel;
+        this.segment = segment;
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Rebuild the {@link Database} from the latest snapshot and the journal kept in the directory and open the journal for appending.
+     * @param directory the directory of the journal, created if it does not exist
+     * @return the journal, ready to append new records
+     * @throws IllegalStateException if the database is not empty, the journal would be applied twice
+     * @throws UncheckedIOException if the journal cannot be read or written
+     */
+    public static TransferJournal open(Path directory) {
+        if (Database.count() != 0) {
+            throw new IllegalStateException("The journal can only be replayed on an empty database, but it holds "
+                    + Database.count() + " accounts");
+        }
+        return open(directory, new DatabaseRecovery());
+    }
+
+    static TransferJournal open(Path directory, Visitor visitor) {
+        try {
+            Files.createDirectories(directory);
+            long start = System.nanoTime();
+            long firstSegment = Snapshotter.restoreLatest(directory, visitor);
+            List<Path> segments = segments(directory);
+            segments.removeIf(segment -> segmentNumber(segment) < firstSegment);
+            long records = replay(segments, visitor);
+            log.info("Replayed {} journal records from {} in {} ms", records, directory,
+                    (System.nanoTime() - start) / 1_000_000);
+
+            long segment = segments.isEmpty() ? Math.max(firstSegment, 1)
+                    : segmentNumber(segments.get(segments.size() - 1));
+            return new TransferJournal(directory, openSegment(directory, segment), segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Append the creation of an account
+     * @return the sequence number of the record
+     * @throws UncheckedIOException if the journal can no longer be written
+     */
+    public long appendCreate(int accountId, Currency currency, long balance) {
+        lock.lock();
+        try {
+            ByteBuffer buffer = reserve(CREATE_SIZE);
+            int start = buffer.position();
+            buffer.put(CREATE).putInt(accountId).putShort((short) currency.getNumericCode()).putLong(balance);
+            return commit(buffer, start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a transfer between accounts of the same currency
+     * @param amount the amount in minor units of the currency of both accounts
+     * @return the sequence number of the record
+     * @throws UncheckedIOException if the journal can no longer be written
+     */
+    public long appendTransfer(int fromAccountId, int toAccountId, long amount) {
+        return appendTransfer(fromAccountId, toAccountId, amount, amount);
+    }
+
+    /**
+     * Append a transfer. Both amounts are recorded when they differ, so that the replay doesn't depend on the
+     * exchange rate the transfer was converted with.
+     * @param debitAmount the amount in minor units of the currency of the source account
+     * @param creditAmount the amount in minor units of the currency of the target account
+     * @return the sequence number of the record
+     * @throws UncheckedIOException if the journal can no longer be written
+     */
+    public long appendTransfer(int fromAccountId, int toAccountId, long debitAmount, long creditAmount) {
+        lock.lock();
+        try {
+            if (debitAmount == creditAmount) {
+                ByteBuffer buffer = reserve(TRANSFER_SIZE);
+                int start = buffer.position();
+                buffer.put(TRANSFER).putInt(fromAccountId).putInt(toAccountId).putLong(debitAmount);
+                return commit(buffer, start);
+            }
+            ByteBuffer buffer = reserve(CONVERTED_TRANSFER_SIZE);
+            int start = buffer.position();
+            buffer.put(CONVERTED_TRANSFER).putInt(fromAccountId).putInt(toAccountId).putLong(debitAmount)
+                    .putLong(creditAmount);
+            return commit(buffer, start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a transfer sent with an idempotency key. The key is part of the record of the transfer, so a replayed
+     * transfer always remembers its key.
+     * @param key the idempotency key, at most {@value Short#MAX_VALUE} bytes in UTF-8
+     * @param createdMillis when the transfer was executed
+     * @return the sequence number of the record
+     * @throws UncheckedIOException if the journal can no longer be written
+     */
+    public long appendTransfer(int fromAccountId, int toAccountId, long debitAmount, long creditAmount, String key,
+            long createdMillis) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The idempotency key is too long: " + keyBytes.length + " bytes");
+        }
+        lock.lock();
+        try {
+            ByteBuffer buffer = reserve(KEYED_TRANSFER_SIZE + keyBytes.length);
+            int start = buffer.position();
+            buffer.put(KEYED_TRANSFER).putInt(fromAccountId).putInt(toAccountId).putLong(debitAmount)
+                    .putLong(creditAmount).putLong(createdMillis).putShort((short) keyBytes.length).put(keyBytes);
+            return commit(buffer, start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a change of the credit line of an account
+     * @param creditLine in minor units of the currency of the account
+     * @return the sequence number of the record
+     * @throws UncheckedIOException if the journal can no longer be written
+     */
+    public long appendCreditLine(int accountId, long creditLine) {
+        lock.lock();
+        try {
+            ByteBuffer buffer = reserve(CREDIT_LINE_SIZE);
+            int start = buffer.position();
+            buffer.put(CREDIT_LINE).putInt(accountId).putLong(creditLine);
+            return commit(buffer, start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until the record with the given sequence number, and every record before it, is on the disk.
+     * @throws UncheckedIOException if the journal could not be written
+     */
+    public void awaitDurable(long sequence) {
+        lock.lock();
+        try {
+            while (durable < sequence && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (durable < sequence) {
+                throw new UncheckedIOException(failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run a task once the record with the given sequence number is on the disk, without blocking the caller.
+     * The task runs on the thread flushing the journal so it must be short. If the journal fails before the record
+     * is on the disk, the failure is given to {@code onFailure} instead.
+     */
+    public void onDurable(long sequence, Runnable task, Consumer<UncheckedIOException> onFailure) {
+        IOException failure;
+        lock.lock();
+        try {
+            if (durable >= sequence) {
+                failure = null;
+            } else if (this.failure == null) {
+                // sequences are handed out in increasing order so the queue stays sorted
+                callbacks.add(new DurabilityCallback(sequence, task, onFailure));
+                return;
+            } else {
+                failure = this.failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (failure != null) {
+            onFailure.accept(new UncheckedIOException(failure));
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * @return the number of fsync calls done so far, each one covering a batch of records
+     */
+    public long getBatches() {
+        lock.lock();
+        try {
+            return batches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of records appended so far
+     */
+    public long getRecords() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending records to the disk and close the journal.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            flushNeeded.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Closed journal {}", directory);
+    }
+
+    /**
+     * Write the pending records to the current segment and start a new one. The caller ensures that nothing is
+     * appended concurrently, so that the records before and after the roll belong to different segments.
+     * @return the number of the new segment
+     * @throws UncheckedIOException if the journal can no longer be written
+     */
+    long roll() {
+        lock.lock();
+        try {
+            while (durable < appended && failure == null) {
+                flushNeeded.signal();
+                flushed.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+            if (closed) {
+                throw new IllegalStateException("The journal is closed");
+            }
+            // the flusher is idle since everything appended is durable and we hold the lock
+            FileChannel next = openSegment(directory, segment + 1);
+            FileChannel previous = channel;
+            channel = next;
+            segment++;
+            previous.close();
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete the segments older than the given one, once their content is in a snapshot
+     */
+    void deleteSegmentsBefore(long firstSegment) {
+        try {
+            for (Path segment : segments(directory)) {
+                if (segmentNumber(segment) < firstSegment) {
+                    Files.delete(segment);
+                    log.debug("Deleted journal segment {}", segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * @return the pending buffer once it has room for a record of the given size
+     */
+    private ByteBuffer reserve(int size) {
+        while (failure == null && !closed && pending.remaining() < size) {
+            flushNeeded.signal();
+            spaceAvailable.awaitUninterruptibly();
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("The journal is closed");
+        }
+        return pending;
+    }
+
+    private long commit(ByteBuffer buffer, int start) {
+        crc.reset();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+        flushNeeded.signal();
+        return ++appended;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            FileChannel channel;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !closed) {
+                    flushNeeded.awaitUninterruptibly();
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = writing;
+                writing = batch;
+                batchEnd = appended;
+                channel = this.channel;
+                spaceAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+                batch.clear();
+            } catch (IOException e) {
+                log.error("Could not write the journal, transfers can no longer be made durable", e);
+                List<DurabilityCallback> failed;
+                lock.lock();
+                try {
+                    failure = e;
+                    failed = new ArrayList<>(callbacks);
+                    callbacks.clear();
+                    flushed.signalAll();
+                    spaceAvailable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                UncheckedIOException unwritten = new UncheckedIOException(e);
+                for (DurabilityCallback callback : failed) {
+                    try {
+                        callback.onFailure.accept(unwritten);
+                    } catch (RuntimeException callbackFailure) {
+                        log.error("Journal failure callback failed", callbackFailure);
+                    }
+                }
+                return;
+            }
+
+            List<Runnable> tasks = Collections.emptyList();
+            lock.lock();
+            try {
+                durable = batchEnd;
+                batches++;
+                flushed.signalAll();
+                while (!callbacks.isEmpty() && callbacks.peek().sequence <= batchEnd) {
+                    if (tasks.isEmpty()) {
+                        tasks = new ArrayList<>();
+                    }
+                    tasks.add(callbacks.poll().task);
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (Runnable task : tasks) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Journal durability callback failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replay the segments in two passes: the creations first and then the transfers. Transfers only add and subtract
+     * amounts so their order doesn't matter, but a transfer may have been appended before the creation of one of
+     * its accounts.
+     * @return the number of records replayed
+     */
+    private static long replay(List<Path> segments, Visitor visitor) throws IOException {
+        long records = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < segments.size(); i++) {
+                records += replay(segments.get(i), visitor, pass == 0 ? CREATE : TRANSFER,
+                        pass == 0 && i == segments.size() - 1);
+            }
+        }
+        return records;
+    }
+
+    private static long replay(Path segment, Visitor visitor, byte type, boolean truncateTornTail)
+            throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(segment));
+        if (content.remaining() == 0) {
+            return 0;
+        }
+        if (content.remaining() < SEGMENT_HEADER_SIZE || content.getInt() != MAGIC
+                || content.getInt() != FORMAT_VERSION) {
+            throw new IOException(segment + " is not a journal segment or has an unsupported format");
+        }
+
+        CRC32 crc = new CRC32();
+        long records = 0;
+        while (content.hasRemaining()) {
+            int start = content.position();
+            byte recordType = content.get(start);
+            int size = recordType == CREATE ? CREATE_SIZE : recordType == TRANSFER ? TRANSFER_SIZE
+                    : recordType == CONVERTED_TRANSFER ? CONVERTED_TRANSFER_SIZE
+                    : recordType == CREDIT_LINE ? CREDIT_LINE_SIZE
+                    : recordType == KEYED_TRANSFER && content.remaining() >= KEYED_TRANSFER_SIZE
+                    ? KEYED_TRANSFER_SIZE + content.getShort(start + KEY_LENGTH_OFFSET) : -1;
+            boolean valid = size > 0 && content.remaining() >= size;
+            if (valid) {
+                crc.reset();
+                crc.update(content.array(), start, size - 4);
+                valid = content.getInt(start + size - 4) == (int) crc.getValue();
+            }
+            if (!valid) {
+                log.warn("Journal segment {} ends with a torn record at offset {}, ignoring the rest", segment, start);
+                if (truncateTornTail) {
+                    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                        channel.truncate(start);
+                    }
+                }
+                break;
+            }
+
+            content.get();
+            if (recordType == CREATE) {
+                int accountId = content.getInt();
+                Currency currency = Currency.forNumericCode(content.getShort());
+                long balance = content.getLong();
+                if (recordType == type) {
+                    visitor.onCreate(accountId, currency, balance);
+                    records++;
+                }
+            } else if (recordType == CREDIT_LINE) {
+                int accountId = content.getInt();
+                long creditLine = content.getLong();
+                // with the creations, the last change of a credit line wins
+                if (type == CREATE) {
+                    visitor.onCreditLine(accountId, creditLine);
+                    records++;
+                }
+            } else {
+                int fromAccountId = content.getInt();
+                int toAccountId = content.getInt();
+                long debitAmount = content.getLong();
+                long creditAmount = recordType == TRANSFER ? debitAmount : content.getLong();
+                if (type == TRANSFER) {
+                    visitor.onTransfer(fromAccountId, toAccountId, debitAmount, creditAmount);
+                    records++;
+                }
+                if (recordType == KEYED_TRANSFER) {
+                    long createdMillis = content.getLong();
+                    byte[] key = new byte[content.getShort()];
+                    content.get(key);
+                    if (type == TRANSFER) {
+                        visitor.onIdempotencyKey(new String(key, StandardCharsets.UTF_8), createdMillis);
+                    }
+                }
+            }
+            content.getInt();
+        }
+        return records;
+    }
+
+    private static FileChannel openSegment(Path directory, long segment) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(segmentName(segment)), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION);
+            header.flip();
+            channel.write(header);
+            channel.force(true);
+        }
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        // the names are zero padded so they sort in creation order
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static String segmentName(long number) {
+        return String.format("%s%019d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+
+    private static final class DurabilityCallback {
+        private final long sequence;
+        private final Runnable task;
+        private final Consumer<UncheckedIOException> onFailure;
+
+        private DurabilityCallback(long sequence, Runnable task, Consumer<UncheckedIOException> onFailure) {
+            this.sequence = sequence;
+            this.task = task;
+            this.onFailure = onFailure;
+        }
+    }
+
+    /**
+     * Applies the journal to the {@link Database}
+     */
+    private static final class DatabaseRecovery implements Visitor {
+        @Override
+        public void onCreate(int accountId, Currency currency, long balance) {
+            Database.restore(accountId, currency, balance);
+        }
+
+        @Override
+        public void onCreditLine(int accountId, long creditLine) {
+            Database.setCreditLine(accountId, creditLine);
+        }
+
+        @Override
+        public void onTransfer(int fromAccountId, int toAccountId, long debitAmount, long creditAmount) {
+            adjust(fromAccountId, -debitAmount);
+            adjust(toAccountId, creditAmount);
+            Database.exchanged(fromAccountId, toAccountId, debitAmount, creditAmount);
+        }
+
+        @Override
+        public void onIdempotencyKey(String key, long createdMillis) {
+            IdempotencyCache.restore(key, createdMillis);
+        }
+
+        private static void adjust(int accountId, long amount) {
+            long version;
+            do {
+                version = Database.version(accountId);
+            } while (!Database.compareAndSet(accountId, version, Database.balance(accountId) + amount));
+        }
+    }
+}
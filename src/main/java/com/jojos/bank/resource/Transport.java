@@ -0,0 +1,19 @@
+package com.jojos.bank.resource;
+
+import java.io.IOException;
+
+/**
+ * The network side of the {@link Server}: accepts the connections, parses the requests and hands them to Jersey,
+ * executed by the {@link ServerExecutor}. See {@link TransportType} for the available ones.
+ *
+ * @author karanikasg@gmail.com
+ */
+interface Transport {
+
+    void start() throws IOException;
+
+    /**
+     * Stop accepting requests and close the connections. The executor is shut down by the server.
+     */
+    void stop();
+}
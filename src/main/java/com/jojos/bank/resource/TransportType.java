@@ -0,0 +1,62 @@
+package com.jojos.bank.resource;
+
+import org.glassfish.jersey.server.ResourceConfig;
+
+import java.net.URI;
+
+/**
+ * The transports available to the {@link Server}.
+ *
+ * The transport is picked once at startup through the {@value #TRANSPORT_PROPERTY} system property,
+ * ie {@code -Dbank.server.transport=grizzly}. The default is {@link #JDK}.
+ *
+ * @author karanikasg@gmail.com
+ */
+public enum TransportType {
+
+    /**
+     * The {@link com.sun.net.httpserver.HttpServer} of the JDK: a single thread accepts and parses the requests of
+     * every connection.
+     */
+    JDK {
+        @Override
+        Transport newTransport(URI uri, ResourceConfig resourceConfig, ServerExecutor executor) {
+            return new JdkTransport(uri, resourceConfig, executor);
+        }
+    },
+
+    /**
+     * A non-blocking Grizzly server: {@value #SELECTORS_PROPERTY} selector threads parse the requests of all the
+     * connections, keep-alive and pipelined, and hand them to the executor.
+     */
+    GRIZZLY {
+        @Override
+        Transport newTransport(URI uri, ResourceConfig resourceConfig, ServerExecutor executor) {
+            return new GrizzlyTransport(uri, resourceConfig, executor,
+                    Integer.getInteger(SELECTORS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                    Integer.getInteger(KEEP_ALIVE_REQUESTS_PROPERTY, DEFAULT_KEEP_ALIVE_REQUESTS),
+                    Integer.getInteger(KEEP_ALIVE_TIMEOUT_PROPERTY, DEFAULT_KEEP_ALIVE_TIMEOUT_SECONDS));
+        }
+    };
+
+    public static final String TRANSPORT_PROPERTY = "bank.server.transport";
+    public static final String SELECTORS_PROPERTY = "bank.server.selectors";
+    public static final String KEEP_ALIVE_REQUESTS_PROPERTY = "bank.server.keepalive.requests";
+    public static final String KEEP_ALIVE_TIMEOUT_PROPERTY = "bank.server.keepalive.timeout";
+
+    // no limit to the number of requests of a connection
+    private static final int DEFAULT_KEEP_ALIVE_REQUESTS = -1;
+    private static final int DEFAULT_KEEP_ALIVE_TIMEOUT_SECONDS = 30;
+
+    abstract Transport newTransport(URI uri, ResourceConfig resourceConfig, ServerExecutor executor);
+
+    /**
+     * @return the transport defined by the {@value #TRANSPORT_PROPERTY} system property or {@link #JDK} if it is
+     * absent.
+     * @throws IllegalArgumentException if the property doesn't name a known transport
+     */
+    public static TransportType fromSystemProperties() {
+        String type = System.getProperty(TRANSPORT_PROPERTY);
+        return type == null ? JDK : valueOf(type.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,35 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Account;
+
+/**
+ * A consistent copy of an {@link Account} stored in the {@link Database}, together with the version it was read at.
+ * The version grows on every update of the account.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class VersionedAccount {
+    private final Account account;
+    private final long version;
+
+    VersionedAccount(Account account, long version) {
+        this.account = account;
+        this.version = version;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "VersionedAccount{" +
+                "account=" + account +
+                ", version=" + version +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+package com.jojos.bank.service;
+
+import com.jojos.bank.metrics.Metrics;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Abstraction over the locks protecting the accounts during a transfer.
+ *
+ * Implementations must guarantee that two threads locking the same pair of accounts in opposite
+ * order ({@code lockExclusive(a, b)} and {@code lockExclusive(b, a)}) never deadlock.
+ *
+ * @author karanikasg@gmail.com
+ */
+interface AccountLocks {
+
+    /**
+     * Returned by {@link #lockExclusive(int, int)} when no account was found contended
+     */
+    int NOT_CONTENDED = -1;
+
+    /**
+     * Acquire exclusive access to both accounts. The two ids may be equal.
+     * @param firstAccountId one of the accounts to lock
+     * @param secondAccountId the other account to lock
+     * @return the account the caller had to wait for because another thread was holding its lock for it,
+     * {@link #NOT_CONTENDED} if it did not wait or cannot tell for which account the lock was held
+     */
+    int lockExclusive(int firstAccountId, int secondAccountId);
+
+    /**
+     * Release the locks acquired by {@link #lockExclusive(int, int)} using the same arguments.
+     */
+    void unlockExclusive(int firstAccountId, int secondAccountId);
+
+    /**
+     * Acquire exclusive access to all the accounts at once, ie the accounts of a batch of transfers.
+     * Ids may be repeated.
+     * @param accountIds the accounts to lock
+     */
+    void lockExclusive(int[] accountIds);
+
+    /**
+     * Release the locks acquired by {@link #lockExclusive(int[])} using the same arguments.
+     */
+    void unlockExclusive(int[] accountIds);
+
+    /**
+     * Acquire an exclusive lock, recording how long the caller waited for it in {@link Metrics#LOCK_WAIT} if it was
+     * held by another thread. The clock is not read at all when the lock is free.
+     *
+     * @return true if the caller had to wait
+     */
+    static boolean acquire(Lock lock) {
+        if (lock.tryLock()) {
+            return false;
+        }
+        long started = System.nanoTime();
+        lock.lock();
+        Metrics.LOCK_WAIT.record(System.nanoTime() - started);
+        return true;
+    }
+}
@@ -0,0 +1,108 @@
+package com.jojos.bank.service;
+
+/**
+ * The locking strategies the {@link TransferHandler} can use to keep transfers atomic.
+ *
+ * The mode is picked once at startup through the {@value #MODE_PROPERTY} system property,
+ * ie {@code -Dbank.concurrency.mode=global}. The default is {@link #STRIPED}.
+ *
+ * @author karanikasg@gmail.com
+ */
+public enum ConcurrencyMode {
+
+    /**
+     * A single lock for all accounts. Kept as a reference point for benchmarks.
+     */
+    GLOBAL {
+        @Override
+        AccountLocks newAccountLocks() {
+            return new GlobalAccountLocks();
+        }
+    },
+
+    /**
+     * A fixed pool of lock stripes, the stripe count being defined by {@value #STRIPES_PROPERTY}.
+     * Transfers between accounts mapped on different stripes don't block each other.
+     */
+    STRIPED {
+        @Override
+        AccountLocks newAccountLocks() {
+            return new StripedAccountLocks(Integer.getInteger(STRIPES_PROPERTY, DEFAULT_STRIPES));
+        }
+    },
+
+    /**
+     * No lock on the common path: every account is stored with a version and each leg of a transfer is committed
+     * with compare-and-swap. A leg that keeps losing the race (8 times by default, see
+     * {@value #OPTIMISTIC_ATTEMPTS_PROPERTY}) falls back to the striped lock of the account.
+     *
+     * The two legs of a transfer are not applied as one atomic operation, a reader may see the money
+     * leaving the first account before it reaches the second one.
+     */
+    OPTIMISTIC {
+        @Override
+        AccountLocks newAccountLocks() {
+            return STRIPED.newAccountLocks();
+        }
+    },
+
+    /**
+     * Accounts are partitioned by id into shards (one per core by default, see {@value #SHARDS_PROPERTY}), each one
+     * updated by its own single threaded event loop. Transfers inside a shard need no lock at all. Transfers across shards
+     * are handed off: the source shard debits the account and passes the credit to the shard owning the target account.
+     *
+     * Transfers complete asynchronously, see {@link TransferHandler#executeAsync(com.jojos.bank.money.Transfer)}.
+     * Like in {@link #OPTIMISTIC} mode a reader may see a cross shard transfer half done.
+     */
+    SHARDED {
+        @Override
+        AccountLocks newAccountLocks() {
+            return STRIPED.newAccountLocks();
+        }
+    };
+
+    public static final String MODE_PROPERTY = "bank.concurrency.mode";
+    public static final String STRIPES_PROPERTY = "bank.concurrency.stripes";
+    public static final String OPTIMISTIC_ATTEMPTS_PROPERTY = "bank.concurrency.optimistic.attempts";
+    public static final String SHARDS_PROPERTY = "bank.concurrency.shards";
+    /**
+     * Number of transfers that may wait for a shard in {@link #SHARDED} mode before new ones are rejected
+     */
+    public static final String SHARD_QUEUE_PROPERTY = "bank.concurrency.shards.queue";
+    /**
+     * Number of threads executing the asynchronous transfers outside of {@link #SHARDED} mode, one per core by default
+     */
+    public static final String WORKERS_PROPERTY = "bank.concurrency.workers";
+    /**
+     * Number of asynchronous transfers that may wait for a worker before new ones are rejected
+     */
+    public static final String WORKER_QUEUE_PROPERTY = "bank.concurrency.workers.queue";
+    /**
+     * Number of contended accesses to an account within a {@link #HOT_FOLD_INTERVAL_PROPERTY fold interval} that make
+     * it hot: its credits are then coalesced instead of locking it. 0 disables the coalescing, which never applies to
+     * {@link #SHARDED} mode where an account has a single writer anyway.
+     */
+    public static final String HOT_THRESHOLD_PROPERTY = "bank.concurrency.hot.threshold";
+    /**
+     * Milliseconds between two folds of the coalesced credits into the balances of the hot accounts
+     */
+    public static final String HOT_FOLD_INTERVAL_PROPERTY = "bank.concurrency.hot.fold.interval";
+
+    private static final int DEFAULT_STRIPES = 1024;
+    static final int DEFAULT_OPTIMISTIC_ATTEMPTS = 8;
+    static final int DEFAULT_WORKER_QUEUE = 10_000;
+    static final int DEFAULT_SHARD_QUEUE = 10_000;
+    static final int DEFAULT_HOT_THRESHOLD = 32;
+    static final int DEFAULT_HOT_FOLD_INTERVAL = 100;
+
+    abstract AccountLocks newAccountLocks();
+
+    /**
+     * @return the mode defined by the {@value #MODE_PROPERTY} system property or {@link #STRIPED} if it is absent.
+     * @throws IllegalArgumentException if the property doesn't name a known mode
+     */
+    public static ConcurrencyMode fromSystemProperties() {
+        String mode = System.getProperty(MODE_PROPERTY);
+        return mode == null ? STRIPED : valueOf(mode.trim().toUpperCase());
+    }
+}
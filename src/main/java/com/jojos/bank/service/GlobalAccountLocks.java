@@ -0,0 +1,36 @@
+package com.jojos.bank.service;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One lock guarding every account. All transfers are serialized no matter which accounts they touch, so waiting for
+ * the lock says nothing about any account being contended.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class GlobalAccountLocks implements AccountLocks {
+
+    private final Lock lock = new ReentrantLock();
+
+    @Override
+    public int lockExclusive(int firstAccountId, int secondAccountId) {
+        AccountLocks.acquire(lock);
+        return NOT_CONTENDED;
+    }
+
+    @Override
+    public void unlockExclusive(int firstAccountId, int secondAccountId) {
+        lock.unlock();
+    }
+
+    @Override
+    public void lockExclusive(int[] accountIds) {
+        AccountLocks.acquire(lock);
+    }
+
+    @Override
+    public void unlockExclusive(int[] accountIds) {
+        lock.unlock();
+    }
+}
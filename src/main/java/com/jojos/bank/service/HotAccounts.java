@@ -0,0 +1,136 @@
+package com.jojos.bank.service;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Spots the accounts that transfers keep contending on, ie a merchant receiving a large share of all payments.
+ *
+ * Scores are kept in a fixed array of slots indexed by account id. A slot belongs to the account that scored in it
+ * last when it was empty: contended accesses of its owner add to the score, those of any other account sharing the
+ * slot take one off it, and the slot changes owner once its score is down to 0. So the score of an account counts
+ * only its own accesses, and of all the accounts sharing a slot at most the one contended more than all the others
+ * together can become hot.
+ *
+ * The scores are halved every {@link #decay() decay}: an account stays hot as long as it keeps being contended at
+ * least {@code threshold} times per period, and cools down once it drops below half of it.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class HotAccounts {
+
+    private static final int SLOTS = 4096;
+
+    private final int threshold;
+    // the owner account in the high half of an entry, its score in the low half
+    private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+    private final Set<Integer> hot = ConcurrentHashMap.newKeySet();
+    // the accounts that may have credits waiting to be folded, hot or not anymore
+    private final Set<Integer> coalesced = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param threshold contended accesses per decay period that make an account hot, 0 to never consider it hot
+     */
+    HotAccounts(int threshold) {
+        this.threshold = threshold;
+    }
+
+    boolean isHot(int accountId) {
+        return !hot.isEmpty() && hot.contains(accountId);
+    }
+
+    /**
+     * Record that a transfer had to wait for the account, or lost a compare-and-swap on it
+     * @return true if the account just became hot
+     */
+    boolean contended(int accountId) {
+        if (threshold <= 0) {
+            return false;
+        }
+        int slot = accountId & (SLOTS - 1);
+        int score;
+        long entry;
+        long next;
+        do {
+            entry = slots.get(slot);
+            score = score(entry);
+            if (score == 0 || owner(entry) == accountId) {
+                score++;
+                next = entry(accountId, score);
+            } else {
+                // the slot is taken by another account, this account has no score at all
+                next = entry(owner(entry), score - 1);
+                score = 0;
+            }
+        } while (!slots.compareAndSet(slot, entry, next));
+        return score >= threshold && !hot.contains(accountId) && markHot(accountId);
+    }
+
+    /**
+     * Coalesce the credits of the account until it cools down
+     * @return true if the account was not hot yet
+     */
+    boolean markHot(int accountId) {
+        // hot first: an account is hot only while it is coalesced, see forget
+        boolean marked = hot.add(accountId);
+        coalesced.add(accountId);
+        return marked;
+    }
+
+    /**
+     * Halve the scores and cool down the accounts that are not contended enough anymore
+     */
+    void decay() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long entry = slots.get(slot);
+            if (score(entry) != 0) {
+                // a concurrent update lost here only delays the account becoming hot
+                slots.compareAndSet(slot, entry, entry(owner(entry), score(entry) >> 1));
+            }
+        }
+        hot.removeIf(accountId -> score(accountId) < threshold / 2);
+    }
+
+    /**
+     * @return the accounts whose credits may have been coalesced, hot or not anymore
+     */
+    Set<Integer> coalesced() {
+        return Collections.unmodifiableSet(coalesced);
+    }
+
+    /**
+     * Stop tracking the coalesced credits of an account, once it has cooled down and they are all folded. A credit
+     * coalesced after that, by a transfer that took the account for hot just before it cooled down, is folded by the
+     * next debit of the account or once it turns hot again.
+     */
+    void forget(int accountId) {
+        coalesced.remove(accountId);
+        if (hot.contains(accountId)) {
+            // it turned hot again meanwhile
+            coalesced.add(accountId);
+        }
+    }
+
+    int hotCount() {
+        return hot.size();
+    }
+
+    private int score(int accountId) {
+        long entry = slots.get(accountId & (SLOTS - 1));
+        return owner(entry) == accountId ? score(entry) : 0;
+    }
+
+    private static long entry(int owner, int score) {
+        return (long) owner << 32 | score;
+    }
+
+    private static int owner(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int score(long entry) {
+        return (int) entry;
+    }
+}
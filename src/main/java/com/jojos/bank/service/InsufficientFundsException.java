@@ -0,0 +1,16 @@
+package com.jojos.bank.service;
+
+/**
+ * Thrown by a debit that would take the balance of an account below its minimum, before the account is updated.
+ * It is a normal outcome of a transfer so it doesn't pay for a stack trace.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class InsufficientFundsException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    InsufficientFundsException(int accountId) {
+        super("Account " + accountId + " has insufficient funds", null, false, false);
+    }
+}
@@ -0,0 +1,115 @@
+package com.jojos.bank.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Partitions the accounts into a fixed number of shards by their id and gives every shard its own single threaded
+ * executor. All the updates of an account are executed by the thread of the shard that owns it, so there is exactly
+ * one writer per account and no lock is needed to update it.
+ *
+ * New work is only accepted while the queue of its shard is below its capacity. The second phase of a transfer,
+ * handed from a shard to another one once the money left the source account, is always accepted: refusing it would
+ * lose the money.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class ShardedExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedExecutor.class);
+
+    private final ThreadPoolExecutor[] shards;
+    private final int queueCapacity;
+
+    /**
+     * @param queueCapacity the number of tasks a shard may have waiting before new ones are rejected
+     */
+    ShardedExecutor(int shardCount, int queueCapacity) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("The number of shards must be positive, got " + shardCount);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the shard queues must be positive, got "
+                    + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        shards = new ThreadPoolExecutor[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = "transfer-shard-" + i;
+            // a single thread executor that exposes its queue, unbounded for the hand-offs and bounded by execute
+            shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+
+    /**
+     * @return the shard owning the account
+     */
+    int shardOf(int accountId) {
+        return Math.floorMod(accountId, shards.length);
+    }
+
+    /**
+     * Queue a task on the event loop of a shard. Tasks of the same shard run one after the other in submission order.
+     * @throws RejectedExecutionException if the queue of the shard is full or the executor has been shut down
+     */
+    void execute(int shard, Runnable task) {
+        // a few concurrent callers may all pass the check at once, the capacity is only exceeded by as many tasks
+        if (shards[shard].getQueue().size() >= queueCapacity) {
+            throw new RejectedExecutionException("Shard " + shard + " has " + queueCapacity + " tasks waiting");
+        }
+        shards[shard].execute(task);
+    }
+
+    /**
+     * Queue a task on the event loop of a shard whatever the number of tasks already waiting, for work that must not
+     * be refused once started.
+     * @throws RejectedExecutionException if the executor has been shut down
+     */
+    void handOff(int shard, Runnable task) {
+        shards[shard].execute(task);
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the number of tasks waiting in the queues of all the shards
+     */
+    int queueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor shard : shards) {
+            depth += shard.getQueue().size();
+        }
+        return depth;
+    }
+
+    /**
+     * Stop accepting new tasks and wait a bit for the queued ones to complete.
+     */
+    void shutdown() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        try {
+            for (ExecutorService shard : shards) {
+                if (!shard.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.warn("Transfer shard did not drain its queue in time");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
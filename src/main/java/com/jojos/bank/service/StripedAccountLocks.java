@@ -0,0 +1,124 @@
+package com.jojos.bank.service;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks (stripes) shared among all accounts. An account is mapped to a stripe by its id,
+ * so transfers touching accounts of disjoint stripes run in parallel.
+ *
+ * Deadlocks are avoided by always acquiring the two stripes of a transfer in ascending stripe order,
+ * regardless of the direction of the transfer. A batch of transfers acquires each of its stripes once, in the same
+ * ascending order.
+ *
+ * Every stripe remembers the account of the transfer holding it. A transfer that has to wait for a stripe held for
+ * the very account it locks reports that account as contended, a wait caused by another account of the stripe is
+ * not held against it.
+ *
+ * @author karanikasg@gmail.com
+ */
+final class StripedAccountLocks implements AccountLocks {
+
+    private final Lock[] stripes;
+    private final AtomicIntegerArray holders;
+    private final int mask;
+
+    /**
+     * @param stripeCount the minimum number of stripes, rounded up to the next power of two
+     */
+    StripedAccountLocks(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("The number of lock stripes must be positive, got " + stripeCount);
+        }
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        stripes = new Lock[size];
+        holders = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+            holders.set(i, NOT_CONTENDED);
+        }
+        mask = size - 1;
+    }
+
+    @Override
+    public int lockExclusive(int firstAccountId, int secondAccountId) {
+        int first = stripe(firstAccountId);
+        int second = stripe(secondAccountId);
+        if (first == second) {
+            // the second account is the credited one, on which payments pile up
+            return acquire(second, secondAccountId);
+        }
+        int contended = first < second ? acquire(first, firstAccountId) : acquire(second, secondAccountId);
+        int alsoContended = first < second ? acquire(second, secondAccountId) : acquire(first, firstAccountId);
+        return alsoContended != NOT_CONTENDED ? alsoContended : contended;
+    }
+
+    @Override
+    public void unlockExclusive(int firstAccountId, int secondAccountId) {
+        int first = stripe(firstAccountId);
+        int second = stripe(secondAccountId);
+        if (first == second) {
+            stripes[first].unlock();
+        } else {
+            stripes[Math.max(first, second)].unlock();
+            stripes[Math.min(first, second)].unlock();
+        }
+    }
+
+    @Override
+    public void lockExclusive(int[] accountIds) {
+        BitSet used = stripes(accountIds);
+        for (int stripe = used.nextSetBit(0); stripe >= 0; stripe = used.nextSetBit(stripe + 1)) {
+            AccountLocks.acquire(stripes[stripe]);
+            holders.lazySet(stripe, NOT_CONTENDED);
+        }
+    }
+
+    @Override
+    public void unlockExclusive(int[] accountIds) {
+        BitSet used = stripes(accountIds);
+        for (int stripe = used.length() - 1; stripe >= 0; stripe = used.previousSetBit(stripe - 1)) {
+            stripes[stripe].unlock();
+        }
+    }
+
+    /**
+     * @return the account if the stripe was held for it and the caller had to wait, {@link #NOT_CONTENDED} otherwise
+     */
+    private int acquire(int stripe, int accountId) {
+        Lock lock = stripes[stripe];
+        int contended = NOT_CONTENDED;
+        if (!lock.tryLock()) {
+            // read before waiting, the holder is overwritten by the time the lock is ours
+            int holder = holders.get(stripe);
+            AccountLocks.acquire(lock);
+            if (holder == accountId) {
+                contended = accountId;
+            }
+        }
+        holders.lazySet(stripe, accountId);
+        return contended;
+    }
+
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    private BitSet stripes(int[] accountIds) {
+        BitSet used = new BitSet(stripes.length);
+        for (int accountId : accountIds) {
+            used.set(stripe(accountId));
+        }
+        return used;
+    }
+
+    // account ids are handed out sequentially so consecutive accounts end up on consecutive stripes
+    private int stripe(int accountId) {
+        return accountId & mask;
+    }
+}
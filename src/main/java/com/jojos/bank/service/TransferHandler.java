@@ -1,25 +1,75 @@
 package com.jojos.bank.service;
 
+import com.jojos.bank.metrics.Metrics;
 import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.FxRate;
+import com.jojos.bank.money.FxRates;
+import com.jojos.bank.money.Hold;
+import com.jojos.bank.money.Reconciliation;
+import com.jojos.bank.money.Transaction;
+import com.jojos.bank.money.TransactionPage;
 import com.jojos.bank.money.Transfer;
+import com.jojos.bank.money.TransferStatus;
 import com.jojos.bank.resource.Database;
+import com.jojos.bank.resource.IdempotencyCache;
+import com.jojos.bank.resource.Reconciler;
+import com.jojos.bank.resource.TransactionHistory;
+import com.jojos.bank.resource.TransferJournal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * The class performs transfers and updates the accounts in the database
  *
  * The following operations are currently supported
- * - Execute a transfer between two accounts. Execute both changes as one atomic operation
+ * - Execute a transfer between two accounts. Either both of its legs are applied or none of them
  * - Retrieve an account based on its ID.
  *
- * Both operations are atomic. The retrieval cannot be executed until a transfer between two accounts is finished.
- * Several threads can retrieve accounts from the database as long as there is no ongoing transfer
+ * A transfer is committed with both legs within a single commit of the {@link Database}, so snapshots and
+ * {@link #getAccounts(int[]) consistent reads} never see it half done. Reading a single account takes no lock: in
+ * the locked modes both legs are applied under the locks of both accounts, but in {@link ConcurrencyMode#OPTIMISTIC}
+ * and {@link ConcurrencyMode#SHARDED} modes every leg is its own compare-and-swap, so reading the accounts one by one
+ * may see the debit of a transfer before its credit.
+ *
+ * How the accounts are locked depends on the {@link ConcurrencyMode}. With the default {@link ConcurrencyMode#STRIPED}
+ * mode transfers between unrelated accounts run in parallel. With {@link ConcurrencyMode#OPTIMISTIC} no lock is taken
+ * unless an account is so contended that compare-and-swap keeps failing. With {@link ConcurrencyMode#SHARDED} every
+ * account is only ever updated by the thread of the shard owning it.
+ *
+ * In the striped and optimistic modes the accounts that transfers keep contending on are considered hot (see
+ * {@link HotAccounts}): credits to a hot account no longer lock it but are accumulated aside and folded into its
+ * balance periodically, or before it is debited so that the debit sees the whole balance. The global lock cannot tell
+ * one account from another so it spots none, only the accounts marked hot explicitly are coalesced.
+ *
+ * The amount of a transfer is in the currency of its source account. When the target account holds another currency
+ * the credited amount is converted with the current {@link FxRates} before any lock is taken, and both amounts are
+ * journaled.
+ *
+ * A debit never takes the balance of an account below its credit line (none by default) nor into the funds
+ * {@link #reserve(Hold) held} for a later transfer. The check and the update are one compare-and-swap of the account,
+ * so they are atomic in every mode without any lock besides the ones the mode already takes.
  *
  * @author karanikasg@gmail.com.
  */
@@ -27,28 +77,107 @@ public class TransferHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(TransferHandler.class);
 
+	// returned by commit instead of a journal sequence number
+	private static final long REFUSED = -1;
+	private static final long NO_FUNDS = -2;
+	// returned by tryCommitLeg instead of a balance
+	private static final long NOT_UPDATED = Long.MIN_VALUE;
+
+	/**
+	 * What a leg of a transfer does to the balance of its account
+	 */
+	private enum Leg {
+		CREDIT,
+		// within the credit line and the held funds of the account
+		DEBIT,
+		// of funds held for it, whatever the limits
+		HELD_DEBIT,
+		// undoes a credit, whatever the limits
+		REVERSAL,
+		// holds funds for a later debit, within the limits like a debit
+		RESERVE
+	}
+
     /**
      * Accessing the class methods are only allowed through one instance
      */
-	public static final TransferHandler INSTANCE = new TransferHandler();
+	public static final TransferHandler INSTANCE = new TransferHandler(ConcurrencyMode.fromSystemProperties());
+
+	static {
+		Metrics.registerGauge("bank_transfer_queue_depth", "Transfers waiting for a worker or a shard.",
+				INSTANCE::getQueueDepth);
+		Metrics.registerCounter("bank_optimistic_retries_total", "Compare-and-swap attempts repeated after a lost race.",
+				INSTANCE::getOptimisticRetries);
+		Metrics.registerCounter("bank_optimistic_aborts_total", "Transfer legs that fell back to locking the account.",
+				INSTANCE::getOptimisticAborts);
+		Metrics.registerGauge("bank_hot_accounts", "Accounts whose credits are coalesced.",
+				INSTANCE::getHotAccountCount);
+	}
+
+	private final ConcurrencyMode mode;
 
-	// the read-write lock are only used while updating the parent-child relationships
-	// since it may be the case where we have inconsistencies while calculating the sum (read ) AND updating the
-	// relationships on inserting a transaction.
-	private final Lock readLock;
-	private final Lock writeLock;
+	// guard the two accounts of a transfer so that both are updated as one atomic operation and no reader
+	// observes the money while it has left one account but not yet arrived to the other.
+	// In optimistic mode they only serialize the writers of accounts where compare-and-swap keeps failing.
+	private final AccountLocks locks;
 
-	private TransferHandler() {
-		ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-		writeLock = readWriteLock.writeLock();
-		readLock = readWriteLock.readLock();
+	private final int maxOptimisticAttempts;
+	private final LongAdder optimisticRetries = new LongAdder();
+	private final LongAdder optimisticAborts = new LongAdder();
+
+	// only used in sharded mode
+	private final ShardedExecutor shards;
+
+	// execute the asynchronous transfers in the other modes
+	private final ThreadPoolExecutor workers;
+
+	private final HotAccounts hotAccounts;
+	private final long foldIntervalMillis;
+	// folds the credits of the hot accounts, started once the first account gets hot
+	private ScheduledExecutorService folder;
+
+	// funds held for a later transfer, by hold ID
+	private final ConcurrentMap<Long, HeldFunds> holds = new ConcurrentHashMap<>();
+	private final AtomicLong lastHoldId = new AtomicLong();
+
+	// null unless the transfers must survive a restart
+	private volatile TransferJournal journal;
+
+	TransferHandler(ConcurrencyMode mode) {
+		this.mode = mode;
+		locks = mode.newAccountLocks();
+		maxOptimisticAttempts = Integer.getInteger(ConcurrencyMode.OPTIMISTIC_ATTEMPTS_PROPERTY,
+				ConcurrencyMode.DEFAULT_OPTIMISTIC_ATTEMPTS);
+		shards = mode != ConcurrencyMode.SHARDED ? null : new ShardedExecutor(
+				Integer.getInteger(ConcurrencyMode.SHARDS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+				Integer.getInteger(ConcurrencyMode.SHARD_QUEUE_PROPERTY, ConcurrencyMode.DEFAULT_SHARD_QUEUE));
+		workers = mode == ConcurrencyMode.SHARDED ? null : newWorkers(
+				Integer.getInteger(ConcurrencyMode.WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+				Integer.getInteger(ConcurrencyMode.WORKER_QUEUE_PROPERTY, ConcurrencyMode.DEFAULT_WORKER_QUEUE));
+		hotAccounts = new HotAccounts(mode == ConcurrencyMode.SHARDED ? 0 : Integer.getInteger(
+				ConcurrencyMode.HOT_THRESHOLD_PROPERTY, ConcurrencyMode.DEFAULT_HOT_THRESHOLD));
+		foldIntervalMillis = Integer.getInteger(ConcurrencyMode.HOT_FOLD_INTERVAL_PROPERTY,
+				ConcurrencyMode.DEFAULT_HOT_FOLD_INTERVAL);
+		log.info("Transfers are using the {} concurrency mode", mode);
+	}
+
+	private static ThreadPoolExecutor newWorkers(int threads, int queueCapacity) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "transfer-worker-" + count.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				});
+		// the workers are only started once transfers arrive
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
 	}
 
 	/**
 	 * Execute a transfer between two accounts
 	 *
 	 * TODO return a specific error code that maps to an exact error condition upon transfer failure
-     * TODO support multi currency
 	 *
 	 * @param transfer object containing information about the accounts participating in the transaction and the amount.
 	 * @return true if the transfer succeeded, false otherwise
@@ -56,88 +185,1409 @@ public class TransferHandler {
      * @implNote negative transfers are not supported
 	 */
 	public boolean execute(Transfer transfer) {
-        try {
-            writeLock.lock();
-            //sanity check - ensure accounts exist
-            if (!Database.accountExists(transfer.getFromAccountId()) ||
-                    !Database.accountExists(transfer.getToAccountId())) {
-                log.error("At least one of the account does not exist. Aborting transfer.");
-                return false;
-            }
-
-            BigDecimal transferAmount = new BigDecimal(transfer.getTransferAmount());
-            if (transferAmount.compareTo(BigDecimal.ZERO) <= 0) {
-                log.error("No point on transferring an amount less than or equal to zero. Aborting transfer.");
-                return false;
-            }
-
-            Account accountFrom = Database.get(transfer.getFromAccountId());
-            Account accountTo = Database.get(transfer.getToAccountId());
-
-            accountFrom = subtract(accountFrom, transferAmount);
-            accountTo = add(accountTo, transferAmount);
-
-            boolean fromUpdated = Database.update(transfer.getFromAccountId(), accountFrom);
-            boolean toUpdated = Database.update(transfer.getToAccountId(), accountTo);
-
-            if (!fromUpdated || !toUpdated) {
-                log.error("This should have never happened. One of the accounts were not updated");
-                return false;
-            }
-
-        } finally {
-            writeLock.unlock();
-        }
+		if (mode == ConcurrencyMode.SHARDED) {
+			return executeAsync(transfer).join();
+		}
+		String key = transfer.getIdempotencyKey();
+		if (key == null) {
+			return executeOnce(transfer);
+		}
+
+		CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+		CompletableFuture<Boolean> original = IdempotencyCache.claim(key, outcome);
+		if (original != null) {
+			Metrics.TRANSFER_REPLAYS.increment();
+			return original.join();
+		}
+		try {
+			boolean executed = executeOnce(transfer);
+			outcome.complete(executed);
+			return executed;
+		} catch (RuntimeException e) {
+			outcome.completeExceptionally(e);
+			throw e;
+		}
+	}
 
+	private boolean executeOnce(Transfer transfer) {
+		long started = System.nanoTime();
+		TransferJournal journal = this.journal;
+		long sequence;
+		try {
+			sequence = commit(transfer, journal);
+			// wait for the disk without holding the locks, concurrent transfers share the same fsync
+			if (sequence > 0) {
+				journal.awaitDurable(sequence);
+			}
+		} catch (RuntimeException e) {
+			recordOutcome(failureOf(e), started);
+			throw e;
+		}
+		if (sequence < 0) {
+			recordOutcome(failureOf(transfer, sequence), started);
+			return false;
+		}
+		recordOutcome(TransferStatus.OK, started);
 		return true;
 	}
 
+	/**
+	 * Execute a transfer in the calling thread, without waiting for it to be durable
+	 * @param journal the journal to append the transfer to, null if there is none
+	 * @return the sequence number of the transfer in the journal, 0 if there is no journal, {@link #NO_FUNDS} if the
+	 * source account has insufficient funds or {@link #REFUSED} if the transfer failed otherwise
+	 */
+	private long commit(Transfer transfer, TransferJournal journal) {
+		// parse and validate outside of the lock to keep the critical section short
+		long transferAmount = validate(transfer);
+		long creditAmount = transferAmount > 0
+				? convert(transfer.getFromAccountId(), transfer.getToAccountId(), transferAmount) : 0;
+		if (creditAmount <= 0) {
+			return REFUSED;
+		}
+		return commit(transfer.getFromAccountId(), transfer.getToAccountId(), transferAmount, creditAmount, Leg.DEBIT,
+				transfer.getIdempotencyKey(), journal);
+	}
+
+	/**
+	 * @param debitLeg {@link Leg#DEBIT}, or {@link Leg#HELD_DEBIT} to transfer held funds
+	 * @param key the idempotency key of the transfer, null if it has none
+	 */
+	private long commit(int fromAccountId, int toAccountId, long transferAmount, long creditAmount, Leg debitLeg,
+			String key, TransferJournal journal) {
+		long sequence = 0;
+
+		// decided once: the account may cool down in the meantime
+		boolean coalesced = hotAccounts.isHot(toAccountId);
+
+		if (mode == ConcurrencyMode.OPTIMISTIC) {
+			int ticket = Database.beginCommit();
+			try {
+				long fromBalance = commitLeg(fromAccountId, transferAmount, debitLeg);
+				long toBalance;
+				try {
+					toBalance = coalesced ? creditLater(toAccountId, creditAmount)
+							: commitLeg(toAccountId, creditAmount, Leg.CREDIT);
+				} catch (ArithmeticException e) {
+					undoDebit(fromAccountId, transferAmount, debitLeg);
+					log.error("The balance of account {} would overflow. Aborting transfer.", toAccountId);
+					return REFUSED;
+				}
+				sequence = journalTransfer(journal, fromAccountId, toAccountId, transferAmount, creditAmount, key);
+				recordTransfer(fromAccountId, toAccountId, transferAmount, creditAmount, fromBalance, toBalance);
+			} catch (InsufficientFundsException e) {
+				log.error("{}. Aborting transfer.", e.getMessage());
+				return NO_FUNDS;
+			} finally {
+				Database.endCommit(ticket);
+			}
+			return sequence;
+		}
+
+		// the credit of a hot account doesn't need its lock
+		int lockedToAccountId = coalesced ? fromAccountId : toAccountId;
+		int contendedAccountId = locks.lockExclusive(fromAccountId, lockedToAccountId);
+		if (contendedAccountId != AccountLocks.NOT_CONTENDED) {
+			contended(contendedAccountId);
+		}
+		// entered after the locks: a snapshot waiting for this commit must never wait for a thread that waits for them
+		int ticket = Database.beginCommit();
+		try {
+			// nobody else writes these accounts while we hold their locks so the legs can only fail
+			// if the account has been updated behind our back
+			long fromBalance = tryCommitLeg(fromAccountId, transferAmount, debitLeg);
+			if (fromBalance == NOT_UPDATED) {
+				log.error("This should have never happened. Account {} was not updated", fromAccountId);
+				return REFUSED;
+			}
+			long toBalance;
+			try {
+				toBalance = coalesced ? creditLater(toAccountId, creditAmount)
+						: tryCommitLeg(toAccountId, creditAmount, Leg.CREDIT);
+			} catch (ArithmeticException e) {
+				log.error("The balance of account {} would overflow. Aborting transfer.", toAccountId);
+				toBalance = NOT_UPDATED;
+			}
+			if (toBalance == NOT_UPDATED) {
+				// the debit is already applied, give the money back
+				undoDebit(fromAccountId, transferAmount, debitLeg);
+				return REFUSED;
+			}
+			sequence = journalTransfer(journal, fromAccountId, toAccountId, transferAmount, creditAmount, key);
+			recordTransfer(fromAccountId, toAccountId, transferAmount, creditAmount, fromBalance, toBalance);
+
+		} catch (InsufficientFundsException e) {
+			log.error("{}. Aborting transfer.", e.getMessage());
+			return NO_FUNDS;
+		} finally {
+			Database.endCommit(ticket);
+			locks.unlockExclusive(fromAccountId, lockedToAccountId);
+		}
+		return sequence;
+	}
+
+	/**
+	 * Give back the money a debit took from an account whose transfer could not credit its target, within the same
+	 * commit and, in the locked modes, under the same locks
+	 * @param debitLeg the leg that was applied, the funds of a {@link Leg#HELD_DEBIT} are held again
+	 */
+	private void undoDebit(int accountId, long amount, Leg debitLeg) {
+		if (debitLeg == Leg.HELD_DEBIT) {
+			Database.hold(accountId, amount);
+		}
+		if (mode == ConcurrencyMode.OPTIMISTIC) {
+			commitLeg(accountId, amount, Leg.CREDIT);
+		} else if (tryCommitLeg(accountId, amount, Leg.CREDIT) == NOT_UPDATED) {
+			throw new IllegalStateException("Account " + accountId + " has been modified behind our back");
+		}
+	}
+
+	/**
+	 * Journal a transfer from its commit, with its idempotency key if it has one
+	 * @return the sequence number of the transfer in the journal, 0 if there is no journal
+	 */
+	private static long journalTransfer(TransferJournal journal, int fromAccountId, int toAccountId, long debitAmount,
+			long creditAmount, String key) {
+		if (key == null) {
+			return journal == null ? 0 : journal.appendTransfer(fromAccountId, toAccountId, debitAmount, creditAmount);
+		}
+		IdempotencyCache.committed(key);
+		return journal == null ? 0 : journal.appendTransfer(fromAccountId, toAccountId, debitAmount, creditAmount, key,
+				System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the balance of the account with its coalesced credits, which may include credits of concurrent transfers
+	 */
+	private static long creditLater(int accountId, long amount) {
+		Database.addPendingCredit(accountId, amount);
+		return Database.balance(accountId) + Database.pendingCredits(accountId);
+	}
+
+	/**
+	 * Append both legs of a committed transfer to the history of their accounts and move the money it exchanged from
+	 * one currency to the other, within the commit of the transfer
+	 */
+	private static void recordTransfer(int fromAccountId, int toAccountId, long debitAmount, long creditAmount,
+			long fromBalance, long toBalance) {
+		Database.exchanged(fromAccountId, toAccountId, debitAmount, creditAmount);
+		long transferId = TransactionHistory.nextTransferId();
+		long now = System.currentTimeMillis();
+		TransactionHistory.append(fromAccountId, transferId, toAccountId, -debitAmount, fromBalance, now);
+		TransactionHistory.append(toAccountId, transferId, fromAccountId, creditAmount, toBalance, now);
+	}
+
+	private void contended(int accountId) {
+		if (hotAccounts.contended(accountId)) {
+			log.info("Account {} is hot, its credits are coalesced", accountId);
+			startFolding();
+		}
+	}
+
+	/**
+	 * Coalesce the credits of an account from now on, whether it is contended or not
+	 */
+	void coalesceCredits(int accountId) {
+		if (hotAccounts.markHot(accountId)) {
+			startFolding();
+		}
+	}
+
+	private synchronized void startFolding() {
+		if (folder != null) {
+			return;
+		}
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "hot-account-folder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(() -> {
+			try {
+				foldCoalescedCredits();
+				hotAccounts.decay();
+			} catch (RuntimeException e) {
+				log.error("Could not fold the credits of the hot accounts", e);
+			}
+		}, foldIntervalMillis, foldIntervalMillis, TimeUnit.MILLISECONDS);
+		folder = executor;
+	}
+
+	private void foldCoalescedCredits() {
+		for (int accountId : hotAccounts.coalesced()) {
+			if (Database.pendingCredits(accountId) == 0) {
+				if (!hotAccounts.isHot(accountId)) {
+					hotAccounts.forget(accountId);
+				}
+				continue;
+			}
+			// like any other writer of the account
+			boolean locked = mode != ConcurrencyMode.OPTIMISTIC;
+			if (locked) {
+				locks.lockExclusive(accountId, accountId);
+			}
+			int ticket = Database.beginCommit();
+			try {
+				Database.foldPendingCredits(accountId);
+			} catch (ArithmeticException e) {
+				log.error("The balance of account {} would overflow, its credits stay pending", accountId);
+			} finally {
+				Database.endCommit(ticket);
+				if (locked) {
+					locks.unlockExclusive(accountId, accountId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Execute a transfer between two accounts without waiting for it to complete.
+	 *
+	 * In {@link ConcurrencyMode#SHARDED} mode the transfer is handed to the shards, the other modes queue it to a
+	 * bounded pool of workers (see {@link ConcurrencyMode#WORKERS_PROPERTY}). Either way the calling thread never
+	 * waits for a lock or for the journal.
+	 *
+	 * A transfer with the idempotency key of a transfer already executed, or in progress, is not executed again: its
+	 * future completes with the outcome of the first one. The key of a transfer rejected because too many transfers
+	 * are queued is forgotten, so that it can be retried.
+	 *
+	 * @param transfer object containing information about the accounts participating in the transaction and the amount.
+	 * @return a future completed with true if the transfer succeeded, false otherwise. It completes exceptionally with
+	 * a {@link RejectedExecutionException} if too many transfers are already queued.
+	 */
+	public CompletableFuture<Boolean> executeAsync(Transfer transfer) {
+		String key = transfer.getIdempotencyKey();
+		if (key == null) {
+			return executeAsyncOnce(transfer);
+		}
+
+		CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+		CompletableFuture<Boolean> original = IdempotencyCache.claim(key, outcome);
+		if (original != null) {
+			Metrics.TRANSFER_REPLAYS.increment();
+			// a copy, the caller must not be able to complete the outcome of the original
+			return original.thenApply(Function.identity());
+		}
+		CompletableFuture<Boolean> result;
+		try {
+			result = executeAsyncOnce(transfer);
+		} catch (RuntimeException e) {
+			IdempotencyCache.release(key, outcome);
+			outcome.completeExceptionally(e);
+			throw e;
+		}
+		result.whenComplete((executed, failure) -> {
+			if (failure == null) {
+				outcome.complete(executed);
+			} else {
+				if (failure instanceof RejectedExecutionException) {
+					IdempotencyCache.release(key, outcome);
+				}
+				outcome.completeExceptionally(failure);
+			}
+		});
+		return outcome;
+	}
+
+	private CompletableFuture<Boolean> executeAsyncOnce(Transfer transfer) {
+		long started = System.nanoTime();
+		if (mode != ConcurrencyMode.SHARDED) {
+			CompletableFuture<Boolean> result = new CompletableFuture<>();
+			try {
+				workers.execute(() -> {
+					try {
+						TransferJournal journal = this.journal;
+						long sequence = commit(transfer, journal);
+						if (sequence < 0) {
+							recordOutcome(failureOf(transfer, sequence), started);
+							result.complete(false);
+						} else if (sequence == 0) {
+							recordOutcome(TransferStatus.OK, started);
+							result.complete(true);
+						} else {
+							// free the worker while the journal is being written
+							journal.onDurable(sequence, () -> {
+								recordOutcome(TransferStatus.OK, started);
+								result.complete(true);
+							}, failure -> {
+								recordOutcome(TransferStatus.FAILED, started);
+								result.completeExceptionally(failure);
+							});
+						}
+					} catch (RuntimeException e) {
+						recordOutcome(failureOf(e), started);
+						result.completeExceptionally(e);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				Metrics.TRANSFER_REJECTIONS.increment();
+				result.completeExceptionally(e);
+			}
+			return result;
+		}
+
+		long transferAmount;
+		long creditAmount;
+		try {
+			transferAmount = validate(transfer);
+			creditAmount = transferAmount > 0
+					? convert(transfer.getFromAccountId(), transfer.getToAccountId(), transferAmount) : 0;
+		} catch (RuntimeException e) {
+			recordOutcome(failureOf(e), started);
+			throw e;
+		}
+		if (creditAmount <= 0) {
+			recordOutcome(failureOf(transfer), started);
+			return CompletableFuture.completedFuture(false);
+		}
+
+		return executeOnShards(transfer.getFromAccountId(), transfer.getToAccountId(), transferAmount, creditAmount,
+				Leg.DEBIT, transfer.getIdempotencyKey(), true, started);
+	}
+
+	/**
+	 * Execute a transfer whose amount is already in minor units, like {@link #executeAsync(Transfer)} but without
+	 * parsing the amount nor an idempotency key. Meant for the clients of the binary protocol.
+	 *
+	 * @param amount the amount in minor units of the currency of the source account
+	 * @param currency the currency of the amount, which must be the currency of the source account
+	 * @return a future completed with {@link TransferStatus#OK} once the transfer is executed, or why it was refused.
+	 * It completes exceptionally with a {@link RejectedExecutionException} if too many transfers are already queued.
+	 */
+	public CompletableFuture<TransferStatus> executeAsync(int fromAccountId, int toAccountId, long amount,
+			Currency currency) {
+		long started = System.nanoTime();
+		Currency fromCurrency = Database.currency(fromAccountId);
+		Currency toCurrency = Database.currency(toAccountId);
+		TransferStatus refusal = null;
+		long creditAmount = 0;
+		if (fromCurrency == null || toCurrency == null) {
+			refusal = TransferStatus.ACCOUNT_NOT_FOUND;
+		} else if (amount <= 0 || currency != fromCurrency) {
+			refusal = TransferStatus.INVALID_AMOUNT;
+		} else if (fromCurrency != toCurrency && FxRates.get(fromCurrency, toCurrency) == null) {
+			refusal = TransferStatus.NO_EXCHANGE_RATE;
+		} else {
+			try {
+				creditAmount = convert(fromAccountId, toAccountId, amount);
+			} catch (ArithmeticException e) {
+				creditAmount = 0;
+			}
+			if (creditAmount <= 0) {
+				refusal = TransferStatus.INVALID_AMOUNT;
+			}
+		}
+		if (refusal != null) {
+			recordOutcome(refusal, started);
+			return CompletableFuture.completedFuture(refusal);
+		}
+
+		if (mode == ConcurrencyMode.SHARDED) {
+			// a shard only refuses a transfer for insufficient funds
+			return executeOnShards(fromAccountId, toAccountId, amount, creditAmount, Leg.DEBIT, null, true, started)
+					.thenApply(executed -> executed ? TransferStatus.OK : TransferStatus.INSUFFICIENT_FUNDS);
+		}
+		long credit = creditAmount;
+		CompletableFuture<TransferStatus> result = new CompletableFuture<>();
+		try {
+			workers.execute(() -> {
+				try {
+					TransferJournal journal = this.journal;
+					long sequence = commit(fromAccountId, toAccountId, amount, credit, Leg.DEBIT, null, journal);
+					if (sequence < 0) {
+						TransferStatus status = sequence == NO_FUNDS
+								? TransferStatus.INSUFFICIENT_FUNDS : TransferStatus.FAILED;
+						recordOutcome(status, started);
+						result.complete(status);
+					} else if (sequence == 0) {
+						recordOutcome(TransferStatus.OK, started);
+						result.complete(TransferStatus.OK);
+					} else {
+						journal.onDurable(sequence, () -> {
+							recordOutcome(TransferStatus.OK, started);
+							result.complete(TransferStatus.OK);
+						}, failure -> {
+							recordOutcome(TransferStatus.FAILED, started);
+							result.completeExceptionally(failure);
+						});
+					}
+				} catch (RuntimeException e) {
+					recordOutcome(failureOf(e), started);
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			Metrics.TRANSFER_REJECTIONS.increment();
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Execute a batch of transfers with one lock acquisition per involved account stripe instead of one per transfer.
+	 *
+	 * Invalid transfers are reported and skipped. If the batch is atomic, either all of its transfers are executed
+	 * or none: a single invalid or failing transfer aborts the others.
+	 *
+	 * @param transfers the transfers, executed in order
+	 * @param atomic true to execute all the transfers or none
+	 * @return the status of every transfer, in the order of the batch
+	 * @throws UnsupportedOperationException if an atomic batch is requested in {@link ConcurrencyMode#SHARDED} mode,
+	 * where the accounts of a batch are owned by different threads, or in {@link ConcurrencyMode#OPTIMISTIC} mode,
+	 * where transfers don't lock the accounts so nothing would keep them out of the batch until it is rolled back
+	 */
+	public List<TransferStatus> executeBatch(List<Transfer> transfers, boolean atomic) {
+		if (atomic && (mode == ConcurrencyMode.SHARDED || mode == ConcurrencyMode.OPTIMISTIC)) {
+			throw new UnsupportedOperationException("All-or-nothing batches are not supported in " + mode + " mode");
+		}
+
+		int size = transfers.size();
+		TransferStatus[] statuses = new TransferStatus[size];
+		long[] amounts = new long[size];
+		long[] credits = new long[size];
+		int valid = 0;
+		for (int i = 0; i < size; i++) {
+			Transfer transfer = transfers.get(i);
+			try {
+				amounts[i] = validate(transfer);
+				if (amounts[i] > 0) {
+					credits[i] = convert(transfer.getFromAccountId(), transfer.getToAccountId(), amounts[i]);
+				}
+			} catch (NumberFormatException | ArithmeticException e) {
+				log.error("Invalid transfer amount {}. Aborting transfer.", transfer.getTransferAmount());
+			}
+			if (credits[i] > 0) {
+				valid++;
+			} else {
+				statuses[i] = failureOf(transfer);
+			}
+		}
+
+		if (atomic && valid < size) {
+			abortPending(statuses);
+		} else if (mode == ConcurrencyMode.SHARDED) {
+			executeBatchOnShards(transfers, amounts, credits, statuses);
+		} else if (valid > 0) {
+			executeBatchLocked(transfers, amounts, credits, statuses, atomic, valid);
+		}
+		for (TransferStatus status : statuses) {
+			Metrics.TRANSFERS.increment(status);
+		}
+		return Arrays.asList(statuses);
+	}
+
+	private void executeBatchOnShards(List<Transfer> transfers, long[] amounts, long[] credits,
+			TransferStatus[] statuses) {
+		List<CompletableFuture<Boolean>> results = new ArrayList<>(statuses.length);
+		for (int i = 0; i < statuses.length; i++) {
+			if (statuses[i] == null) {
+				Transfer transfer = transfers.get(i);
+				// the batch counts its transfers once they are all done
+				results.add(executeOnShards(transfer.getFromAccountId(), transfer.getToAccountId(), amounts[i],
+						credits[i], Leg.DEBIT, null, false, 0));
+			} else {
+				results.add(null);
+			}
+		}
+		for (int i = 0; i < statuses.length; i++) {
+			CompletableFuture<Boolean> result = results.get(i);
+			if (result != null) {
+				try {
+					// the shards only refuse a transfer for insufficient funds, it completes exceptionally otherwise
+					statuses[i] = result.join() ? TransferStatus.OK : TransferStatus.INSUFFICIENT_FUNDS;
+				} catch (CompletionException e) {
+					log.error("Transfer {} of the batch failed", transfers.get(i), e.getCause());
+					statuses[i] = TransferStatus.FAILED;
+				}
+			}
+		}
+	}
+
+	private void executeBatchLocked(List<Transfer> transfers, long[] amounts, long[] credits,
+			TransferStatus[] statuses, boolean atomic, int valid) {
+		int[] accountIds = new int[valid * 2];
+		for (int i = 0, j = 0; i < statuses.length; i++) {
+			if (statuses[i] == null) {
+				accountIds[j++] = transfers.get(i).getFromAccountId();
+				accountIds[j++] = transfers.get(i).getToAccountId();
+			}
+		}
+
+		TransferJournal journal = this.journal;
+		long sequence = 0;
+		// optimistic writers don't lock, so neither does a batch that is not atomic
+		boolean locked = mode != ConcurrencyMode.OPTIMISTIC;
+		if (locked) {
+			locks.lockExclusive(accountIds);
+		}
+		int ticket = Database.beginCommit();
+		try {
+			for (int i = 0; i < statuses.length; i++) {
+				if (statuses[i] != null) {
+					continue;
+				}
+				Transfer transfer = transfers.get(i);
+				try {
+					commitTransfer(transfer.getFromAccountId(), transfer.getToAccountId(), amounts[i], credits[i],
+							Leg.DEBIT);
+					statuses[i] = TransferStatus.OK;
+				} catch (InsufficientFundsException | ArithmeticException | IllegalStateException e) {
+					log.error("Transfer {} of the batch failed: {}", transfer, e.getMessage());
+					statuses[i] = e instanceof InsufficientFundsException ? TransferStatus.INSUFFICIENT_FUNDS
+							: TransferStatus.FAILED;
+					if (atomic) {
+						rollback(transfers, amounts, credits, statuses, i);
+						break;
+					}
+				}
+			}
+			// only journal what stays applied
+			if (journal != null) {
+				for (int i = 0; i < statuses.length; i++) {
+					if (statuses[i] == TransferStatus.OK) {
+						Transfer transfer = transfers.get(i);
+						sequence = journal.appendTransfer(transfer.getFromAccountId(), transfer.getToAccountId(),
+								amounts[i], credits[i]);
+					}
+				}
+			}
+		} finally {
+			Database.endCommit(ticket);
+			if (locked) {
+				locks.unlockExclusive(accountIds);
+			}
+		}
+
+		// the whole batch shares the wait for the disk
+		if (sequence > 0) {
+			journal.awaitDurable(sequence);
+		}
+	}
+
+	/**
+	 * Undo the transfers of an atomic batch executed before the failed one and abort them all
+	 */
+	private void rollback(List<Transfer> transfers, long[] amounts, long[] credits, TransferStatus[] statuses,
+			int failed) {
+		for (int i = failed - 1; i >= 0; i--) {
+			if (statuses[i] == TransferStatus.OK) {
+				Transfer transfer = transfers.get(i);
+				// the very amounts that were moved, whatever the exchange rate is now
+				commitTransfer(transfer.getToAccountId(), transfer.getFromAccountId(), credits[i], amounts[i],
+						Leg.REVERSAL);
+				statuses[i] = TransferStatus.ABORTED;
+			}
+		}
+		abortPending(statuses);
+	}
+
+	private static void abortPending(TransferStatus[] statuses) {
+		for (int i = 0; i < statuses.length; i++) {
+			if (statuses[i] == null) {
+				statuses[i] = TransferStatus.ABORTED;
+			}
+		}
+	}
+
+	/**
+	 * Apply both legs of a transfer while the accounts are locked, or with compare-and-swap in optimistic mode.
+	 * Nothing is applied if it fails.
+	 * @param debitAmount the amount in minor units of the currency of the source account
+	 * @param creditAmount the amount in minor units of the currency of the target account
+	 * @param debitLeg {@link Leg#DEBIT}, or {@link Leg#REVERSAL} to undo a transfer
+	 * @throws ArithmeticException if a balance would overflow
+	 * @throws InsufficientFundsException if the source account has insufficient funds
+	 */
+	private void commitTransfer(int fromAccountId, int toAccountId, long debitAmount, long creditAmount, Leg debitLeg) {
+		if (mode == ConcurrencyMode.OPTIMISTIC) {
+			long fromBalance = commitLeg(fromAccountId, debitAmount, debitLeg);
+			long toBalance;
+			try {
+				toBalance = commitLeg(toAccountId, creditAmount, Leg.CREDIT);
+			} catch (ArithmeticException e) {
+				commitLeg(fromAccountId, debitAmount, Leg.CREDIT);
+				throw e;
+			}
+			recordTransfer(fromAccountId, toAccountId, debitAmount, creditAmount, fromBalance, toBalance);
+			return;
+		}
+
+		long fromBalance = tryCommitLeg(fromAccountId, debitAmount, debitLeg);
+		if (fromBalance == NOT_UPDATED) {
+			throw new IllegalStateException("Account " + fromAccountId + " has been modified behind our back");
+		}
+		long toBalance;
+		try {
+			toBalance = tryCommitLeg(toAccountId, creditAmount, Leg.CREDIT);
+		} catch (ArithmeticException e) {
+			toBalance = NOT_UPDATED;
+		}
+		if (toBalance == NOT_UPDATED) {
+			tryCommitLeg(fromAccountId, debitAmount, Leg.CREDIT);
+			throw new IllegalStateException("Account " + toAccountId + " could not be credited");
+		}
+		recordTransfer(fromAccountId, toAccountId, debitAmount, creditAmount, fromBalance, toBalance);
+	}
+
+	/**
+	 * @param debitLeg {@link Leg#DEBIT}, or {@link Leg#HELD_DEBIT} to transfer held funds
+	 * @param key the idempotency key of the transfer, null if it has none
+	 * @param recorded true to record the outcome and the duration of the transfer in the {@link Metrics}
+	 * @param started when the transfer arrived, in {@link System#nanoTime()}
+	 * @return a future completed with true once the transfer is done, or with false if the source account has
+	 * insufficient funds. It completes exceptionally with a {@link RejectedExecutionException} if the shard of the
+	 * source account has too many transfers waiting.
+	 */
+	private CompletableFuture<Boolean> executeOnShards(int fromAccountId, int toAccountId, long transferAmount,
+			long creditAmount, Leg debitLeg, String key, boolean recorded, long started) {
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		int fromShard = shards.shardOf(fromAccountId);
+		int toShard = shards.shardOf(toAccountId);
+		// the commit spans both shards, it is entered here since the shard threads must never wait for a snapshot
+		int ticket = Database.beginCommit();
+		try {
+			shards.execute(fromShard, () -> {
+				long fromBalance;
+				try {
+					fromBalance = commitOwnedLeg(fromAccountId, transferAmount, debitLeg);
+				} catch (InsufficientFundsException e) {
+					Database.endCommit(ticket);
+					log.error("{}. Aborting transfer.", e.getMessage());
+					if (recorded) {
+						recordOutcome(TransferStatus.INSUFFICIENT_FUNDS, started);
+					}
+					result.complete(false);
+					return;
+				} catch (RuntimeException e) {
+					Database.endCommit(ticket);
+					if (recorded) {
+						recordOutcome(TransferStatus.FAILED, started);
+					}
+					result.completeExceptionally(e);
+					return;
+				}
+				if (toShard == fromShard) {
+					creditOwnedLeg(result, ticket, fromAccountId, toAccountId, transferAmount, creditAmount,
+							debitLeg, fromBalance, key, recorded, started);
+				} else {
+					// second phase: the money has left the source account, hand the credit to the owner of the target
+					shards.handOff(toShard, () -> creditOwnedLeg(result, ticket, fromAccountId, toAccountId,
+							transferAmount, creditAmount, debitLeg, fromBalance, key, recorded, started));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			Database.endCommit(ticket);
+			Metrics.TRANSFER_REJECTIONS.increment();
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Credit the target account of a transfer executed by the shards, end its commit and complete its future once the
+	 * transfer is in the journal, without blocking the thread of the shard while the journal is being written.
+	 * @param fromBalance the balance the debit left the source account with
+	 */
+	private void creditOwnedLeg(CompletableFuture<Boolean> result, int ticket, int fromAccountId, int toAccountId,
+			long debitAmount, long creditAmount, Leg debitLeg, long fromBalance, String key, boolean recorded,
+			long started) {
+		long toBalance;
+		try {
+			toBalance = commitOwnedLeg(toAccountId, creditAmount, Leg.CREDIT);
+		} catch (ArithmeticException e) {
+			log.error("The balance of account {} would overflow. Aborting transfer.", toAccountId);
+			giveDebitBack(result, ticket, fromAccountId, toAccountId, debitAmount, debitLeg, e, recorded, started);
+			return;
+		} catch (RuntimeException e) {
+			Database.endCommit(ticket);
+			if (recorded) {
+				recordOutcome(TransferStatus.FAILED, started);
+			}
+			result.completeExceptionally(e);
+			return;
+		}
+
+		TransferJournal journal = this.journal;
+		long sequence;
+		try {
+			sequence = journalTransfer(journal, fromAccountId, toAccountId, debitAmount, creditAmount, key);
+			recordTransfer(fromAccountId, toAccountId, debitAmount, creditAmount, fromBalance, toBalance);
+		} catch (RuntimeException e) {
+			if (recorded) {
+				recordOutcome(TransferStatus.FAILED, started);
+			}
+			result.completeExceptionally(e);
+			return;
+		} finally {
+			Database.endCommit(ticket);
+		}
+
+		if (journal == null) {
+			if (recorded) {
+				recordOutcome(TransferStatus.OK, started);
+			}
+			result.complete(true);
+		} else {
+			journal.onDurable(sequence, () -> {
+				if (recorded) {
+					recordOutcome(TransferStatus.OK, started);
+				}
+				result.complete(true);
+			}, failure -> {
+				if (recorded) {
+					recordOutcome(TransferStatus.FAILED, started);
+				}
+				result.completeExceptionally(failure);
+			});
+		}
+	}
+
+	/**
+	 * Undo the debit of a transfer executed by the shards whose credit failed, on the shard owning the source account,
+	 * then end its commit and complete its future with the failure
+	 */
+	private void giveDebitBack(CompletableFuture<Boolean> result, int ticket, int fromAccountId, int toAccountId,
+			long debitAmount, Leg debitLeg, RuntimeException failure, boolean recorded, long started) {
+		Runnable undo = () -> {
+			try {
+				undoDebit(fromAccountId, debitAmount, debitLeg);
+			} finally {
+				Database.endCommit(ticket);
+			}
+			if (recorded) {
+				recordOutcome(TransferStatus.FAILED, started);
+			}
+			result.completeExceptionally(failure);
+		};
+		int fromShard = shards.shardOf(fromAccountId);
+		if (fromShard == shards.shardOf(toAccountId)) {
+			undo.run();
+		} else {
+			shards.handOff(fromShard, undo);
+		}
+	}
+
+	/**
+	 * Record the outcome of a single transfer and how long it took since it arrived
+	 */
+	private static void recordOutcome(TransferStatus status, long started) {
+		Metrics.TRANSFERS.increment(status);
+		Metrics.TRANSFER_DURATION.record(System.nanoTime() - started);
+	}
+
+	/**
+	 * Find out why a transfer was refused, only called once it was
+	 * @param refusal what {@link #commit(Transfer, TransferJournal)} returned
+	 */
+	private static TransferStatus failureOf(Transfer transfer, long refusal) {
+		return refusal == NO_FUNDS ? TransferStatus.INSUFFICIENT_FUNDS : failureOf(transfer);
+	}
+
+	/**
+	 * Find out why a transfer was refused, only called once it was
+	 */
+	private static TransferStatus failureOf(Transfer transfer) {
+		Currency currency = Database.currency(transfer.getFromAccountId());
+		Currency toCurrency = Database.currency(transfer.getToAccountId());
+		if (currency == null || toCurrency == null) {
+			return TransferStatus.ACCOUNT_NOT_FOUND;
+		}
+		if (currency != toCurrency && FxRates.get(currency, toCurrency) == null) {
+			return TransferStatus.NO_EXCHANGE_RATE;
+		}
+		try {
+			long amount = currency.toMinorUnits(transfer.getTransferAmount());
+			return amount <= 0 || convert(transfer.getFromAccountId(), transfer.getToAccountId(), amount) <= 0
+					? TransferStatus.INVALID_AMOUNT
+					: TransferStatus.FAILED;
+		} catch (NumberFormatException | ArithmeticException e) {
+			return TransferStatus.INVALID_AMOUNT;
+		}
+	}
+
+	private static TransferStatus failureOf(RuntimeException e) {
+		return e instanceof NumberFormatException ? TransferStatus.INVALID_AMOUNT : TransferStatus.FAILED;
+	}
+
+	/**
+	 * Ensure that the accounts of a transfer exist and that its amount makes sense.
+	 * Accounts are never removed so it is safe to check for their existence without any lock.
+	 *
+	 * @return the amount of the transfer in minor units of the source account's currency, or 0 if the transfer
+	 * must be aborted
+	 * @throws NumberFormatException if the amount is not a number
+	 */
+	private long validate(Transfer transfer) {
+		Currency currency = Database.currency(transfer.getFromAccountId());
+		if (currency == null || !Database.accountExists(transfer.getToAccountId())) {
+			log.error("At least one of the account does not exist. Aborting transfer.");
+			return 0;
+		}
+
+		long transferAmount = currency.toMinorUnits(transfer.getTransferAmount());
+		if (transferAmount <= 0) {
+			log.error("No point on transferring an amount less than or equal to zero. Aborting transfer.");
+			return 0;
+		}
+		return transferAmount;
+	}
+
+	/**
+	 * Convert the validated amount of a transfer to the currency of its target account.
+	 *
+	 * @param transferAmount the amount in minor units of the source account's currency
+	 * @return the amount in minor units of the target account's currency, or 0 if the transfer must be aborted
+	 * @throws ArithmeticException if the converted amount does not fit in a {@code long}
+	 */
+	private static long convert(int fromAccountId, int toAccountId, long transferAmount) {
+		Currency from = Database.currency(fromAccountId);
+		Currency to = Database.currency(toAccountId);
+		if (from == to) {
+			return transferAmount;
+		}
+		FxRate rate = FxRates.get(from, to);
+		if (rate == null) {
+			log.error("There is no exchange rate from {} to {}. Aborting transfer.", from.getIso(), to.getIso());
+			return 0;
+		}
+		long creditAmount = rate.convert(transferAmount);
+		if (creditAmount <= 0) {
+			log.error("The amount is worth nothing once converted to {}. Aborting transfer.", to.getIso());
+			return 0;
+		}
+		return creditAmount;
+	}
+
+	/**
+	 * Apply a leg of a transfer from the thread of the shard owning the account.
+	 * Being the only writer of the account the update cannot fail.
+	 * @return the balance the leg left the account with
+	 */
+	private long commitOwnedLeg(int accountId, long amount, Leg leg) {
+		long balance = tryCommitLeg(accountId, amount, leg);
+		if (balance == NOT_UPDATED) {
+			throw new IllegalStateException("Account " + accountId + " has been modified outside of its shard");
+		}
+		return balance;
+	}
+
+	/**
+	 * Apply one leg of a transfer with compare-and-swap. After a bounded number of lost races the account is considered
+	 * hot and the optimistic attempt is aborted: the leg is then retried while holding the lock of the account, which
+	 * queues the contending writers instead of having them spin.
+	 *
+	 * @implNote the two legs of a transfer are committed one after the other, not as one atomic operation: a concurrent
+	 * reader may observe the debited account before the credited one. A credit that would overflow gives the debit
+	 * back, so the money is never lost.
+	 * @return the balance the leg left the account with
+	 */
+	private long commitLeg(int accountId, long amount, Leg leg) {
+		for (int attempt = 0; attempt < maxOptimisticAttempts; attempt++) {
+			long balance = tryCommitLeg(accountId, amount, leg);
+			if (balance != NOT_UPDATED) {
+				return balance;
+			}
+			if (attempt == 0) {
+				contended(accountId);
+			}
+			optimisticRetries.increment();
+		}
+
+		optimisticAborts.increment();
+		locks.lockExclusive(accountId, accountId);
+		try {
+			long balance;
+			while ((balance = tryCommitLeg(accountId, amount, leg)) == NOT_UPDATED) {
+				optimisticRetries.increment();
+			}
+			return balance;
+		} finally {
+			locks.unlockExclusive(accountId, accountId);
+		}
+	}
+
+	/**
+	 * @return the balance the leg left the account with, {@link #NOT_UPDATED} if the account was modified by somebody
+	 * else in the meantime
+	 * @throws InsufficientFundsException if a {@link Leg#DEBIT} or a {@link Leg#RESERVE} would take the balance below
+	 * the minimum of the account, which is left untouched then
+	 */
+	private long tryCommitLeg(int accountId, long amount, Leg leg) {
+		if (leg == Leg.CREDIT) {
+			// the version must be read first, it guards the balance read after it
+			long version = Database.version(accountId);
+			long credited = Math.addExact(Database.balance(accountId), amount);
+			return Database.compareAndSet(accountId, version, credited) ? credited : NOT_UPDATED;
+		}
+
+		// the debit is checked against the whole balance, coalesced credits included
+		Database.foldPendingCredits(accountId);
+		long version = Database.version(accountId);
+		long balance = Database.balance(accountId);
+		long updated = Math.subtractExact(balance, amount);
+		if ((leg == Leg.DEBIT || leg == Leg.RESERVE) && updated < Database.minimumBalance(accountId)) {
+			throw new InsufficientFundsException(accountId);
+		}
+
+		if (leg == Leg.RESERVE) {
+			Database.hold(accountId, amount);
+			// writing the same balance back moves the version on, so a debit that checked the minimum before the hold
+			// loses its compare-and-swap and checks again
+			if (Database.compareAndSet(accountId, version, balance)) {
+				return balance;
+			}
+			Database.hold(accountId, -amount);
+			return NOT_UPDATED;
+		}
+		if (!Database.compareAndSet(accountId, version, updated)) {
+			return NOT_UPDATED;
+		}
+		if (leg == Leg.HELD_DEBIT) {
+			Database.hold(accountId, -amount);
+		}
+		return updated;
+	}
+
     /**
-     * Create a new account
+     * Create a new account.
+     * No lock is needed since nobody else knows about the account before its ID is returned.
      * @param account the account to be created
      * @return the account ID associated with this account
      */
 	public int createAccount(Account account) {
-		try{
-			writeLock.lock();
-			return Database.add(account);
+		TransferJournal journal = this.journal;
+		int accountId;
+		long sequence = 0;
+		int ticket = Database.beginCommit();
+		try {
+			accountId = Database.add(account);
+			if (journal != null) {
+				Currency currency = account.getCurrency();
+				sequence = journal.appendCreate(accountId, currency, currency.toMinorUnits(account.getBalance()));
+			}
 		} finally {
-			writeLock.unlock();
+			Database.endCommit(ticket);
+		}
+		if (journal != null) {
+			journal.awaitDurable(sequence);
+		}
+		return accountId;
+	}
+
+	/**
+	 * Create a batch of accounts with a single commit, which is journaled before returning like
+	 * {@link #createAccount(Account)} but waits for the journal once for the whole batch.
+	 * @param accounts the accounts to be created
+	 * @return the number of accounts created
+	 */
+	public int createAccounts(List<Account> accounts) {
+		TransferJournal journal = this.journal;
+		long sequence = 0;
+		int ticket = Database.beginCommit();
+		try {
+			for (Account account : accounts) {
+				int accountId = Database.add(account);
+				if (journal != null) {
+					Currency currency = account.getCurrency();
+					sequence = journal.appendCreate(accountId, currency, currency.toMinorUnits(account.getBalance()));
+				}
+			}
+		} finally {
+			Database.endCommit(ticket);
+		}
+		if (journal != null) {
+			journal.awaitDurable(sequence);
 		}
+		return accounts.size();
 	}
 
 	/**
-	 * Get the account associated with the particular id
+	 * Create accounts of the same currency under a range of consecutive IDs, reserved with a single atomic operation
+	 * and filled within a single commit.
+	 * @param balances the balances of the accounts in minor units of the currency
+	 * @return the ID of the first account, the others follow it
+	 */
+	public int createAccounts(Currency currency, long[] balances) {
+		TransferJournal journal = this.journal;
+		int firstId;
+		long sequence = 0;
+		int ticket = Database.beginCommit();
+		try {
+			firstId = Database.reserveIds(balances.length);
+			for (int i = 0; i < balances.length; i++) {
+				Database.restore(firstId + i, currency, balances[i]);
+				if (journal != null) {
+					sequence = journal.appendCreate(firstId + i, currency, balances[i]);
+				}
+			}
+		} finally {
+			Database.endCommit(ticket);
+		}
+		if (journal != null) {
+			journal.awaitDurable(sequence);
+		}
+		return firstId;
+	}
+
+	/**
+	 * Get the account associated with the particular id. Takes no lock in any mode, so reads never wait for the
+	 * transfers: the account is read again in the rare case a write overlapped the read.
 	 * @param accountId the id of the account in question
-	 * @return the specific account if it exists, null otherwise
+	 * @return the specific account if it exists, null otherwise. A transfer that completed before is always seen.
 	 */
 	public Account getAccount(int accountId) {
+		return Database.get(accountId);
+	}
+
+	/**
+	 * Get many accounts as they all were at a single point in time, ie to show the balances of a customer: a transfer
+	 * between two of them is never seen half way. Takes no lock, see {@link Database#getConsistent(int[])}.
+	 * @return the accounts by ID in the order of the IDs, null if one of them does not exist
+	 */
+	public Map<Integer, Account> getAccounts(int[] accountIds) {
+		Account[] accounts = Database.getConsistent(accountIds);
+		Map<Integer, Account> byId = new LinkedHashMap<>();
+		for (int i = 0; i < accountIds.length; i++) {
+			if (accounts[i] == null) {
+				return null;
+			}
+			byId.put(accountIds[i], accounts[i]);
+		}
+		return byId;
+	}
+
+	/**
+	 * Get a page of the transfers of an account, newest first. The history is appended by the commits themselves, so
+	 * reading it takes no lock.
+	 * @param cursor where the page starts, from {@link TransactionPage#getNextCursor()} or -1 for the newest transfer
+	 * @param limit the maximum number of transfers of the page
+	 * @return the page, null if the account does not exist
+	 */
+	public TransactionPage getTransactions(int accountId, int cursor, int limit) {
+		Currency currency = Database.currency(accountId);
+		if (currency == null) {
+			return null;
+		}
+		List<Transaction> transactions = new ArrayList<>(Math.min(limit, TransactionHistory.size(accountId)));
+		int next = TransactionHistory.read(accountId, cursor, limit,
+				(transferId, counterpartyId, amount, balance, timestampMillis) -> transactions.add(new Transaction(
+						transferId, counterpartyId, currency.fromMinorUnits(amount), currency.fromMinorUnits(balance),
+						timestampMillis)));
+		return new TransactionPage(transactions, next < 0 ? null : next);
+	}
+
+	/**
+	 * Add up all the accounts at a single point in time and check that no money was lost or made, see
+	 * {@link Reconciler}. Takes no lock: the transfers keep running while the accounts are scanned.
+	 */
+	public Reconciliation reconcile() {
+		return Reconciler.reconcile();
+	}
+
+	/**
+	 * Hold funds of an account aside for a later transfer. The funds stay in the account but no debit may take them
+	 * until the hold is {@link #commitHold(long, int) committed} or {@link #releaseHold(long) released}.
+	 *
+	 * The funds are checked and held with a single compare-and-swap of the account, under the lock of the account in
+	 * the locked modes or by the shard owning it in {@link ConcurrencyMode#SHARDED} mode, like the debit of a
+	 * transfer. Holds are only kept in memory: a restart releases them all.
+	 *
+	 * @param request the account and the amount to hold
+	 * @return the hold, with the ID to commit or release it with if its status is {@link TransferStatus#OK}
+	 */
+	public Hold reserve(Hold request) {
+		int accountId = request.getAccountId();
+		Currency currency = Database.currency(accountId);
+		if (currency == null) {
+			log.error("Account {} does not exist. Aborting hold.", accountId);
+			return refused(request, TransferStatus.ACCOUNT_NOT_FOUND);
+		}
+		long amount = parse(currency, request.getAmount());
+		if (amount <= 0) {
+			log.error("Invalid hold amount {}. Aborting hold.", request.getAmount());
+			return refused(request, TransferStatus.INVALID_AMOUNT);
+		}
+
+		try {
+			reserve(accountId, amount);
+		} catch (InsufficientFundsException e) {
+			log.error("{}. Aborting hold.", e.getMessage());
+			return refused(request, TransferStatus.INSUFFICIENT_FUNDS);
+		}
+		long holdId = lastHoldId.incrementAndGet();
+		holds.put(holdId, new HeldFunds(accountId, amount));
+		return new Hold(holdId, accountId, currency.fromMinorUnits(amount).toPlainString(), TransferStatus.OK);
+	}
+
+	private void reserve(int accountId, long amount) {
+		if (mode == ConcurrencyMode.SHARDED) {
+			CompletableFuture<Void> reserved = new CompletableFuture<>();
+			shards.execute(shards.shardOf(accountId), () -> {
+				try {
+					commitOwnedLeg(accountId, amount, Leg.RESERVE);
+					reserved.complete(null);
+				} catch (RuntimeException e) {
+					reserved.completeExceptionally(e);
+				}
+			});
+			try {
+				reserved.join();
+			} catch (CompletionException e) {
+				throw rethrown(e);
+			}
+		} else if (mode == ConcurrencyMode.OPTIMISTIC) {
+			commitLeg(accountId, amount, Leg.RESERVE);
+		} else {
+			locks.lockExclusive(accountId, accountId);
+			try {
+				if (tryCommitLeg(accountId, amount, Leg.RESERVE) == NOT_UPDATED) {
+					throw new IllegalStateException("Account " + accountId + " has been modified behind our back");
+				}
+			} finally {
+				locks.unlockExclusive(accountId, accountId);
+			}
+		}
+	}
+
+	private static Hold refused(Hold request, TransferStatus status) {
+		return new Hold(0, request.getAccountId(), request.getAmount(), status);
+	}
+
+	/**
+	 * Transfer the funds of a hold to another account, converted to its currency if needed. The transfer cannot be
+	 * refused for insufficient funds, whatever was debited from the account since the funds were held.
+	 *
+	 * @param holdId the ID returned by {@link #reserve(Hold)}
+	 * @param toAccountId the account to credit
+	 * @return {@link TransferStatus#OK} once transferred, or why the funds are still held if the hold exists
+	 */
+	public TransferStatus commitHold(long holdId, int toAccountId) {
+		long started = System.nanoTime();
+		HeldFunds held = holds.get(holdId);
+		if (held == null) {
+			return TransferStatus.HOLD_NOT_FOUND;
+		}
+		Currency currency = Database.currency(held.accountId);
+		Currency toCurrency = Database.currency(toAccountId);
+		if (toCurrency == null) {
+			return TransferStatus.ACCOUNT_NOT_FOUND;
+		}
+		if (currency != toCurrency && FxRates.get(currency, toCurrency) == null) {
+			return TransferStatus.NO_EXCHANGE_RATE;
+		}
+		long creditAmount;
+		try {
+			creditAmount = convert(held.accountId, toAccountId, held.amount);
+		} catch (ArithmeticException e) {
+			creditAmount = 0;
+		}
+		if (creditAmount <= 0) {
+			return TransferStatus.INVALID_AMOUNT;
+		}
+		// whoever removes the hold first, commits or releases it
+		if (!holds.remove(holdId, held)) {
+			return TransferStatus.HOLD_NOT_FOUND;
+		}
+
+		if (mode == ConcurrencyMode.SHARDED) {
+			boolean executed;
+			try {
+				// records the outcome of the transfer
+				executed = executeOnShards(held.accountId, toAccountId, held.amount, creditAmount, Leg.HELD_DEBIT,
+						null, true, started).join();
+			} catch (CompletionException e) {
+				holdAgain(holdId, held, e.getCause());
+				throw rethrown(e);
+			}
+			if (!executed) {
+				holds.put(holdId, held);
+				return TransferStatus.INSUFFICIENT_FUNDS;
+			}
+			return TransferStatus.OK;
+		}
+		TransferJournal journal = this.journal;
+		long sequence;
+		try {
+			sequence = commit(held.accountId, toAccountId, held.amount, creditAmount, Leg.HELD_DEBIT, null, journal);
+			if (sequence > 0) {
+				journal.awaitDurable(sequence);
+			}
+		} catch (RuntimeException e) {
+			holdAgain(holdId, held, e);
+			recordOutcome(TransferStatus.FAILED, started);
+			throw e;
+		}
+		if (sequence < 0) {
+			// nothing was debited, or the debit was given back with its funds held again
+			holds.put(holdId, held);
+			TransferStatus status = sequence == NO_FUNDS ? TransferStatus.INSUFFICIENT_FUNDS : TransferStatus.FAILED;
+			recordOutcome(status, started);
+			return status;
+		}
+		recordOutcome(TransferStatus.OK, started);
+		return TransferStatus.OK;
+	}
+
+	/**
+	 * Keep a hold whose transfer failed, unless the failure is the journal's: the funds were transferred by then
+	 */
+	private void holdAgain(long holdId, HeldFunds held, Throwable failure) {
+		if (!(failure instanceof UncheckedIOException)) {
+			holds.put(holdId, held);
+		}
+	}
+
+	/**
+	 * @return the failure of a task run by the shards to be thrown by the caller: its cause if unchecked, the
+	 * exception itself wrapping a checked cause
+	 * @throws Error the cause, if it is one
+	 */
+	private static RuntimeException rethrown(CompletionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return cause instanceof RuntimeException ? (RuntimeException) cause : e;
+	}
+
+	/**
+	 * Give the funds of a hold back to its account
+	 * @param holdId the ID returned by {@link #reserve(Hold)}
+	 * @return true if released, false if there is no such hold, ie it was already committed or released
+	 */
+	public boolean releaseHold(long holdId) {
+		HeldFunds held = holds.remove(holdId);
+		if (held == null) {
+			return false;
+		}
+		// lowering the minimum of the account never lets a debit through that it shouldn't, no need to lock
+		Database.hold(held.accountId, -held.amount);
+		return true;
+	}
+
+	/**
+	 * Set how far below zero the balance of an account may be debited. Accounts have no credit line until they are
+	 * given one, their balance cannot be overdrawn. A lower credit line doesn't affect a balance already below it,
+	 * only the debits that follow.
+	 *
+	 * @param creditLine in the currency of the account, 0 to forbid any overdraft
+	 * @return {@link TransferStatus#OK} once set, durably if the transfers are journaled
+	 */
+	public TransferStatus setCreditLine(int accountId, String creditLine) {
+		Currency currency = Database.currency(accountId);
+		if (currency == null) {
+			return TransferStatus.ACCOUNT_NOT_FOUND;
+		}
+		long amount = creditLine == null ? -1 : parse(currency, creditLine);
+		if (amount < 0) {
+			log.error("Invalid credit line {} for account {}", creditLine, accountId);
+			return TransferStatus.INVALID_AMOUNT;
+		}
+
+		TransferJournal journal = this.journal;
+		long sequence = 0;
+		int ticket = Database.beginCommit();
 		try {
-			readLock.lock();
-			return Database.get(accountId);
+			Database.setCreditLine(accountId, amount);
+			if (journal != null) {
+				sequence = journal.appendCreditLine(accountId, amount);
+			}
 		} finally {
-			readLock.unlock();
+			Database.endCommit(ticket);
 		}
+		if (journal != null) {
+			journal.awaitDurable(sequence);
+		}
+		return TransferStatus.OK;
 	}
 
 	/**
-	 * Create a new account object that is a copy of the account passed minus the specified amount
-	 * @param acc the account to be used as a reference
-	 * @param amount the amount to be subtracted from the account
-	 * @return a new account
+	 * @return the amount in minor units of the currency, or -1 if it is not a valid amount
 	 */
-	private Account subtract(Account acc, BigDecimal amount) {
-		return new Account(acc.getBalance().subtract(amount), acc.getCurrency());
+	private static long parse(Currency currency, String amount) {
+		if (amount == null) {
+			return -1;
+		}
+		try {
+			return currency.toMinorUnits(amount);
+		} catch (NumberFormatException | ArithmeticException e) {
+			return -1;
+		}
 	}
 
 	/**
-	 * Create a new account object that is a copy of the account passed plus the specified amount
-	 * @param acc the account to be used as a reference
-	 * @param amount the amount to be added to the account
-	 * @return a new account
+	 * Record every account creation and transfer from now on in the journal, and only report them as done once
+	 * they are on the disk.
+	 * @param journal the journal, or null to stop journaling
 	 */
-	private Account add(Account acc, BigDecimal amount) {
-		return new Account(acc.getBalance().add(amount), acc.getCurrency());
+	public void useJournal(TransferJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Stop the background threads of the handler, if any, letting the transfers already queued complete.
+	 */
+	public void shutdown() {
+		if (shards != null) {
+			shards.shutdown();
+		}
+		if (workers != null) {
+			workers.shutdown();
+			try {
+				workers.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			if (folder != null) {
+				folder.shutdownNow();
+				// leave the balances whole for whoever reads the store next
+				foldCoalescedCredits();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of transfers queued and not yet picked up by a worker or a shard
+	 */
+	public int getQueueDepth() {
+		return shards != null ? shards.queueDepth() : workers.getQueue().size();
+	}
+
+	/**
+	 * @return the number of accounts whose credits are currently coalesced
+	 */
+	public int getHotAccountCount() {
+		return hotAccounts.hotCount();
+	}
+
+	/**
+	 * @return the number of compare-and-swap attempts that had to be repeated because the account was modified
+	 * concurrently. Always 0 unless running in {@link ConcurrencyMode#OPTIMISTIC} mode.
+	 */
+	public long getOptimisticRetries() {
+		return optimisticRetries.sum();
+	}
+
+	/**
+	 * @return the number of transfer legs that gave up on compare-and-swap and fell back to locking the account.
+	 */
+	public long getOptimisticAborts() {
+		return optimisticAborts.sum();
+	}
+
+	/**
+	 * The funds of an account held by a hold, in minor units of the account's currency
+	 */
+	private static final class HeldFunds {
+		final int accountId;
+		final long amount;
+
+		HeldFunds(int accountId, long amount) {
+			this.accountId = accountId;
+			this.amount = amount;
+		}
 	}
 
 }
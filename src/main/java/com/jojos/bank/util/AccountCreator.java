@@ -2,11 +2,15 @@ package com.jojos.bank.util;
 
 import com.jojos.bank.money.Account;
 import com.jojos.bank.money.Currency;
-import com.jojos.bank.resource.Database;
+import com.jojos.bank.service.TransferHandler;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
 
 /**
@@ -16,6 +20,12 @@ import java.util.stream.Collectors;
  */
 public final class AccountCreator {
 
+    // accounts created with a single commit by the generator
+    public static final int BATCH_SIZE = 1 << 16;
+
+    private static final BigDecimal MIN_TEST_BALANCE = BigDecimal.valueOf(100_000);
+    private static final BigDecimal MAX_TEST_BALANCE = BigDecimal.valueOf(900_000);
+
     public static List<Integer> createAndStoreEuroAccountsFor(List<String> amounts) {
         List<Account> accounts = amounts.stream()
                 .map(BigDecimal::new)
@@ -23,7 +33,7 @@ public final class AccountCreator {
                 .collect(Collectors.toList());
         List<Integer> accountIds = new ArrayList<>();
         for (Account account : accounts) {
-            int accountId = Database.add(account);
+            int accountId = TransferHandler.INSTANCE.createAccount(account);
             accountIds.add(accountId);
         }
         return accountIds;
@@ -33,19 +43,98 @@ public final class AccountCreator {
      * Create a specific amount of accounts used for testing.
      * The balance of the accounts should be greater than 100.000 and less than 900.000
      * @param amountOfAccounts the number of account to create
+     * @return the IDs of the created accounts, as ranges to spare a boxed ID per account
      */
-    public static List<Integer> createAndStoreRandomTestAccounts(int amountOfAccounts) {
-        List<Integer> accountIds = new ArrayList<>();
-        double min = 100_000;
-        double max = 900_000;
-
-        for (int i = 0; i < amountOfAccounts; i++) {
-            BigDecimal amount = BigDecimal.valueOf(Math.random() * (max - min) + min);
-            Account account = new Account(amount, Currency.EURO);
-            int id = Database.add(account);
-            accountIds.add(id);
+    public static List<AccountRange> createAndStoreRandomTestAccounts(int amountOfAccounts) {
+        return createRandomTestAccounts(amountOfAccounts, Currency.EURO, BalanceDistribution.UNIFORM,
+                MIN_TEST_BALANCE, MAX_TEST_BALANCE);
+    }
+
+    /**
+     * Create test accounts in parallel. The work is split in batches of up to {@value #BATCH_SIZE} accounts executed
+     * by the common fork-join pool: every batch draws its balances from its own {@link SplittableRandom} and is
+     * created under a range of consecutive IDs reserved at once, see {@link TransferHandler#createAccounts(Currency,
+     * long[])}. Batches that got adjacent IDs are merged, so unless other accounts are created meanwhile the result is
+     * a single range.
+     *
+     * @param amountOfAccounts the number of accounts to create
+     * @param min the lowest balance, in the currency
+     * @param max the highest balance, in the currency
+     * @return the ranges of the IDs of the accounts, in increasing order
+     * @throws IllegalArgumentException if the amount is negative or the minimum is greater than the maximum
+     */
+    public static List<AccountRange> createRandomTestAccounts(int amountOfAccounts, Currency currency,
+                                                              BalanceDistribution distribution, BigDecimal min,
+                                                              BigDecimal max) {
+        long minorMin = currency.toMinorUnits(min);
+        long minorMax = currency.toMinorUnits(max);
+        if (amountOfAccounts < 0 || minorMin > minorMax) {
+            throw new IllegalArgumentException("Invalid amount of accounts or balances: " + amountOfAccounts
+                    + " accounts between " + min + " and " + max);
+        }
+        List<AccountRange> ranges = ForkJoinPool.commonPool().invoke(new CreateTask(0, amountOfAccounts,
+                new SplittableRandom(), currency, distribution, minorMin, minorMax));
+        ranges.sort(Comparator.comparingInt(AccountRange::getFirstId));
+        List<AccountRange> merged = new ArrayList<>();
+        for (AccountRange range : ranges) {
+            AccountRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.getLastId() + 1 == range.getFirstId()) {
+                merged.set(merged.size() - 1, new AccountRange(last.getFirstId(), range.getLastId()));
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Creates the accounts from index {@code from} to {@code to}, exclusive, of a generation
+     */
+    private static final class CreateTask extends RecursiveTask<List<AccountRange>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final SplittableRandom random;
+        private final Currency currency;
+        private final BalanceDistribution distribution;
+        private final long min;
+        private final long max;
+
+        private CreateTask(int from, int to, SplittableRandom random, Currency currency,
+                           BalanceDistribution distribution, long min, long max) {
+            this.from = from;
+            this.to = to;
+            this.random = random;
+            this.currency = currency;
+            this.distribution = distribution;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        protected List<AccountRange> compute() {
+            if (to - from <= BATCH_SIZE) {
+                long[] balances = new long[to - from];
+                for (int i = 0; i < balances.length; i++) {
+                    balances[i] = distribution.next(random, min, max);
+                }
+                List<AccountRange> ranges = new ArrayList<>(1);
+                if (balances.length > 0) {
+                    int firstId = TransferHandler.INSTANCE.createAccounts(currency, balances);
+                    ranges.add(new AccountRange(firstId, firstId + balances.length - 1));
+                }
+                return ranges;
+            }
+            int middle = (from + to) >>> 1;
+            // split by the task owning the generator, a SplittableRandom is not thread safe
+            CreateTask left = new CreateTask(from, middle, random.split(), currency, distribution, min, max);
+            CreateTask right = new CreateTask(middle, to, random, currency, distribution, min, max);
+            left.fork();
+            List<AccountRange> ranges = right.compute();
+            ranges.addAll(left.join());
+            return ranges;
         }
-        return accountIds;
     }
 
 }
@@ -0,0 +1,37 @@
+package com.jojos.bank.util;
+
+/**
+ * The consecutive IDs of accounts created together
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class AccountRange {
+
+    private final int firstId;
+    private final int lastId;
+
+    public AccountRange(int firstId, int lastId) {
+        this.firstId = firstId;
+        this.lastId = lastId;
+    }
+
+    public int getFirstId() {
+        return firstId;
+    }
+
+    /**
+     * @return the last ID of the range, inclusive
+     */
+    public int getLastId() {
+        return lastId;
+    }
+
+    public int size() {
+        return lastId - firstId + 1;
+    }
+
+    @Override
+    public String toString() {
+        return firstId + ".." + lastId;
+    }
+}
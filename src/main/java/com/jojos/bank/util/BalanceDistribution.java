@@ -0,0 +1,51 @@
+package com.jojos.bank.util;
+
+import java.util.SplittableRandom;
+
+/**
+ * How the balances of generated test accounts are spread between a minimum and a maximum
+ *
+ * @author karanikasg@gmail.com
+ */
+public enum BalanceDistribution {
+    /**
+     * Every balance between the minimum and the maximum is equally likely
+     */
+    UNIFORM {
+        @Override
+        long next(SplittableRandom random, long min, long max) {
+            return max == Long.MAX_VALUE ? random.nextLong(min, max) : random.nextLong(min, max + 1);
+        }
+    },
+    /**
+     * Every account gets the minimum
+     */
+    FIXED {
+        @Override
+        long next(SplittableRandom random, long min, long max) {
+            return min;
+        }
+    },
+    /**
+     * Most accounts get close to the minimum and a few get a lot, like the 80/20 rule: a Pareto distribution with
+     * shape {@value #PARETO_SHAPE} starting at the minimum, capped at the maximum
+     */
+    PARETO {
+        @Override
+        long next(SplittableRandom random, long min, long max) {
+            // 1 - u is in (0, 1] so the power is finite
+            double balance = Math.max(min, 1) / Math.pow(1 - random.nextDouble(), 1 / PARETO_SHAPE);
+            return balance >= max ? max : Math.max(min, (long) balance);
+        }
+    };
+
+    private static final double PARETO_SHAPE = 1.16;
+
+    /**
+     * @param random owned by the calling thread
+     * @param min the lowest balance in minor units
+     * @param max the highest balance in minor units, not less than the minimum
+     * @return the balance of the next account in minor units
+     */
+    abstract long next(SplittableRandom random, long min, long max);
+}
@@ -0,0 +1,93 @@
+package com.jojos.bank.api;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.Transfer;
+import com.jojos.bank.money.TransferStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test the hand written JSON of the entities
+ *
+ * @author karanikasg@gmail.com
+ */
+public class JsonCodecTest {
+
+    @Test
+    public void testReadTransfer() throws IOException {
+        Transfer transfer = readTransfer("{\"note\":{\"a\":[1,2]},\"toAccountId\":\"7\",\"transferAmount\":12.5," +
+                "\"fromAccountId\":8,\"idempotencyKey\":null}");
+        Assert.assertEquals(8, transfer.getFromAccountId());
+        Assert.assertEquals(7, transfer.getToAccountId());
+        Assert.assertEquals("12.5", transfer.getTransferAmount());
+        Assert.assertNull(transfer.getIdempotencyKey());
+
+        transfer = readTransfer("{\"fromAccountId\":1,\"toAccountId\":2,\"transferAmount\":\"0.01\"," +
+                "\"idempotencyKey\":\"k\"}");
+        Assert.assertEquals("0.01", transfer.getTransferAmount());
+        Assert.assertEquals("k", transfer.getIdempotencyKey());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAccountIdIsRefused() throws IOException {
+        readTransfer("{\"fromAccountId\":\"eight\",\"toAccountId\":7,\"transferAmount\":\"1\"}");
+    }
+
+    @Test
+    public void testReadTransfers() throws IOException {
+        try (JsonParser parser = JsonCodec.FACTORY.createParser(
+                "[{\"fromAccountId\":1,\"toAccountId\":2,\"transferAmount\":\"1\"}," +
+                        "{\"fromAccountId\":2,\"toAccountId\":1,\"transferAmount\":\"2\"}]")) {
+            JsonCodec.expect(parser, JsonToken.START_ARRAY, "transfers");
+            List<Transfer> transfers = JsonCodec.readTransfers(parser);
+            Assert.assertEquals(2, transfers.size());
+            Assert.assertEquals(2, transfers.get(1).getFromAccountId());
+            Assert.assertEquals("2", transfers.get(1).getTransferAmount());
+        }
+    }
+
+    @Test
+    public void testAccountRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JsonCodec.FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            JsonCodec.writeAccountFields(generator, new Account(new BigDecimal("12.3"), Currency.EURO));
+            generator.writeEndObject();
+        }
+        String json = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertEquals("{\"balance\":12.30,\"currency\":\"EUR\"}", json);
+
+        try (JsonParser parser = JsonCodec.FACTORY.createParser(json)) {
+            JsonCodec.expect(parser, JsonToken.START_OBJECT, "an account");
+            Assert.assertEquals(new Account(new BigDecimal("12.30"), Currency.EURO), JsonCodec.readAccount(parser));
+        }
+    }
+
+    @Test
+    public void testWriteStatuses() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JsonCodec.FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            JsonCodec.writeStatuses(generator, Arrays.asList(TransferStatus.OK, TransferStatus.ABORTED));
+        }
+        Assert.assertEquals("[\"OK\",\"ABORTED\"]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static Transfer readTransfer(String json) throws IOException {
+        try (JsonParser parser = JsonCodec.FACTORY.createParser(json)) {
+            JsonCodec.expect(parser, JsonToken.START_OBJECT, "a transfer");
+            return JsonCodec.readTransfer(parser);
+        }
+    }
+}
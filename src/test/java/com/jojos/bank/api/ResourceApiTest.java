@@ -2,8 +2,14 @@ package com.jojos.bank.api;
 
 import com.jojos.bank.money.Account;
 import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.CurrencyTotal;
+import com.jojos.bank.money.Hold;
+import com.jojos.bank.money.Reconciliation;
+import com.jojos.bank.money.TransactionPage;
 import com.jojos.bank.money.Transfer;
+import com.jojos.bank.money.TransferStatus;
 import com.jojos.bank.resource.Server;
+import com.jojos.bank.service.ConcurrencyMode;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -14,9 +20,15 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Testing our resource api.
@@ -189,4 +201,274 @@ public class ResourceApiTest {
         Assert.assertEquals(actual.compareTo(expectedBalance), 0);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testRetriedTransferExecutesOnce() {
+        int accountIdFrom = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("100"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+        int accountIdTo = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("0"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+
+        Transfer transfer = new Transfer(accountIdFrom, accountIdTo, "60");
+        String key = "retry-" + accountIdFrom;
+        for (int i = 0; i < 2; i++) {
+            Response response = rootWebTarget.path("transfer")
+                    .request()
+                    .header("Idempotency-Key", key)
+                    .post(Entity.entity(transfer, MediaType.APPLICATION_JSON_TYPE));
+            Assert.assertEquals(200, response.getStatus());
+        }
+
+        Account from = rootWebTarget.path("account/" + accountIdFrom)
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .get(Account.class);
+        Assert.assertEquals(0, from.getBalance().compareTo(new BigDecimal("40")));
+    }
+
+    @Test
+    public void testTransactionsArePaginated() {
+        int accountIdFrom = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("100"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+        int accountIdTo = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("0"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+        for (int i = 1; i <= 3; i++) {
+            Response response = rootWebTarget.path("transfer")
+                    .request()
+                    .post(Entity.entity(new Transfer(accountIdFrom, accountIdTo, String.valueOf(i)),
+                            MediaType.APPLICATION_JSON_TYPE));
+            Assert.assertEquals(200, response.getStatus());
+        }
+
+        TransactionPage page = rootWebTarget.path("account/" + accountIdTo + "/transactions")
+                .queryParam("limit", 2)
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .get(TransactionPage.class);
+        Assert.assertEquals(2, page.getTransactions().size());
+        Assert.assertEquals(0, page.getTransactions().get(0).getBalance().compareTo(new BigDecimal("6")));
+        Assert.assertNotNull(page.getNextCursor());
+
+        page = rootWebTarget.path("account/" + accountIdTo + "/transactions")
+                .queryParam("limit", 2)
+                .queryParam("cursor", page.getNextCursor())
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .get(TransactionPage.class);
+        Assert.assertEquals(1, page.getTransactions().size());
+        Assert.assertEquals(accountIdFrom, page.getTransactions().get(0).getCounterpartyAccountId());
+        Assert.assertNull(page.getNextCursor());
+
+        Assert.assertEquals(400, rootWebTarget.path("account/" + accountIdTo + "/transactions")
+                .queryParam("limit", 0).request().get().getStatus());
+        Assert.assertEquals(404, rootWebTarget.path("account/" + Integer.MAX_VALUE + "/transactions")
+                .request().get().getStatus());
+    }
+
+    @Test
+    public void testImportedAccountsAreExported() {
+        String accounts = "{\"balance\":10.5,\"currency\":\"EUR\"}\n"
+                + "{\"id\":3,\"balance\":\"7\",\"currency\":\"usd\"}\n";
+        Response response = rootWebTarget.path("accounts/import")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(accounts, "application/x-ndjson"));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals(Integer.valueOf(2), response.readEntity(Integer.class));
+
+        String export = rootWebTarget.path("accounts/export").request("application/x-ndjson").get(String.class);
+        String[] lines = export.split("\n");
+        Assert.assertTrue(lines.length >= 2);
+        String first = lines[lines.length - 2];
+        String second = lines[lines.length - 1];
+        Assert.assertTrue(first, first.endsWith(",\"balance\":10.50,\"currency\":\"EUR\"}"));
+        Assert.assertTrue(second, second.endsWith(",\"balance\":7.00,\"currency\":\"USD\"}"));
+
+        // the accounts before the invalid one are created
+        response = rootWebTarget.path("accounts/import")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity("{\"balance\":1,\"currency\":\"EUR\"}\n{\"balance\":1}\n",
+                        "application/x-ndjson"));
+        Assert.assertEquals(400, response.getStatus());
+        Assert.assertTrue(response.readEntity(String.class).contains("1 accounts were imported"));
+    }
+
+    @Test
+    public void testCommitHoldNeedsTheTargetAccount() {
+        int accountIdFrom = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("100"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+        int accountIdTo = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(BigDecimal.ZERO, Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+        Hold hold = rootWebTarget.path("hold")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Hold(accountIdFrom, "30"), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Hold.class);
+        Assert.assertEquals(TransferStatus.OK, hold.getStatus());
+
+        // without a target the funds would go to account 0
+        Response response = rootWebTarget.path("hold/" + hold.getHoldId() + "/commit")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.json(""));
+        Assert.assertEquals(400, response.getStatus());
+
+        response = rootWebTarget.path("hold/" + hold.getHoldId() + "/commit").queryParam("toAccountId", accountIdTo)
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.json(""));
+        Assert.assertEquals(200, response.getStatus());
+        Account to = rootWebTarget.path("account/" + accountIdTo)
+                .request(MediaType.APPLICATION_JSON_TYPE).get().readEntity(Account.class);
+        Assert.assertEquals(0, to.getBalance().compareTo(new BigDecimal("30")));
+    }
+
+    @Test
+    public void testBatchTransfer() {
+        int accountIdFrom = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("100"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+        int accountIdTo = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("100"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+
+        List<Transfer> transfers = Arrays.asList(
+                new Transfer(accountIdFrom, accountIdTo, "1.50"),
+                new Transfer(accountIdFrom, accountIdTo, "0"),
+                new Transfer(accountIdFrom, accountIdTo, "2.50"));
+        Response response = rootWebTarget.path("transfers/batch")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(transfers, MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals(Arrays.asList("OK", "INVALID_AMOUNT", "OK"),
+                response.readEntity(new GenericType<List<String>>() {}));
+
+        response = rootWebTarget.path("transfers/batch").queryParam("atomic", true)
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(transfers, MediaType.APPLICATION_JSON_TYPE));
+        ConcurrencyMode mode = ConcurrencyMode.fromSystemProperties();
+        if (mode == ConcurrencyMode.SHARDED || mode == ConcurrencyMode.OPTIMISTIC) {
+            Assert.assertEquals(400, response.getStatus());
+        } else {
+            Assert.assertEquals(200, response.getStatus());
+            Assert.assertEquals(Arrays.asList("ABORTED", "INVALID_AMOUNT", "ABORTED"),
+                    response.readEntity(new GenericType<List<String>>() {}));
+        }
+
+        Account from = rootWebTarget.path("account/" + accountIdFrom)
+                .request(MediaType.APPLICATION_JSON_TYPE).get().readEntity(Account.class);
+        Assert.assertEquals(0, from.getBalance().compareTo(new BigDecimal("96")));
+
+        for (String body : Arrays.asList("", "[]")) {
+            response = rootWebTarget.path("transfers/batch")
+                    .request(MediaType.APPLICATION_JSON_TYPE)
+                    .post(Entity.entity(body, MediaType.APPLICATION_JSON_TYPE));
+            Assert.assertEquals(400, response.getStatus());
+        }
+
+        List<Transfer> tooMany = Collections.nCopies(ResourceApi.MAX_BATCH_SIZE + 1,
+                new Transfer(accountIdFrom, accountIdTo, "0.01"));
+        response = rootWebTarget.path("transfers/batch")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(tooMany, MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(400, response.getStatus());
+        from = rootWebTarget.path("account/" + accountIdFrom)
+                .request(MediaType.APPLICATION_JSON_TYPE).get().readEntity(Account.class);
+        Assert.assertEquals(0, from.getBalance().compareTo(new BigDecimal("96")));
+    }
+
+    @Test
+    public void testAccountsAreReadTogether() {
+        int accountId1 = rootWebTarget.path("create").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("10"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+        int accountId2 = rootWebTarget.path("create").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("20"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+
+        Response response = rootWebTarget.path("accounts").queryParam("id", accountId2, accountId1)
+                .request(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertEquals(200, response.getStatus());
+        Map<Integer, Account> accounts = response.readEntity(new GenericType<Map<Integer, Account>>() {});
+        Assert.assertEquals(Arrays.asList(accountId2, accountId1), new ArrayList<>(accounts.keySet()));
+        Assert.assertEquals(0, accounts.get(accountId1).getBalance().compareTo(new BigDecimal("10")));
+        Assert.assertEquals(0, accounts.get(accountId2).getBalance().compareTo(new BigDecimal("20")));
+
+        Assert.assertEquals(404, rootWebTarget.path("accounts").queryParam("id", accountId1, Integer.MAX_VALUE)
+                .request(MediaType.APPLICATION_JSON_TYPE).get().getStatus());
+        Assert.assertEquals(400, rootWebTarget.path("accounts")
+                .request(MediaType.APPLICATION_JSON_TYPE).get().getStatus());
+    }
+
+    @Test
+    public void testReconciliation() {
+        // no other test holds this currency, but a mapped store may still hold the accounts of a previous run
+        CurrencyTotal before = canadianDollars(reconcile());
+        for (String balance : Arrays.asList("10.25", "20.50")) {
+            rootWebTarget.path("create").request(MediaType.APPLICATION_JSON_TYPE)
+                    .post(Entity.entity(new Account(new BigDecimal(balance), Currency.CANADIAN_DOLLAR),
+                            MediaType.APPLICATION_JSON_TYPE));
+        }
+
+        Reconciliation reconciliation = reconcile();
+        CurrencyTotal total = canadianDollars(reconciliation);
+        Assert.assertNotNull(total);
+        int accountsBefore = before == null ? 0 : before.getAccounts();
+        BigDecimal balanceBefore = before == null ? BigDecimal.ZERO : before.getBalance();
+        Assert.assertEquals(accountsBefore + 2, total.getAccounts());
+        Assert.assertEquals(0, total.getBalance().compareTo(balanceBefore.add(new BigDecimal("30.75"))));
+        Assert.assertEquals(0, total.getExpected().compareTo(total.getBalance()));
+        Assert.assertTrue(reconciliation.getAccounts() >= 2);
+    }
+
+    private Reconciliation reconcile() {
+        Response response = rootWebTarget.path("reconciliation").request(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertEquals(200, response.getStatus());
+        return response.readEntity(Reconciliation.class);
+    }
+
+    private static CurrencyTotal canadianDollars(Reconciliation reconciliation) {
+        return reconciliation.getTotals().stream()
+                .filter(currencyTotal -> currencyTotal.getCurrency().equals("CAD"))
+                .findFirst().orElse(null);
+    }
+
+    @Test
+    public void testMalformedTransferIsRefused() {
+        for (String json : Arrays.asList("{\"fromAccountId\":1,", "[]", "{\"fromAccountId\":[1]}")) {
+            Response response = rootWebTarget.path("transfer")
+                    .request().post(Entity.entity(json, MediaType.APPLICATION_JSON_TYPE));
+            Assert.assertEquals(json, 400, response.getStatus());
+        }
+        Response response = rootWebTarget.path("transfers/batch")
+                .request().post(Entity.entity("[{}, 1]", MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void testMetrics() {
+        int accountId = rootWebTarget.path("create")
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new Account(new BigDecimal("100"), Currency.EURO), MediaType.APPLICATION_JSON_TYPE))
+                .readEntity(Integer.class);
+        Response transferResponse = rootWebTarget.path("transfer")
+                .request()
+                .post(Entity.entity(new Transfer(accountId, Integer.MAX_VALUE, "1"), MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(404, transferResponse.getStatus());
+
+        Response response = rootWebTarget.path("metrics").request().get();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(response.getMediaType().toString().startsWith("text/plain"));
+        String metrics = response.readEntity(String.class);
+        Assert.assertTrue(metrics, metrics.contains("\nbank_accounts "));
+        Assert.assertTrue(metrics, metrics.contains("\nbank_transfer_duration_seconds_count "));
+        Assert.assertFalse(metrics, metrics.contains("bank_transfers_total{status=\"account_not_found\"} 0\n"));
+        Assert.assertTrue(metrics, metrics.contains("\nbank_server_queue_depth "));
+    }
+}
@@ -0,0 +1,71 @@
+package com.jojos.bank.metrics;
+
+import com.jojos.bank.money.TransferStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link Metrics} and their Prometheus format
+ *
+ * @author karanikasg@gmail.com
+ */
+public class MetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        Assert.assertEquals(0, LatencyHistogram.bucket(-5));
+        Assert.assertEquals(0, LatencyHistogram.bucket(1024));
+        Assert.assertEquals(1, LatencyHistogram.bucket(1025));
+        Assert.assertEquals(1, LatencyHistogram.bucket(2048));
+        Assert.assertEquals(10, LatencyHistogram.bucket(1_000_000));
+        Assert.assertEquals(26, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testHistogramIsCumulative() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test_seconds", "Test.");
+        Thread other = new Thread(() -> histogram.record(3_000_000));
+        other.start();
+        histogram.record(500);
+        histogram.record(1_500_000);
+        other.join();
+
+        String text = scrape(histogram);
+        Assert.assertTrue(text, text.startsWith("# HELP test_seconds Test.\n# TYPE test_seconds histogram\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{le=\"1.024E-6\"} 1\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{le=\"0.002097152\"} 2\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{le=\"0.004194304\"} 3\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_sum 0.0045005\n"));
+        Assert.assertTrue(text, text.endsWith("test_seconds_count 3\n"));
+        Assert.assertEquals(3, histogram.count());
+    }
+
+    @Test
+    public void testLabeledCounter() {
+        LabeledCounter<TransferStatus> counter = new LabeledCounter<>("test_total", "Test.", "status",
+                TransferStatus.class);
+        counter.increment(TransferStatus.OK);
+        counter.increment(TransferStatus.OK);
+        counter.increment(TransferStatus.ACCOUNT_NOT_FOUND);
+
+        String text = scrape(counter);
+        Assert.assertTrue(text, text.contains("test_total{status=\"ok\"} 2\n"));
+        Assert.assertTrue(text, text.contains("test_total{status=\"account_not_found\"} 1\n"));
+        Assert.assertTrue(text, text.contains("test_total{status=\"aborted\"} 0\n"));
+    }
+
+    @Test
+    public void testRegisteredGaugesAreScraped() {
+        Metrics.registerGauge("test_gauge", "Test.", () -> 42);
+        String text = Metrics.scrape();
+        Assert.assertTrue(text, text.contains("# TYPE test_gauge gauge\ntest_gauge 42\n"));
+        Assert.assertTrue(text, text.contains("# TYPE bank_transfer_duration_seconds histogram\n"));
+    }
+
+    private static String scrape(Metric metric) {
+        StringBuilder out = new StringBuilder();
+        metric.writeTo(out);
+        return out.toString();
+    }
+}
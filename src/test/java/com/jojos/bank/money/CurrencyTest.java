@@ -3,6 +3,9 @@ package com.jojos.bank.money;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
 /**
  * @author karanikasg@gmail.com
  */
@@ -15,10 +18,43 @@ public class CurrencyTest {
         Assert.assertEquals(2, currency.getDecimalPlaces());
     }
 
+    @Test
+    public void testEveryCurrencyIsFoundByItsCodes() throws Exception {
+        for (Currency currency : Currency.values()) {
+            Assert.assertSame(currency, Currency.getFor(currency.getIso()));
+            Assert.assertSame(currency, Currency.getFor(currency.getIso().toLowerCase()));
+            Assert.assertSame(currency, Currency.forNumericCode(currency.getNumericCode()));
+        }
+        Assert.assertEquals(0, Currency.getFor("JPY").getDecimalPlaces());
+        Assert.assertEquals(3, Currency.getFor("KWD").getDecimalPlaces());
+    }
+
     @Test(expected = EnumConstantNotPresentException.class)
     public void testCurrencyNotSupported() throws Exception {
         String euroCode = "this is not a currency";
         Currency.getFor(euroCode);
     }
 
+    @Test
+    public void testToMinorUnitsRoundsLikeBigDecimal() throws Exception {
+        String[] amounts = {"0", "1", "-1", "99.01", "98.999999", "-98.999999", "10.433333", "-10.435", "0.005",
+                "0.0049999", "+7.5", ".5", "12.", "1E+3", "2.5e-1", "123456789012.345"};
+        for (String amount : amounts) {
+            long expected = new BigDecimal(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+            Assert.assertEquals(amount, expected, Currency.EURO.toMinorUnits(amount));
+            Assert.assertEquals(amount, expected, Currency.EURO.toMinorUnits(new BigDecimal(amount)));
+        }
+        Assert.assertEquals(0, new BigDecimal("-10.44").compareTo(Currency.EURO.fromMinorUnits(-1044)));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testToMinorUnitsRejectsGarbage() throws Exception {
+        Currency.EURO.toMinorUnits("12.3.4");
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testToMinorUnitsOverflow() throws Exception {
+        Currency.EURO.toMinorUnits("92233720368547758.08");
+    }
+
 }
@@ -0,0 +1,75 @@
+package com.jojos.bank.money;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * @author karanikasg@gmail.com
+ */
+public class FxRatesTest {
+
+    @After
+    public void clearRates() {
+        FxRates.clear();
+    }
+
+    @Test
+    public void testConvertRoundsLikeBigDecimal() throws Exception {
+        String[] rates = {"1.0845", "0.00613", "162.5", "0.3075", "1", "1234.56789", "0.0000213"};
+        Currency[][] pairs = {{Currency.EURO, Currency.US_DOLLAR}, {Currency.YEN, Currency.EURO},
+                {Currency.EURO, Currency.YEN}, {Currency.KUWAITI_DINAR, Currency.YEN},
+                {Currency.UNIDAD_DE_FOMENTO, Currency.CHILEAN_PESO}};
+        long[] amounts = {1, 5, 99, 1000, 123_456_789, -2500, 987_654_321_987L, Long.MAX_VALUE / 1000};
+        for (String value : rates) {
+            for (Currency[] pair : pairs) {
+                FxRate rate = new FxRate(pair[0], pair[1], new BigDecimal(value));
+                for (long amount : amounts) {
+                    BigInteger expected = pair[0].fromMinorUnits(amount).multiply(new BigDecimal(value))
+                            .setScale(pair[1].getDecimalPlaces(), RoundingMode.HALF_UP).unscaledValue();
+                    if (expected.bitLength() < Long.SIZE) {
+                        Assert.assertEquals(rate + " of " + amount, expected.longValue(), rate.convert(amount));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testConvertOverflow() throws Exception {
+        new FxRate(Currency.EURO, Currency.YEN, new BigDecimal("162.5")).convert(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testLoadDerivesInverseRates() throws Exception {
+        Assert.assertEquals(4, FxRates.load(new StringReader("# 1 EUR in other currencies\nEUR/USD=1.25\n" +
+                "eur/jpy = 160\nUSD/EUR=0.81")));
+        Assert.assertEquals(0, FxRates.get(Currency.EURO, Currency.US_DOLLAR).getRate().compareTo(
+                new BigDecimal("1.25")));
+        // given, not derived
+        Assert.assertEquals(0, FxRates.get(Currency.US_DOLLAR, Currency.EURO).getRate().compareTo(
+                new BigDecimal("0.81")));
+        Assert.assertEquals(0, FxRates.get(Currency.YEN, Currency.EURO).getRate().compareTo(
+                new BigDecimal("0.00625")));
+        Assert.assertNull(FxRates.get(Currency.US_DOLLAR, Currency.YEN));
+        Assert.assertEquals(4, FxRates.size());
+    }
+
+    @Test
+    public void testInvalidRatesKeepTheCurrentOnes() throws Exception {
+        FxRates.load(new StringReader("EUR/USD=1.25"));
+        for (String invalid : new String[]{"EUR/XXX=1", "EUR/USD=-1", "EUR/USD=abc", "EUR-USD=1", "EUR/EUR=1"}) {
+            try {
+                FxRates.load(new StringReader(invalid));
+                Assert.fail(invalid + " should have been refused");
+            } catch (IllegalArgumentException expected) {
+                Assert.assertNotNull(FxRates.get(Currency.EURO, Currency.US_DOLLAR));
+            }
+        }
+    }
+}
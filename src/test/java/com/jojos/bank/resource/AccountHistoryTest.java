@@ -0,0 +1,81 @@
+package com.jojos.bank.resource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for the {@link AccountHistory}
+ *
+ * @author karanikasg@gmail.com
+ */
+public class AccountHistoryTest {
+
+    @Test
+    public void testPagesSpanChunks() {
+        AccountHistory history = new AccountHistory();
+        for (int i = 1; i <= 100; i++) {
+            history.append(i, 7, -i, 1000 - i, i * 10L);
+        }
+        Assert.assertEquals(100, history.size());
+
+        // newest first, 30 at a time
+        List<Long> ids = new ArrayList<>();
+        int cursor = 99;
+        int pages = 0;
+        while (cursor >= 0) {
+            cursor = history.read(cursor, 30, (transferId, counterpartyId, amount, balance, timestampMillis) -> {
+                Assert.assertEquals(7, counterpartyId);
+                Assert.assertEquals(-transferId, amount);
+                Assert.assertEquals(1000 - transferId, balance);
+                Assert.assertEquals(transferId * 10, timestampMillis);
+                ids.add(transferId);
+            });
+            pages++;
+        }
+        Assert.assertEquals(4, pages);
+        Assert.assertEquals(100, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Assert.assertEquals(100 - i, ids.get(i).longValue());
+        }
+    }
+
+    @Test
+    public void testConcurrentAppendsAreAllKept() throws Exception {
+        AccountHistory history = new AccountHistory();
+        int threads = 4;
+        int perThread = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> appenders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long first = t * perThread + 1;
+                appenders.add(executor.submit(() -> {
+                    for (long id = first; id < first + perThread; id++) {
+                        history.append(id, 1, id, id, id);
+                    }
+                }));
+            }
+            for (Future<?> appender : appenders) {
+                appender.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Set<Long> ids = new HashSet<>();
+        Assert.assertEquals(-1, history.read(history.size() - 1, Integer.MAX_VALUE,
+                (transferId, counterpartyId, amount, balance, timestampMillis) -> {
+                    Assert.assertEquals(transferId, amount);
+                    ids.add(transferId);
+                }));
+        Assert.assertEquals(threads * perThread, ids.size());
+    }
+}
@@ -0,0 +1,158 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contract of the {@link AccountStore}, run against every {@link StoreType}.
+ *
+ * @author karanikasg@gmail.com
+ */
+@RunWith(Parameterized.class)
+public class AccountStoreTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Object[] storeTypes() {
+        return StoreType.values();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final StoreType storeType;
+    private AccountStore store;
+
+    public AccountStoreTest(StoreType storeType) {
+        this.storeType = storeType;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        store = storeType == StoreType.MAPPED
+                ? new MappedAccountStore(folder.getRoot().toPath().resolve("accounts.db"))
+                : storeType.newStore();
+    }
+
+    @After
+    public void cleanUp() {
+        store.close();
+    }
+
+    @Test
+    public void testAddAndRead() throws Exception {
+        int first = store.add(Currency.EURO, 1234);
+        int second = store.add(Currency.EURO, -5);
+
+        Assert.assertEquals(first + 1, second);
+        Assert.assertEquals(2, store.count());
+        Assert.assertTrue(store.exists(first));
+        Assert.assertSame(Currency.EURO, store.currency(second));
+        Assert.assertEquals(1234, store.balance(first));
+        Assert.assertEquals(-5, store.balance(second));
+
+        Assert.assertFalse(store.exists(second + 1));
+        Assert.assertFalse(store.exists(-1));
+        Assert.assertNull(store.currency(Integer.MAX_VALUE));
+        Assert.assertEquals(0, store.version(second + 1));
+    }
+
+    @Test
+    public void testCompareAndSet() throws Exception {
+        int accountId = store.add(Currency.EURO, 100);
+        long version = store.version(accountId);
+        Assert.assertEquals(0, version & 1);
+
+        Assert.assertTrue(store.compareAndSet(accountId, version, 200));
+        Assert.assertEquals(200, store.balance(accountId));
+        Assert.assertEquals(version + 2, store.version(accountId));
+
+        Assert.assertFalse(store.compareAndSet(accountId, version, 300));
+        Assert.assertFalse(store.compareAndSet(accountId + 1, 2, 300));
+        Assert.assertEquals(200, store.balance(accountId));
+    }
+
+    /**
+     * Several threads increment the same balance with compare-and-swap, no increment may be lost.
+     */
+    @Test
+    public void testConcurrentCompareAndSet() throws Exception {
+        int threads = 4;
+        int increments = 50_000;
+        int accountId = store.add(Currency.EURO, 0);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < increments; i++) {
+                    long version;
+                    do {
+                        version = store.version(accountId);
+                    } while (!store.compareAndSet(accountId, version, store.balance(accountId) + 1));
+                }
+            }));
+        }
+        executorService.shutdown();
+
+        Assert.assertTrue(executorService.awaitTermination(60, TimeUnit.SECONDS));
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        Assert.assertEquals(threads * increments, store.balance(accountId));
+    }
+
+    @Test
+    public void testReservedIdsAreSkippedByAdd() throws Exception {
+        int first = store.reserveIds(3);
+        Assert.assertEquals(first + 3, store.add(Currency.EURO, 7));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(store.exists(first + i));
+            store.restore(first + i, Currency.YEN, i);
+        }
+        Assert.assertEquals(4, store.count());
+        Assert.assertEquals(2, store.balance(first + 2));
+        Assert.assertEquals(first + 4, store.add(Currency.EURO, 7));
+    }
+
+    @Test
+    public void testManyAccounts() throws Exception {
+        // more than one chunk of the primitive store and one segment of the mapped store
+        int accounts = Math.max(PrimitiveAccountStore.CHUNK_SIZE, MappedAccountStore.SEGMENT_RECORDS) + 10;
+        for (int i = 0; i < accounts; i++) {
+            Assert.assertEquals(i, store.add(Currency.EURO, i));
+        }
+        Assert.assertEquals(accounts, store.count());
+        Assert.assertEquals(accounts - 1, store.balance(accounts - 1));
+    }
+
+    @Test
+    public void testMappedStoreSurvivesRestart() throws Exception {
+        Assume.assumeTrue(storeType == StoreType.MAPPED);
+        int first = store.add(Currency.EURO, 100);
+        int second = store.add(Currency.EURO, 200);
+        Assert.assertTrue(store.compareAndSet(second, store.version(second), 250));
+        store.close();
+
+        store = new MappedAccountStore(folder.getRoot().toPath().resolve("accounts.db"));
+        Assert.assertEquals(2, store.count());
+        Assert.assertEquals(100, store.balance(first));
+        Assert.assertEquals(250, store.balance(second));
+        Assert.assertSame(Currency.EURO, store.currency(second));
+        Assert.assertEquals(second + 1, store.add(Currency.EURO, 300));
+    }
+}
@@ -0,0 +1,91 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.api.BinaryClient;
+import com.jojos.bank.api.BinaryProtocol;
+import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.TransferStatus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the transfers sent over the binary protocol
+ *
+ * @author karanikasg@gmail.com
+ */
+public class BinaryServerTest {
+
+    private BinaryServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new BinaryServer(0);
+        server.start();
+    }
+
+    @After
+    public void cleanUp() {
+        server.stop();
+    }
+
+    @Test
+    public void testPipelinedTransfers() throws Exception {
+        int fromId = Database.add(new Account(new BigDecimal("10.00"), Currency.EURO));
+        int toId = Database.add(new Account(BigDecimal.ZERO, Currency.EURO));
+
+        try (BinaryClient client = new BinaryClient("localhost", server.getPort())) {
+            List<CompletableFuture<TransferStatus>> transfers = new ArrayList<>();
+            // sent before any response arrives, only the first 10 fit into the balance
+            for (int i = 0; i < 15; i++) {
+                transfers.add(client.transfer(fromId, toId, 100, Currency.EURO));
+            }
+            CompletableFuture<TransferStatus> unknown = client.transfer(fromId, Integer.MAX_VALUE, 100, Currency.EURO);
+            CompletableFuture<TransferStatus> wrongCurrency = client.transfer(fromId, toId, 100, Currency.US_DOLLAR);
+
+            int executed = 0;
+            for (CompletableFuture<TransferStatus> transfer : transfers) {
+                TransferStatus status = transfer.get(10, TimeUnit.SECONDS);
+                if (status == TransferStatus.OK) {
+                    executed++;
+                } else {
+                    Assert.assertEquals(TransferStatus.INSUFFICIENT_FUNDS, status);
+                }
+            }
+            Assert.assertEquals(10, executed);
+            Assert.assertEquals(TransferStatus.ACCOUNT_NOT_FOUND, unknown.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(TransferStatus.INVALID_AMOUNT, wrongCurrency.get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(0, Database.get(fromId).getBalance().signum());
+        Assert.assertEquals(0, Database.get(toId).getBalance().compareTo(new BigDecimal("10.00")));
+    }
+
+    @Test
+    public void testMalformedRequestIsAnswered() throws Exception {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(10_000);
+            ByteBuffer request = ByteBuffer.allocate(BinaryProtocol.REQUEST_SIZE);
+            BinaryProtocol.putRequest(request, 42, 0, 1, 100, Currency.EURO.getNumericCode());
+            request.putShort(BinaryProtocol.REQUEST_SIZE - 2, (short) 1);
+            OutputStream out = socket.getOutputStream();
+            out.write(request.array());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            Assert.assertEquals(42, in.readLong());
+            Assert.assertEquals(BinaryProtocol.STATUS_MALFORMED, in.readShort());
+            Assert.assertEquals(0, in.readShort());
+        }
+    }
+}
@@ -4,9 +4,12 @@ import com.jojos.bank.money.Account;
 import com.jojos.bank.money.Currency;
 import com.jojos.bank.util.AccountCreator;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,6 +18,9 @@ import java.util.List;
  */
 public class DatabaseTest {
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testNewAccountsStorageAndRetrieval() throws Exception {
         int initialAccountsCount = Database.count();
@@ -59,4 +65,65 @@ public class DatabaseTest {
 
     }
 
+    @Test
+    public void testCompareAndSetRejectsStaleVersion() throws Exception {
+        int accountId = Database.add(new Account(new BigDecimal("100"), Currency.EURO));
+        long staleVersion = Database.version(accountId);
+        Assert.assertEquals(10000, Database.balance(accountId));
+
+        Assert.assertTrue(Database.compareAndSet(accountId, staleVersion, 15000));
+        Assert.assertTrue(Database.version(accountId) > staleVersion);
+        Assert.assertFalse(Database.compareAndSet(accountId, staleVersion, 1000));
+
+        Account expected = new Account(new BigDecimal("150"), Currency.EURO);
+        Assert.assertEquals(expected, Database.get(accountId));
+        Assert.assertEquals(expected, Database.getVersioned(accountId).getAccount());
+    }
+
+    @Test
+    public void testPendingCreditsAreReadAndSnapshotted() throws Exception {
+        int accountId = Database.add(new Account(new BigDecimal("100"), Currency.EURO));
+        int ticket = Database.beginCommit();
+        Database.addPendingCredit(accountId, 250);
+        Database.addPendingCredit(accountId, 50);
+        Database.endCommit(ticket);
+        Assert.assertEquals(10000, Database.balance(accountId));
+        Assert.assertEquals(0, Database.get(accountId).getBalance().compareTo(new BigDecimal("103")));
+
+        Database.startSnapshot(() -> { });
+        try {
+            // credited after the cut: not part of the snapshot
+            ticket = Database.beginCommit();
+            Database.addPendingCredit(accountId, 700);
+            Database.foldPendingCredits(accountId);
+            Database.endCommit(ticket);
+            Assert.assertEquals(11000, Database.balance(accountId));
+            Assert.assertEquals(0, Database.pendingCredits(accountId));
+            Assert.assertEquals(10300, Database.snapshotBalance(accountId));
+        } finally {
+            Database.endSnapshot();
+        }
+    }
+
+    @Test
+    public void testSupplyOfReopenedStore() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("accounts.db");
+        AccountStore store = new MappedAccountStore(file);
+        store.add(Currency.EURO, 10_000);
+        int account = store.add(Currency.EURO, 25_000);
+        store.add(Currency.YEN, 7);
+        Assert.assertTrue(store.compareAndSet(account, store.version(account), 20_000));
+        store.close();
+
+        // the money of the accounts comes back with them, or the reconciliation would find it was made
+        AccountStore reopened = new MappedAccountStore(file);
+        try {
+            long[] supply = Database.supplyOf(reopened);
+            Assert.assertEquals(30_000, supply[Currency.EURO.ordinal()]);
+            Assert.assertEquals(7, supply[Currency.YEN.ordinal()]);
+            Assert.assertEquals(0, supply[Currency.US_DOLLAR.ordinal()]);
+        } finally {
+            reopened.close();
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.FxRates;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * @author karanikasg@gmail.com
+ */
+public class FxRateFileTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void clearRates() {
+        FxRates.clear();
+    }
+
+    @Test
+    public void testRatesAreReloadedWhenTheFileChanges() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("rates.properties");
+        write(file, "EUR/USD=1.25", 1000);
+        FxRateFile rates = new FxRateFile(file);
+        Assert.assertTrue(rates.load());
+        Assert.assertFalse(rates.load());
+
+        write(file, "EUR/USD=1.5", 2000);
+        Assert.assertTrue(rates.load());
+        Assert.assertEquals(0, FxRates.get(Currency.EURO, Currency.US_DOLLAR).getRate()
+                .compareTo(new BigDecimal("1.5")));
+
+        write(file, "EUR/USD=garbage", 3000);
+        try {
+            rates.load();
+            Assert.fail("The invalid rates should have been refused");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertEquals(0, FxRates.get(Currency.EURO, Currency.US_DOLLAR).getRate()
+                    .compareTo(new BigDecimal("1.5")));
+        }
+    }
+
+    private static void write(Path file, String rates, long modified) throws Exception {
+        Files.write(file, rates.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+    }
+}
@@ -0,0 +1,56 @@
+package com.jojos.bank.resource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tests for the {@link IdempotencyCache}
+ *
+ * @author karanikasg@gmail.com
+ */
+public class IdempotencyCacheTest {
+
+    @Test
+    public void testDuplicatesGetTheFirstOutcome() {
+        IdempotencyCache cache = new IdempotencyCache(1000, 10);
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        Assert.assertNull(cache.claim("a", first, 0));
+        Assert.assertSame(first, cache.claim("a", new CompletableFuture<>(), 999));
+
+        // expired, the next transfer with the key is executed again
+        CompletableFuture<Boolean> second = new CompletableFuture<>();
+        Assert.assertNull(cache.claim("a", second, 1000));
+        Assert.assertSame(second, cache.claim("a", new CompletableFuture<>(), 1001));
+
+        // a released key can be claimed again right away
+        cache.remove("a", second);
+        Assert.assertNull(cache.claim("a", new CompletableFuture<>(), 1002));
+    }
+
+    @Test
+    public void testOldestKeysAreEvictedFirst() {
+        IdempotencyCache cache = new IdempotencyCache(1000, 2);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertNull(cache.claim("key" + i, new CompletableFuture<>(), i));
+        }
+        // evicted by the claims that followed, one key may exceed the size until the next claim
+        Assert.assertNull(cache.claim("key0", new CompletableFuture<>(), 5));
+        Assert.assertNotNull(cache.claim("key3", new CompletableFuture<>(), 6));
+    }
+
+    @Test
+    public void testOnlyCommittedKeysAreSnapshotted() {
+        IdempotencyCache cache = new IdempotencyCache(1000, 10);
+        cache.claim("pending", new CompletableFuture<>(), 0);
+        cache.restore("restored", 100, 200);
+        cache.restore("expired", 100, 1200);
+
+        Assert.assertEquals(1, cache.committedKeys(300).size());
+        Assert.assertEquals("restored", cache.committedKeys(300).get(0).getKey());
+        Assert.assertEquals(Long.valueOf(100), cache.committedKeys(300).get(0).getValue());
+        Assert.assertTrue(cache.claim("restored", new CompletableFuture<>(), 300).join());
+        Assert.assertNull(cache.claim("expired", new CompletableFuture<>(), 300));
+    }
+}
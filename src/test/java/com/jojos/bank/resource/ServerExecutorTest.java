@@ -0,0 +1,54 @@
+package com.jojos.bank.resource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for the {@link ServerExecutor}
+ *
+ * @author karanikasg@gmail.com
+ */
+public class ServerExecutorTest {
+
+    @Test
+    public void testSaturatedExecutorShedsRequests() throws Exception {
+        ServerExecutor executor = ServerExecutor.bounded(1, 1, 1, 3);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        try {
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            executor.execute(done::countDown);
+            Assert.assertEquals(1, executor.getQueueDepth());
+            Assert.assertEquals(1, executor.getActiveRequests());
+
+            // no thread and no room left in the queue: the request runs right away, flagged as shed
+            Thread caller = Thread.currentThread();
+            AtomicBoolean shed = new AtomicBoolean();
+            executor.execute(() -> shed.set(Thread.currentThread() == caller && ServerExecutor.isShedding()));
+            Assert.assertTrue(shed.get());
+            Assert.assertFalse(ServerExecutor.isShedding());
+            Assert.assertEquals(1, executor.getRejectedRequests());
+            Assert.assertEquals(3, executor.getRetryAfterSeconds());
+
+            release.countDown();
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,10 +1,26 @@
 package com.jojos.bank.resource;
 
+import com.jojos.bank.api.ResourceApi;
+import org.glassfish.jersey.server.ResourceConfig;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Test http server starting and stopping
  *
@@ -36,4 +52,58 @@ public class ServerTest {
         server.start();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGrizzlyAnswersPipelinedRequests() throws Exception {
+        ServerExecutor executor = ServerExecutor.bounded(2, 2, 10, 1);
+        Transport transport = new GrizzlyTransport(URI.create("http://localhost:9990/"),
+                new ResourceConfig(ResourceApi.class), executor, 1, -1, 30);
+        transport.start();
+        try (Socket socket = new Socket("localhost", 9990)) {
+            socket.setSoTimeout(10_000);
+            String request = "GET /api/metrics HTTP/1.1\r\nHost: localhost\r\n\r\n";
+            OutputStream out = socket.getOutputStream();
+            // both requests are sent before reading any response, on the same connection
+            out.write((request + request).getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int responses = 0;
+            while (responses < 2) {
+                int read = in.read(buffer);
+                Assert.assertTrue("Connection closed after " + responses + " responses", read > 0);
+                received.write(buffer, 0, read);
+                String text = new String(received.toByteArray(), StandardCharsets.US_ASCII);
+                responses = text.split("HTTP/1.1 200", -1).length - 1;
+            }
+        } finally {
+            transport.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testJdkTransportTimesOutSuspendedResponses() throws Exception {
+        ServerExecutor executor = ServerExecutor.bounded(2, 2, 10, 1);
+        Transport transport = new JdkTransport(URI.create("http://localhost:9991/"),
+                new ResourceConfig(NeverResumed.class), executor);
+        transport.start();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:9991/never").openConnection();
+            connection.setReadTimeout(10_000);
+            Assert.assertEquals(503, connection.getResponseCode());
+        } finally {
+            transport.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Path("never")
+    public static final class NeverResumed {
+        @GET
+        public void never(@Suspended AsyncResponse response) {
+            response.setTimeout(100, TimeUnit.MILLISECONDS);
+        }
+    }
+}
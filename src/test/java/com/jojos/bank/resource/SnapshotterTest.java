@@ -0,0 +1,165 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.Transfer;
+import com.jojos.bank.service.TransferHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Tests for the {@link Snapshotter}
+ *
+ * @author karanikasg@gmail.com
+ */
+public class SnapshotterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void cleanUp() {
+        TransferHandler.INSTANCE.useJournal(null);
+    }
+
+    @Test
+    public void testSnapshotsAreConsistentWhileTransferring() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferJournal journal = TransferJournal.open(dir, new Balances());
+        TransferHandler.INSTANCE.useJournal(journal);
+        Snapshotter snapshotter = new Snapshotter(journal);
+
+        int accounts = 20;
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < accounts; i++) {
+            ids.add(TransferHandler.INSTANCE.createAccount(new Account(new BigDecimal("100.00"), Currency.EURO)));
+        }
+        long total = accounts * 10_000L;
+
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < 500; j++) {
+                    int from = ids.get(random.nextInt(accounts));
+                    int to = ids.get(random.nextInt(accounts));
+                    TransferHandler.INSTANCE.execute(new Transfer(from, to, "0.07"));
+                }
+            });
+        }
+        executor.shutdown();
+
+        // no snapshot may catch a transfer half done
+        do {
+            snapshotter.snapshot();
+            Balances snapshot = new Balances();
+            Snapshotter.restoreLatest(dir, snapshot);
+            Assert.assertEquals(total, ids.stream().mapToLong(snapshot::get).sum());
+        } while (!executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+
+        TransferHandler.INSTANCE.useJournal(null);
+        journal.close();
+
+        // the latest snapshot and the journal written since rebuild the current balances
+        Balances restored = new Balances();
+        TransferJournal.open(dir, restored).close();
+        for (int id : ids) {
+            Assert.assertEquals(Long.valueOf(Database.balance(id) + Database.pendingCredits(id)), restored.get(id));
+        }
+    }
+
+    @Test
+    public void testSnapshotTruncatesJournal() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferJournal journal = TransferJournal.open(dir, new Balances());
+        TransferHandler.INSTANCE.useJournal(journal);
+        Snapshotter snapshotter = new Snapshotter(journal);
+
+        int from = TransferHandler.INSTANCE.createAccount(new Account(new BigDecimal("10.00"), Currency.EURO));
+        int to = TransferHandler.INSTANCE.createAccount(new Account(new BigDecimal("10.00"), Currency.EURO));
+        snapshotter.snapshot();
+        Path latest = snapshotter.snapshot();
+        TransferHandler.INSTANCE.execute(new Transfer(from, to, "2.50"));
+        TransferHandler.INSTANCE.useJournal(null);
+        journal.close();
+
+        try (Stream<Path> files = Files.list(dir)) {
+            // the latest snapshot and the segment written since
+            Assert.assertEquals(2, files.count());
+        }
+        Assert.assertTrue(Files.exists(latest));
+
+        Balances restored = new Balances();
+        TransferJournal.open(dir, restored).close();
+        Assert.assertEquals(Long.valueOf(750), restored.get(from));
+        Assert.assertEquals(Long.valueOf(1250), restored.get(to));
+    }
+
+    @Test
+    public void testCreditLinesAndIdempotencyKeysSurviveRestart() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferJournal journal = TransferJournal.open(dir, new Balances());
+        TransferHandler.INSTANCE.useJournal(journal);
+        Snapshotter snapshotter = new Snapshotter(journal);
+
+        int inSnapshot = TransferHandler.INSTANCE.createAccount(new Account(BigDecimal.ZERO, Currency.EURO));
+        int inJournal = TransferHandler.INSTANCE.createAccount(new Account(BigDecimal.ZERO, Currency.EURO));
+        TransferHandler.INSTANCE.setCreditLine(inSnapshot, "100");
+        String key = "snapshotted-" + System.nanoTime();
+        Assert.assertTrue(TransferHandler.INSTANCE.execute(new Transfer(inSnapshot, inJournal, "1", key)));
+        snapshotter.snapshot();
+        TransferHandler.INSTANCE.setCreditLine(inJournal, "20.50");
+        TransferHandler.INSTANCE.useJournal(null);
+        journal.close();
+
+        Balances restored = new Balances();
+        TransferJournal.open(dir, restored).close();
+        Assert.assertEquals(Long.valueOf(10_000), restored.creditLines.get(inSnapshot));
+        Assert.assertEquals(Long.valueOf(2050), restored.creditLines.get(inJournal));
+        Assert.assertTrue(restored.keys.containsKey(key));
+    }
+
+    private static final class Balances extends HashMap<Integer, Long> implements TransferJournal.Visitor {
+        private static final long serialVersionUID = 1L;
+
+        final HashMap<Integer, Long> creditLines = new HashMap<>();
+        final HashMap<String, Long> keys = new HashMap<>();
+
+        @Override
+        public void onCreate(int accountId, Currency currency, long balance) {
+            put(accountId, balance);
+        }
+
+        @Override
+        public void onTransfer(int fromAccountId, int toAccountId, long debitAmount, long creditAmount) {
+            merge(fromAccountId, -debitAmount, Long::sum);
+            merge(toAccountId, creditAmount, Long::sum);
+        }
+
+        @Override
+        public void onCreditLine(int accountId, long creditLine) {
+            creditLines.put(accountId, creditLine);
+        }
+
+        @Override
+        public void onIdempotencyKey(String key, long createdMillis) {
+            keys.put(key, createdMillis);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.jojos.bank.resource;
+
+import com.jojos.bank.money.Currency;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests for the {@link TransferJournal}
+ *
+ * @author karanikasg@gmail.com
+ */
+public class TransferJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayAppliesCreationsBeforeTransfers() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferJournal journal = TransferJournal.open(dir, new Balances());
+        // the transfer may be journaled before the creation of its target account
+        journal.appendCreate(0, Currency.EURO, 1000);
+        journal.appendTransfer(0, 1, 250);
+        long last = journal.appendCreate(1, Currency.EURO, 10);
+        journal.awaitDurable(last);
+        Assert.assertEquals(3, journal.getRecords());
+        journal.close();
+
+        Balances balances = new Balances();
+        TransferJournal.open(dir, balances).close();
+        Assert.assertEquals(Long.valueOf(750), balances.get(0));
+        Assert.assertEquals(Long.valueOf(260), balances.get(1));
+    }
+
+    @Test
+    public void testConvertedTransfersReplayBothAmounts() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferJournal journal = TransferJournal.open(dir, new Balances());
+        journal.appendCreate(0, Currency.EURO, 10_000);
+        journal.appendCreate(1, Currency.YEN, 0);
+        journal.appendTransfer(0, 1, 1000, 1625);
+        journal.awaitDurable(journal.appendTransfer(1, 0, 325, 200));
+        journal.close();
+
+        Balances balances = new Balances();
+        TransferJournal.open(dir, balances).close();
+        Assert.assertEquals(Long.valueOf(9200), balances.get(0));
+        Assert.assertEquals(Long.valueOf(1300), balances.get(1));
+    }
+
+    @Test
+    public void testKeyedTransfersReplayTheirKey() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferJournal journal = TransferJournal.open(dir, new Balances());
+        journal.appendCreate(0, Currency.EURO, 1000);
+        journal.appendCreate(1, Currency.YEN, 0);
+        journal.appendTransfer(0, 1, 100, 100, "retry-me", 42);
+        journal.awaitDurable(journal.appendTransfer(0, 1, 100, 16250, "ключ", 43));
+        journal.close();
+
+        Balances balances = new Balances();
+        TransferJournal.open(dir, balances).close();
+        Assert.assertEquals(Long.valueOf(800), balances.get(0));
+        Assert.assertEquals(Long.valueOf(16350), balances.get(1));
+        Assert.assertEquals(Long.valueOf(42), balances.keys.get("retry-me"));
+        Assert.assertEquals(Long.valueOf(43), balances.keys.get("ключ"));
+    }
+
+    @Test
+    public void testTornTailIsDiscarded() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferJournal journal = TransferJournal.open(dir, new Balances());
+        journal.appendCreate(0, Currency.EURO, 100);
+        journal.appendCreate(1, Currency.EURO, 100);
+        journal.awaitDurable(journal.appendTransfer(0, 1, 40));
+        journal.close();
+
+        // cut the last record in half as if the process died while writing it
+        Path segment = onlySegment(dir);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        Balances balances = new Balances();
+        journal = TransferJournal.open(dir, balances);
+        Assert.assertEquals(Long.valueOf(100), balances.get(0));
+        Assert.assertEquals(Long.valueOf(100), balances.get(1));
+
+        // appending after the recovery must not leave the torn record in the middle of the journal
+        journal.awaitDurable(journal.appendTransfer(1, 0, 30));
+        journal.close();
+
+        balances = new Balances();
+        TransferJournal.open(dir, balances).close();
+        Assert.assertEquals(Long.valueOf(130), balances.get(0));
+        Assert.assertEquals(Long.valueOf(70), balances.get(1));
+    }
+
+    @Test
+    public void testConcurrentAppendsShareFsync() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferJournal journal = TransferJournal.open(dir, new Balances());
+        journal.awaitDurable(journal.appendCreate(0, Currency.EURO, 0));
+
+        int threads = 8;
+        int transfersPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int j = 0; j < transfersPerThread; j++) {
+                    journal.awaitDurable(journal.appendTransfer(0, 0, 1));
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1 + threads * transfersPerThread, journal.getRecords());
+        Assert.assertTrue("Every append was forced on its own", journal.getBatches() < journal.getRecords());
+        journal.close();
+    }
+
+    @Test
+    public void testFailureIsGivenToDurabilityCallbacks() throws Exception {
+        Set<Thread> others = flushers();
+        TransferJournal journal = TransferJournal.open(folder.getRoot().toPath(), new Balances());
+        journal.awaitDurable(journal.appendCreate(0, Currency.EURO, 100));
+        Set<Thread> flushers = flushers();
+        flushers.removeAll(others);
+        Assert.assertEquals(1, flushers.size());
+        // the channel is closed when the interrupted flusher writes the next batch
+        flushers.forEach(Thread::interrupt);
+
+        long sequence = journal.appendTransfer(0, 0, 1);
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        journal.onDurable(sequence, () -> pending.complete(null), pending::completeExceptionally);
+        assertFailed(pending);
+
+        // the failure is given right away once the journal has failed
+        CompletableFuture<Void> late = new CompletableFuture<>();
+        journal.onDurable(sequence, () -> late.complete(null), late::completeExceptionally);
+        assertFailed(late);
+        journal.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAppendAfterClose() throws Exception {
+        TransferJournal journal = TransferJournal.open(folder.getRoot().toPath(), new Balances());
+        journal.close();
+        journal.appendCreate(0, Currency.EURO, 1);
+    }
+
+    private static Set<Thread> flushers() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("journal-flusher"))
+                .collect(Collectors.toSet());
+    }
+
+    private static void assertFailed(CompletableFuture<Void> durable) throws Exception {
+        try {
+            durable.get(10, TimeUnit.SECONDS);
+            Assert.fail("The record was made durable by a failed journal");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof UncheckedIOException);
+        }
+    }
+
+    private static Path onlySegment(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.reduce((a, b) -> {
+                throw new AssertionError("More than one segment in " + dir);
+            }).orElseThrow(() -> new AssertionError("No segment in " + dir));
+        }
+    }
+
+    private static final class Balances extends HashMap<Integer, Long> implements TransferJournal.Visitor {
+        private static final long serialVersionUID = 1L;
+
+        final HashMap<String, Long> keys = new HashMap<>();
+
+        @Override
+        public void onCreate(int accountId, Currency currency, long balance) {
+            put(accountId, balance);
+        }
+
+        @Override
+        public void onTransfer(int fromAccountId, int toAccountId, long debitAmount, long creditAmount) {
+            merge(fromAccountId, -debitAmount, Long::sum);
+            merge(toAccountId, creditAmount, Long::sum);
+        }
+
+        @Override
+        public void onIdempotencyKey(String key, long createdMillis) {
+            keys.put(key, createdMillis);
+        }
+    }
+}
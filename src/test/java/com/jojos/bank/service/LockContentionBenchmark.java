@@ -0,0 +1,96 @@
+package com.jojos.bank.service;
+
+import com.jojos.bank.money.Account;
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.Transfer;
+import com.jojos.bank.resource.Database;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the transfer throughput of every {@link ConcurrencyMode} while the number of threads grows from 1 to N.
+ * Every thread moves money back and forth between its own pair of accounts, so the only contention is the one
+ * introduced by the locking strategy.
+ *
+ * Not a unit test, run its main method from the test classpath (see the Readme) with the maximum number of threads
+ * and the measurement time per run in milliseconds as arguments, ie {@code 8 2000}.
+ *
+ * @author karanikasg@gmail.com
+ */
+public final class LockContentionBenchmark {
+
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000_000_000);
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long durationMillis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        System.out.printf("%-8s %8s %16s %8s%n", "mode", "threads", "transfers/sec", "scaling");
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler handler = new TransferHandler(mode);
+            // warm up the JIT before measuring anything
+            run(handler, maxThreads, durationMillis);
+
+            double singleThreaded = 0;
+            for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+                double throughput = run(handler, threads, durationMillis);
+                if (threads == 1) {
+                    singleThreaded = throughput;
+                }
+                System.out.printf("%-8s %8d %16.0f %7.2fx%n", mode, threads, throughput, throughput / singleThreaded);
+            }
+        }
+    }
+
+    private static int nextThreadCount(int threads, int maxThreads) {
+        return threads < maxThreads && threads * 2 > maxThreads ? maxThreads : threads * 2;
+    }
+
+    private static double run(TransferHandler handler, int threads, long durationMillis) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads];
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            int accountA = Database.add(new Account(INITIAL_BALANCE, Currency.EURO));
+            int accountB = Database.add(new Account(INITIAL_BALANCE, Currency.EURO));
+            Transfer forth = new Transfer(accountA, accountB, "1");
+            Transfer back = new Transfer(accountB, accountA, "1");
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                while (running.get()) {
+                    handler.execute(forth);
+                    handler.execute(back);
+                    count += 2;
+                }
+                counts[worker] = count;
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        TimeUnit.MILLISECONDS.sleep(durationMillis);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total * 1e9 / elapsed;
+    }
+}
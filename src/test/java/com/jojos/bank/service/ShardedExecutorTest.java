@@ -0,0 +1,53 @@
+package com.jojos.bank.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the {@link ShardedExecutor}
+ *
+ * @author karanikasg@gmail.com
+ */
+public class ShardedExecutorTest {
+
+    @Test
+    public void testFullShardRejectsNewWorkButNotHandOffs() throws Exception {
+        ShardedExecutor shards = new ShardedExecutor(2, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        try {
+            shards.execute(0, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            shards.execute(0, done::countDown);
+            Assert.assertEquals(1, shards.queueDepth());
+
+            try {
+                shards.execute(0, done::countDown);
+                Assert.fail("The queue of the shard is full");
+            } catch (RejectedExecutionException expected) {
+                // a transfer that already debited its source account hands its credit off anyway
+            }
+            shards.handOff(0, done::countDown);
+            Assert.assertEquals(2, shards.queueDepth());
+
+            release.countDown();
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            shards.shutdown();
+        }
+    }
+}
@@ -2,14 +2,31 @@ package com.jojos.bank.service;
 
 import com.jojos.bank.money.Account;
 import com.jojos.bank.money.Currency;
+import com.jojos.bank.money.CurrencyTotal;
+import com.jojos.bank.money.FxRates;
+import com.jojos.bank.money.Hold;
+import com.jojos.bank.money.Reconciliation;
+import com.jojos.bank.money.Transaction;
+import com.jojos.bank.money.TransactionPage;
 import com.jojos.bank.money.Transfer;
+import com.jojos.bank.money.TransferStatus;
 import com.jojos.bank.resource.Database;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -117,4 +134,772 @@ public class TransferHandlerTest {
         Assert.assertTrue(Database.get(accountIdC).getBalance().compareTo(initialBalance) == 0);
         Assert.assertTrue(Database.get(accountIdD).getBalance().compareTo(initialBalance) == 0);
     }
-}
\ No newline at end of file
+
+    /**
+     * Two threads transfer money between the same two accounts in opposite directions.
+     * With per account locking this is the classic deadlock scenario unless the locks are always taken in
+     * the same order.
+     */
+    @Test
+    public void testOpposingTransfersWithStripedLocks() throws Exception {
+        int transfers = 100_000;
+        BigDecimal initialBalance = BigDecimal.valueOf(transfers);
+
+        int accountIdA = Database.add(new Account(initialBalance, Currency.EURO));
+        int accountIdB = Database.add(new Account(initialBalance, Currency.EURO));
+
+        TransferHandler transferHandler = new TransferHandler(ConcurrencyMode.STRIPED);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        List<Future<?>> futures = new ArrayList<>();
+        futures.add(executorService.submit(() -> {
+            for (int i = 0; i < transfers; i++) {
+                Assert.assertTrue(transferHandler.execute(new Transfer(accountIdA, accountIdB, "1")));
+            }
+        }));
+        futures.add(executorService.submit(() -> {
+            for (int i = 0; i < transfers; i++) {
+                Assert.assertTrue(transferHandler.execute(new Transfer(accountIdB, accountIdA, "1")));
+            }
+        }));
+        executorService.shutdown();
+
+        Assert.assertTrue("Transfers did not complete, possible deadlock",
+                executorService.awaitTermination(60, TimeUnit.SECONDS));
+        // rethrows a failed assertion of the transfers
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        Assert.assertTrue(Database.get(accountIdA).getBalance().compareTo(initialBalance) == 0);
+        Assert.assertTrue(Database.get(accountIdB).getBalance().compareTo(initialBalance) == 0);
+    }
+
+    /**
+     * Several threads hammer the same three accounts without any lock. Every compare-and-swap failure must be retried
+     * so no money is created or lost.
+     */
+    @Test
+    public void testOptimisticTransfersUnderContention() throws Exception {
+        int transfersPerThread = 50_000;
+        BigDecimal initialBalance = BigDecimal.valueOf(transfersPerThread);
+
+        int[] accountIds = {
+                Database.add(new Account(initialBalance, Currency.EURO)),
+                Database.add(new Account(initialBalance, Currency.EURO)),
+                Database.add(new Account(initialBalance, Currency.EURO))
+        };
+
+        TransferHandler transferHandler = new TransferHandler(ConcurrencyMode.OPTIMISTIC);
+        ExecutorService executorService = Executors.newFixedThreadPool(accountIds.length);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < accountIds.length; i++) {
+            int from = accountIds[i];
+            int to = accountIds[(i + 1) % accountIds.length];
+            futures.add(executorService.submit(() -> {
+                for (int j = 0; j < transfersPerThread; j++) {
+                    Assert.assertTrue(transferHandler.execute(new Transfer(from, to, "1")));
+                }
+            }));
+        }
+        executorService.shutdown();
+
+        Assert.assertTrue(executorService.awaitTermination(60, TimeUnit.SECONDS));
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        for (int accountId : accountIds) {
+            Assert.assertTrue(Database.get(accountId).getBalance().compareTo(initialBalance) == 0);
+        }
+    }
+
+    /**
+     * A ring of transfers where every account lives on a different shard, so every transfer is handed off between
+     * two event loops, plus transfers inside a single shard.
+     */
+    @Test
+    public void testShardedTransfers() throws Exception {
+        int shardCount = 4;
+        int transfersPerAccount = 20_000;
+        BigDecimal initialBalance = BigDecimal.valueOf(transfersPerAccount);
+
+        System.setProperty(ConcurrencyMode.SHARDS_PROPERTY, String.valueOf(shardCount));
+        // all the transfers are queued at once
+        System.setProperty(ConcurrencyMode.SHARD_QUEUE_PROPERTY, String.valueOf(transfersPerAccount * (shardCount + 1)));
+        TransferHandler transferHandler;
+        try {
+            transferHandler = new TransferHandler(ConcurrencyMode.SHARDED);
+        } finally {
+            System.clearProperty(ConcurrencyMode.SHARDS_PROPERTY);
+            System.clearProperty(ConcurrencyMode.SHARD_QUEUE_PROPERTY);
+        }
+
+        // consecutive ids land on consecutive shards, the last one shares its shard with the first
+        int[] accountIds = new int[shardCount + 1];
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = Database.add(new Account(initialBalance, Currency.EURO));
+        }
+
+        try {
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (int j = 0; j < transfersPerAccount; j++) {
+                for (int i = 0; i < accountIds.length; i++) {
+                    Transfer transfer = new Transfer(accountIds[i], accountIds[(i + 1) % accountIds.length], "1");
+                    results.add(transferHandler.executeAsync(transfer));
+                }
+            }
+            for (CompletableFuture<Boolean> result : results) {
+                Assert.assertTrue(result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            transferHandler.shutdown();
+        }
+
+        for (int accountId : accountIds) {
+            Assert.assertTrue(Database.get(accountId).getBalance().compareTo(initialBalance) == 0);
+        }
+        Assert.assertFalse(transferHandler.execute(new Transfer(accountIds[0], Integer.MAX_VALUE, "1")));
+    }
+
+    @Test
+    public void testBatchReportsEveryTransfer() throws Exception {
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            try {
+                int a = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+                int b = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+
+                List<TransferStatus> statuses = transferHandler.executeBatch(Arrays.asList(
+                        new Transfer(a, b, "10"),
+                        new Transfer(a, Integer.MAX_VALUE, "10"),
+                        new Transfer(b, a, "-1"),
+                        new Transfer(b, a, "not a number"),
+                        new Transfer(b, b, "5"),
+                        new Transfer(b, a, "2.50")), false);
+
+                Assert.assertEquals(mode.name(), Arrays.asList(TransferStatus.OK, TransferStatus.ACCOUNT_NOT_FOUND,
+                        TransferStatus.INVALID_AMOUNT, TransferStatus.INVALID_AMOUNT, TransferStatus.OK,
+                        TransferStatus.OK), statuses);
+                Assert.assertEquals(0, Database.get(a).getBalance().compareTo(new BigDecimal("92.50")));
+                Assert.assertEquals(0, Database.get(b).getBalance().compareTo(new BigDecimal("107.50")));
+            } finally {
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAtomicBatchIsAllOrNothing() throws Exception {
+        for (ConcurrencyMode mode : Arrays.asList(ConcurrencyMode.GLOBAL, ConcurrencyMode.STRIPED)) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            int a = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+            int b = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+            // crediting this one overflows
+            int full = Database.add(new Account(Currency.EURO.fromMinorUnits(Long.MAX_VALUE), Currency.EURO));
+
+            List<TransferStatus> statuses = transferHandler.executeBatch(Arrays.asList(
+                    new Transfer(a, b, "10"),
+                    new Transfer(b, full, "1"),
+                    new Transfer(b, a, "3")), true);
+
+            Assert.assertEquals(mode.name(), Arrays.asList(TransferStatus.ABORTED, TransferStatus.FAILED,
+                    TransferStatus.ABORTED), statuses);
+            Assert.assertEquals(0, Database.get(a).getBalance().compareTo(BigDecimal.valueOf(100)));
+            Assert.assertEquals(0, Database.get(b).getBalance().compareTo(BigDecimal.valueOf(100)));
+            Assert.assertEquals(Long.MAX_VALUE, Database.balance(full));
+
+            statuses = transferHandler.executeBatch(Arrays.asList(
+                    new Transfer(a, b, "10"),
+                    new Transfer(b, Integer.MAX_VALUE, "1")), true);
+            Assert.assertEquals(Arrays.asList(TransferStatus.ABORTED, TransferStatus.ACCOUNT_NOT_FOUND), statuses);
+            Assert.assertEquals(0, Database.get(a).getBalance().compareTo(BigDecimal.valueOf(100)));
+        }
+    }
+
+    /**
+     * An atomic batch rolls back its first transfer when the second one fails, while another thread keeps trying
+     * to move on the funds the first transfer credited. The batch must keep it out until the rollback is done,
+     * otherwise the rollback would overdraw the account.
+     */
+    @Test
+    public void testAtomicBatchIsIsolatedFromConcurrentTransfers() throws Exception {
+        for (ConcurrencyMode mode : Arrays.asList(ConcurrencyMode.GLOBAL, ConcurrencyMode.STRIPED)) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                int a = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+                int b = Database.add(new Account(BigDecimal.ZERO, Currency.EURO));
+                int c = Database.add(new Account(BigDecimal.ZERO, Currency.EURO));
+                int full = Database.add(new Account(Currency.EURO.fromMinorUnits(Long.MAX_VALUE), Currency.EURO));
+                int rounds = 2000;
+
+                List<Future<?>> futures = new ArrayList<>();
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < rounds; i++) {
+                        // crediting the full account overflows, which rolls back the first transfer
+                        Assert.assertEquals(mode.name(), Arrays.asList(TransferStatus.ABORTED, TransferStatus.FAILED),
+                                transferHandler.executeBatch(Arrays.asList(
+                                        new Transfer(a, b, "100"),
+                                        new Transfer(b, full, "100")), true));
+                    }
+                }));
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < rounds; i++) {
+                        Assert.assertFalse(mode.name(), transferHandler.execute(new Transfer(b, c, "100")));
+                    }
+                }));
+                for (Future<?> future : futures) {
+                    future.get(60, TimeUnit.SECONDS);
+                }
+
+                Assert.assertEquals(mode.name(), 10_000, Database.balance(a));
+                Assert.assertEquals(mode.name(), 0, Database.balance(b));
+                Assert.assertEquals(mode.name(), 0, Database.balance(c));
+            } finally {
+                executor.shutdownNow();
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testTransfersBetweenCurrenciesAreConverted() throws Exception {
+        FxRates.load(new StringReader("EUR/USD=1.0845\nEUR/JPY=162.5"));
+        try {
+            for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+                TransferHandler transferHandler = new TransferHandler(mode);
+                try {
+                    int euros = Database.add(new Account(BigDecimal.valueOf(1000), Currency.EURO));
+                    int dollars = Database.add(new Account(BigDecimal.valueOf(1000), Currency.US_DOLLAR));
+                    int yen = Database.add(new Account(BigDecimal.valueOf(1000), Currency.YEN));
+                    int pounds = Database.add(new Account(BigDecimal.valueOf(1000), Currency.POUND_STERLING));
+
+                    Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(euros, dollars, "100")));
+                    Assert.assertEquals(mode.name(), 100_000 + 10_845, Database.balance(dollars));
+                    // the inverse rate is derived, 1 USD = 0.9220839096 EUR
+                    Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(dollars, euros, "10.84")));
+                    Assert.assertEquals(mode.name(), 90_000 + 1000, Database.balance(euros));
+                    Assert.assertFalse(mode.name(), transferHandler.execute(new Transfer(euros, pounds, "1")));
+
+                    List<TransferStatus> statuses = transferHandler.executeBatch(Arrays.asList(
+                            new Transfer(euros, yen, "0.01"),
+                            new Transfer(yen, euros, "0.4"),
+                            new Transfer(pounds, dollars, "1")), false);
+                    Assert.assertEquals(mode.name(), Arrays.asList(TransferStatus.OK, TransferStatus.INVALID_AMOUNT,
+                            TransferStatus.NO_EXCHANGE_RATE), statuses);
+                    Assert.assertEquals(mode.name(), 90_999, Database.balance(euros));
+                    Assert.assertEquals(mode.name(), 1002, Database.balance(yen));
+                    Assert.assertEquals(mode.name(), 100_000, Database.balance(pounds));
+                } finally {
+                    transferHandler.shutdown();
+                }
+            }
+
+            TransferHandler transferHandler = new TransferHandler(ConcurrencyMode.STRIPED);
+            int euros = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+            int yen = Database.add(new Account(BigDecimal.valueOf(100), Currency.YEN));
+            int full = Database.add(new Account(Currency.YEN.fromMinorUnits(Long.MAX_VALUE), Currency.YEN));
+            List<TransferStatus> statuses = transferHandler.executeBatch(Arrays.asList(
+                    new Transfer(euros, yen, "33.33"),
+                    new Transfer(euros, full, "1")), true);
+            Assert.assertEquals(Arrays.asList(TransferStatus.ABORTED, TransferStatus.FAILED), statuses);
+            // the rollback moves back the converted amount, not a new conversion of it
+            Assert.assertEquals(10_000, Database.balance(euros));
+            Assert.assertEquals(100, Database.balance(yen));
+        } finally {
+            FxRates.clear();
+        }
+    }
+
+    @Test
+    public void testCreditThatWouldOverflowGivesTheDebitBack() throws Exception {
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            try {
+                int from = Database.add(new Account(BigDecimal.valueOf(100), Currency.YEN));
+                int full = Database.add(new Account(Currency.YEN.fromMinorUnits(Long.MAX_VALUE), Currency.YEN));
+
+                boolean executed;
+                try {
+                    executed = transferHandler.executeAsync(new Transfer(from, full, "1")).get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    executed = false;
+                }
+                Assert.assertFalse(mode.name(), executed);
+                Assert.assertEquals(mode.name(), 100, Database.balance(from));
+                Assert.assertEquals(mode.name(), Long.MAX_VALUE, Database.balance(full));
+            } finally {
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testDebitsStayWithinTheCreditLine() throws Exception {
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            try {
+                int a = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+                int b = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+
+                Assert.assertFalse(mode.name(), transferHandler.execute(new Transfer(a, b, "100.01")));
+                Assert.assertEquals(mode.name(), TransferStatus.OK, transferHandler.setCreditLine(a, "50"));
+                Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(a, b, "150")));
+                Assert.assertFalse(mode.name(), transferHandler.executeAsync(new Transfer(a, b, "0.01")).join());
+                Assert.assertEquals(mode.name(), -5000, Database.balance(a));
+
+                Assert.assertEquals(mode.name(), Arrays.asList(TransferStatus.OK, TransferStatus.INSUFFICIENT_FUNDS),
+                        transferHandler.executeBatch(Arrays.asList(
+                                new Transfer(b, a, "250"),
+                                new Transfer(b, a, "0.01")), false));
+                Assert.assertEquals(mode.name(), 0, Database.balance(b));
+
+                Assert.assertEquals(TransferStatus.INVALID_AMOUNT, transferHandler.setCreditLine(a, "-1"));
+                Assert.assertEquals(TransferStatus.ACCOUNT_NOT_FOUND,
+                        transferHandler.setCreditLine(Integer.MAX_VALUE, "1"));
+            } finally {
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testHeldFundsCannotBeDebited() throws Exception {
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            try {
+                int a = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+                int b = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+
+                Hold hold = transferHandler.reserve(new Hold(a, "60"));
+                Assert.assertEquals(mode.name(), TransferStatus.OK, hold.getStatus());
+                Assert.assertEquals(TransferStatus.INSUFFICIENT_FUNDS,
+                        transferHandler.reserve(new Hold(a, "40.01")).getStatus());
+                Assert.assertEquals(TransferStatus.INVALID_AMOUNT, transferHandler.reserve(new Hold(a, "0")).getStatus());
+                Assert.assertEquals(TransferStatus.ACCOUNT_NOT_FOUND,
+                        transferHandler.reserve(new Hold(Integer.MAX_VALUE, "1")).getStatus());
+                Assert.assertFalse(mode.name(), transferHandler.execute(new Transfer(a, b, "40.01")));
+                Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(a, b, "40")));
+
+                Assert.assertEquals(TransferStatus.ACCOUNT_NOT_FOUND,
+                        transferHandler.commitHold(hold.getHoldId(), Integer.MAX_VALUE));
+                Assert.assertEquals(mode.name(), TransferStatus.OK, transferHandler.commitHold(hold.getHoldId(), b));
+                Assert.assertEquals(TransferStatus.HOLD_NOT_FOUND, transferHandler.commitHold(hold.getHoldId(), b));
+                Assert.assertEquals(mode.name(), 0, Database.balance(a));
+                Assert.assertEquals(mode.name(), 20000, Database.balance(b));
+                Assert.assertEquals(mode.name(), 0, Database.held(a));
+
+                // a released hold gives its funds back
+                hold = transferHandler.reserve(new Hold(b, "200"));
+                Assert.assertFalse(mode.name(), transferHandler.execute(new Transfer(b, a, "1")));
+                Assert.assertTrue(transferHandler.releaseHold(hold.getHoldId()));
+                Assert.assertFalse(transferHandler.releaseHold(hold.getHoldId()));
+                Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(b, a, "200")));
+            } finally {
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testFailedCommitKeepsTheHold() throws Exception {
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            try {
+                int a = Database.add(new Account(BigDecimal.valueOf(100), Currency.YEN));
+                int b = Database.add(new Account(BigDecimal.ZERO, Currency.YEN));
+                int full = Database.add(new Account(Currency.YEN.fromMinorUnits(Long.MAX_VALUE), Currency.YEN));
+                Hold hold = transferHandler.reserve(new Hold(a, "60"));
+
+                // crediting the full account overflows
+                TransferStatus status;
+                try {
+                    status = transferHandler.commitHold(hold.getHoldId(), full);
+                } catch (ArithmeticException e) {
+                    status = TransferStatus.FAILED;
+                }
+                Assert.assertEquals(mode.name(), TransferStatus.FAILED, status);
+                Assert.assertEquals(mode.name(), 100, Database.balance(a));
+                Assert.assertEquals(mode.name(), 60, Database.held(a));
+                Assert.assertEquals(mode.name(), Long.MAX_VALUE, Database.balance(full));
+
+                Assert.assertEquals(mode.name(), TransferStatus.OK, transferHandler.commitHold(hold.getHoldId(), b));
+                Assert.assertEquals(mode.name(), 40, Database.balance(a));
+                Assert.assertEquals(mode.name(), 60, Database.balance(b));
+                Assert.assertEquals(mode.name(), 0, Database.held(a));
+            } finally {
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Holds race with transfers out of the same account without any lock: whatever wins, the balance never goes
+     * below the funds still held.
+     */
+    @Test
+    public void testHoldsRacingWithOptimisticDebits() throws Exception {
+        int attempts = 20_000;
+        int account = Database.add(new Account(BigDecimal.valueOf(attempts), Currency.EURO));
+        int sink = Database.add(new Account(BigDecimal.ZERO, Currency.EURO));
+
+        TransferHandler transferHandler = new TransferHandler(ConcurrencyMode.OPTIMISTIC);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        CompletableFuture<Integer> holds = CompletableFuture.supplyAsync(() -> {
+            int held = 0;
+            for (int i = 0; i < attempts; i++) {
+                if (transferHandler.reserve(new Hold(account, "1")).getStatus() == TransferStatus.OK) {
+                    held++;
+                }
+            }
+            return held;
+        }, executorService);
+        CompletableFuture<Integer> debits = CompletableFuture.supplyAsync(() -> {
+            int debited = 0;
+            for (int i = 0; i < attempts; i++) {
+                if (transferHandler.execute(new Transfer(account, sink, "1"))) {
+                    debited++;
+                }
+            }
+            return debited;
+        }, executorService);
+        executorService.shutdown();
+
+        int held = holds.get(60, TimeUnit.SECONDS);
+        int debited = debits.get(60, TimeUnit.SECONDS);
+        Assert.assertTrue(held + debited <= attempts);
+        Assert.assertEquals(held * 100L, Database.held(account));
+        Assert.assertEquals(debited * 100L, Database.balance(sink));
+        Assert.assertTrue(Database.balance(account) >= Database.held(account));
+    }
+
+    @Test
+    public void testTransfersAreRecordedInTheHistoryOfBothAccounts() throws Exception {
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            try {
+                int a = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+                int b = Database.add(new Account(BigDecimal.valueOf(0), Currency.EURO));
+                Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(a, b, "10.50")));
+                Assert.assertTrue(mode.name(), transferHandler.executeAsync(new Transfer(b, a, "0.50"))
+                        .get(10, TimeUnit.SECONDS));
+                // refused transfers leave no trace
+                Assert.assertFalse(mode.name(), transferHandler.execute(new Transfer(b, a, "1000")));
+
+                TransactionPage page = transferHandler.getTransactions(a, -1, 1);
+                Assert.assertEquals(mode.name(), 1, page.getTransactions().size());
+                Transaction latest = page.getTransactions().get(0);
+                Assert.assertEquals(mode.name(), b, latest.getCounterpartyAccountId());
+                Assert.assertEquals(mode.name(), new BigDecimal("0.50"), latest.getAmount());
+                Assert.assertEquals(mode.name(), new BigDecimal("90.00"), latest.getBalance());
+
+                page = transferHandler.getTransactions(a, page.getNextCursor(), 10);
+                Assert.assertNull(mode.name(), page.getNextCursor());
+                Transaction first = page.getTransactions().get(0);
+                Assert.assertEquals(mode.name(), new BigDecimal("-10.50"), first.getAmount());
+                Assert.assertEquals(mode.name(), new BigDecimal("89.50"), first.getBalance());
+
+                // both legs of a transfer share its ID
+                List<Transaction> ofB = transferHandler.getTransactions(b, -1, 10).getTransactions();
+                Assert.assertEquals(mode.name(), 2, ofB.size());
+                Assert.assertEquals(mode.name(), first.getTransferId(), ofB.get(1).getTransferId());
+                Assert.assertEquals(mode.name(), new BigDecimal("10.50"), ofB.get(1).getBalance());
+                Assert.assertEquals(mode.name(), new BigDecimal("10.00"), ofB.get(0).getBalance());
+
+                Assert.assertNull(mode.name(), transferHandler.getTransactions(Integer.MAX_VALUE, -1, 10));
+            } finally {
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testTransfersWithTheSameKeyExecuteOnce() throws Exception {
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            try {
+                int a = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+                int b = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+                String key = mode.name() + System.nanoTime();
+
+                // retried concurrently while the first one may still be in progress
+                List<CompletableFuture<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    results.add(transferHandler.executeAsync(new Transfer(a, b, "10", key)));
+                }
+                for (CompletableFuture<Boolean> result : results) {
+                    Assert.assertTrue(mode.name(), result.get(10, TimeUnit.SECONDS));
+                }
+                Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(a, b, "10", key)));
+                Assert.assertEquals(mode.name(), 9000, Database.balance(a));
+
+                // a refused transfer is refused again, even once it could go through
+                String refusedKey = key + "-refused";
+                Assert.assertFalse(mode.name(), transferHandler.execute(new Transfer(a, b, "100", refusedKey)));
+                Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(b, a, "10")));
+                Assert.assertFalse(mode.name(), transferHandler.execute(new Transfer(a, b, "100", refusedKey)));
+                Assert.assertTrue(mode.name(), transferHandler.execute(new Transfer(a, b, "100")));
+            } finally {
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAtomicBatchNotSupportedWhenShardedOrOptimistic() throws Exception {
+        for (ConcurrencyMode mode : Arrays.asList(ConcurrencyMode.SHARDED, ConcurrencyMode.OPTIMISTIC)) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            try {
+                transferHandler.executeBatch(new ArrayList<>(), true);
+                Assert.fail("An atomic batch should have been refused in " + mode + " mode");
+            } catch (UnsupportedOperationException expected) {
+                // the accounts of the batch cannot be kept out of other transfers
+            } finally {
+                transferHandler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncTransfersAreRejectedWhenWorkersAreBusy() throws Exception {
+        System.setProperty(ConcurrencyMode.WORKERS_PROPERTY, "1");
+        System.setProperty(ConcurrencyMode.WORKER_QUEUE_PROPERTY, "1");
+        TransferHandler transferHandler;
+        try {
+            transferHandler = new TransferHandler(ConcurrencyMode.STRIPED);
+        } finally {
+            System.clearProperty(ConcurrencyMode.WORKERS_PROPERTY);
+            System.clearProperty(ConcurrencyMode.WORKER_QUEUE_PROPERTY);
+        }
+
+        int from = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+        int to = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // keeps the only worker busy until released
+        Transfer blocking = new Transfer(from, to, "1") {
+            @Override
+            public String getTransferAmount() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getTransferAmount();
+            }
+        };
+
+        try {
+            CompletableFuture<Boolean> first = transferHandler.executeAsync(blocking);
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<Boolean> queued = transferHandler.executeAsync(new Transfer(from, to, "1"));
+            CompletableFuture<Boolean> rejected = transferHandler.executeAsync(new Transfer(from, to, "1"));
+            try {
+                rejected.get();
+                Assert.fail("The transfer should have been rejected");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            release.countDown();
+            Assert.assertTrue(first.get(10, TimeUnit.SECONDS));
+            Assert.assertTrue(queued.get(10, TimeUnit.SECONDS));
+            Assert.assertFalse(transferHandler.executeAsync(new Transfer(from, Integer.MAX_VALUE, "1"))
+                    .get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            transferHandler.shutdown();
+        }
+        Assert.assertEquals(0, Database.get(to).getBalance().compareTo(BigDecimal.valueOf(102)));
+    }
+
+    @Test
+    public void testCreditsToHotAccountsAreCoalesced() throws Exception {
+        for (ConcurrencyMode mode : new ConcurrencyMode[] {ConcurrencyMode.GLOBAL, ConcurrencyMode.STRIPED,
+                ConcurrencyMode.OPTIMISTIC}) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            int merchant = Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO));
+            transferHandler.coalesceCredits(merchant);
+            int payers = 8;
+            List<Integer> payerIds = new ArrayList<>();
+            for (int i = 0; i < payers; i++) {
+                payerIds.add(Database.add(new Account(BigDecimal.valueOf(100), Currency.EURO)));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int payer : payerIds) {
+                executor.execute(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        transferHandler.execute(new Transfer(payer, merchant, "0.25"));
+                    }
+                });
+            }
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            // the credits may still be pending but they are part of the balance
+            Assert.assertEquals(mode.name(), 0,
+                    transferHandler.getAccount(merchant).getBalance().compareTo(BigDecimal.valueOf(300)));
+            // a debit sees the whole balance and folds it
+            Assert.assertTrue(transferHandler.execute(new Transfer(merchant, payerIds.get(0), "250")));
+            Assert.assertEquals(mode.name(), 0, Database.pendingCredits(merchant));
+            Assert.assertEquals(mode.name(), 5000, Database.balance(merchant));
+            transferHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testConsistentReadsNeverSeeHalfTransfers() throws Exception {
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            TransferHandler transferHandler = new TransferHandler(mode);
+            int[] accountIds = new int[3];
+            for (int i = 0; i < accountIds.length; i++) {
+                accountIds[i] = Database.add(new Account(BigDecimal.valueOf(1000), Currency.EURO));
+            }
+            // credits to this one are coalesced and folded by the debits
+            transferHandler.coalesceCredits(accountIds[2]);
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int thread = 0; thread < 4; thread++) {
+                int offset = thread;
+                executor.execute(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        int from = accountIds[(i + offset) % 3];
+                        int to = accountIds[(i + offset + 1 + i % 2) % 3];
+                        transferHandler.executeAsync(new Transfer(from, to, "1.00")).join();
+                    }
+                });
+            }
+            executor.shutdown();
+
+            int reads = 0;
+            do {
+                Map<Integer, Account> accounts = transferHandler.getAccounts(accountIds);
+                BigDecimal total = accounts.values().stream().map(Account::getBalance)
+                        .reduce(BigDecimal.ZERO, BigDecimal::add);
+                Assert.assertEquals(mode.name(), 0, total.compareTo(BigDecimal.valueOf(3000)));
+                reads++;
+            } while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS));
+            Assert.assertTrue(reads > 0);
+            Assert.assertNull(transferHandler.getAccounts(new int[] {accountIds[0], Integer.MAX_VALUE}));
+            transferHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testReconciliationDuringTransfers() throws Exception {
+        // currencies no other test uses, some of them write balances behind the back of the ledger
+        FxRates.load(new StringReader("CHF/CZK=24.5"));
+        try {
+            for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+                TransferHandler transferHandler = new TransferHandler(mode);
+                int[] accountIds = new int[4];
+                for (int i = 0; i < accountIds.length; i++) {
+                    accountIds[i] = Database.add(new Account(BigDecimal.valueOf(1000),
+                            i < 3 ? Currency.SWISS_FRANC : Currency.CZECH_KORUNA));
+                }
+                transferHandler.coalesceCredits(accountIds[2]);
+
+                ExecutorService executor = Executors.newFixedThreadPool(4);
+                for (int thread = 0; thread < 4; thread++) {
+                    int offset = thread;
+                    executor.execute(() -> {
+                        for (int i = 0; i < 2000; i++) {
+                            int from = accountIds[(i + offset) % 4];
+                            int to = accountIds[(i + offset + 1 + i % 2) % 4];
+                            transferHandler.executeAsync(new Transfer(from, to, "0.10")).join();
+                        }
+                    });
+                }
+                executor.shutdown();
+
+                int reconciliations = 0;
+                do {
+                    Reconciliation reconciliation = transferHandler.reconcile();
+                    for (CurrencyTotal total : reconciliation.getTotals()) {
+                        if (total.getCurrency().equals("CHF") || total.getCurrency().equals("CZK")) {
+                            Assert.assertEquals(mode.name() + " " + total, 0,
+                                    total.getBalance().compareTo(total.getExpected()));
+                        }
+                    }
+                    Assert.assertTrue(reconciliation.getAccounts() > accountIds[3]);
+                    reconciliations++;
+                } while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS));
+                Assert.assertTrue(reconciliations > 0);
+                transferHandler.shutdown();
+            }
+        } finally {
+            FxRates.clear();
+        }
+    }
+
+    @Test
+    public void testAccountsCoolDown() throws Exception {
+        HotAccounts hotAccounts = new HotAccounts(4);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(hotAccounts.contended(7));
+        }
+        Assert.assertTrue(hotAccounts.contended(7));
+        Assert.assertFalse(hotAccounts.contended(7));
+        Assert.assertTrue(hotAccounts.isHot(7));
+
+        // 5 then 2, below half of the threshold
+        hotAccounts.decay();
+        Assert.assertTrue(hotAccounts.isHot(7));
+        hotAccounts.decay();
+        Assert.assertFalse(hotAccounts.isHot(7));
+        Assert.assertTrue(hotAccounts.coalesced().contains(7));
+
+        hotAccounts.forget(7);
+        Assert.assertFalse(hotAccounts.coalesced().contains(7));
+        hotAccounts.markHot(7);
+        hotAccounts.forget(7);
+        Assert.assertTrue(hotAccounts.coalesced().contains(7));
+    }
+
+    @Test
+    public void testAccountsSharingAScoreAreNotHotTogether() throws Exception {
+        HotAccounts hotAccounts = new HotAccounts(4);
+        // same slot as 7
+        int cold = 7 + 4096;
+        for (int i = 0; i < 20; i++) {
+            hotAccounts.contended(7);
+            hotAccounts.contended(7);
+            Assert.assertFalse(hotAccounts.contended(cold));
+        }
+        Assert.assertTrue(hotAccounts.isHot(7));
+        Assert.assertFalse(hotAccounts.isHot(cold));
+        Assert.assertEquals(1, hotAccounts.hotCount());
+    }
+
+    @Test
+    public void testLocksReportTheContendedAccount() throws Exception {
+        StripedAccountLocks striped = new StripedAccountLocks(4);
+        // 5 shares the stripe of 1
+        Assert.assertEquals(AccountLocks.NOT_CONTENDED, lockWhileHeld(striped, 1, 5));
+        Assert.assertEquals(1, lockWhileHeld(striped, 1, 1));
+        Assert.assertEquals(AccountLocks.NOT_CONTENDED, lockWhileHeld(new GlobalAccountLocks(), 1, 1));
+    }
+
+    /**
+     * Lock an account from another thread while holding the lock of one account of the same stripe
+     * @return what locking reported
+     */
+    private static int lockWhileHeld(AccountLocks locks, int heldAccountId, int accountId) throws Exception {
+        int[] contended = new int[1];
+        locks.lockExclusive(heldAccountId, heldAccountId);
+        Thread waiter = new Thread(() -> {
+            contended[0] = locks.lockExclusive(accountId, accountId);
+            locks.unlockExclusive(accountId, accountId);
+        });
+        try {
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+        } finally {
+            locks.unlockExclusive(heldAccountId, heldAccountId);
+        }
+        waiter.join();
+        return contended[0];
+    }
+}
@@ -0,0 +1,54 @@
+package com.jojos.bank.util;
+
+import com.jojos.bank.money.Currency;
+import com.jojos.bank.resource.Database;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Tests for the {@link AccountCreator}
+ *
+ * @author karanikasg@gmail.com
+ */
+public class AccountCreatorTest {
+
+    @Test
+    public void testParallelGenerationCreatesEveryAccount() {
+        int amount = 3 * AccountCreator.BATCH_SIZE + 5;
+        List<AccountRange> ranges = AccountCreator.createRandomTestAccounts(amount, Currency.US_DOLLAR,
+                BalanceDistribution.UNIFORM, new BigDecimal("10"), new BigDecimal("20.50"));
+
+        int created = 0;
+        for (AccountRange range : ranges) {
+            created += range.size();
+            for (int id = range.getFirstId(); id <= range.getLastId(); id++) {
+                Assert.assertEquals(Currency.US_DOLLAR, Database.currency(id));
+                long balance = Database.balance(id);
+                Assert.assertTrue(String.valueOf(balance), balance >= 1000 && balance <= 2050);
+            }
+        }
+        Assert.assertEquals(amount, created);
+    }
+
+    @Test
+    public void testDistributionsStayWithinBounds() {
+        SplittableRandom random = new SplittableRandom(42);
+        int aboveDouble = 0;
+        for (int i = 0; i < 10_000; i++) {
+            for (BalanceDistribution distribution : BalanceDistribution.values()) {
+                long balance = distribution.next(random, 100, 10_000);
+                Assert.assertTrue(distribution + " " + balance, balance >= 100 && balance <= 10_000);
+            }
+            Assert.assertEquals(100, BalanceDistribution.FIXED.next(random, 100, 10_000));
+            if (BalanceDistribution.PARETO.next(random, 100, 10_000) > 200) {
+                aboveDouble++;
+            }
+        }
+        // a Pareto distribution with shape 1.16 puts less than half of the accounts above twice the minimum
+        Assert.assertTrue(String.valueOf(aboveDouble), aboveDouble > 3_000 && aboveDouble < 5_500);
+    }
+}